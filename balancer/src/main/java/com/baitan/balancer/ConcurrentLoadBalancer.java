@@ -1,15 +1,40 @@
 package com.baitan.balancer;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
+import com.baitan.balancer.accesslog.AccessLog;
+import com.baitan.balancer.cluster.ClusterView;
+import com.baitan.balancer.cluster.GossipNode;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.executor.CoDelController;
+import com.baitan.balancer.executor.RequestExecutor;
 import com.baitan.balancer.handlers.ProxyHandler;
 import com.baitan.balancer.health.HealthCheckThread;
 import com.baitan.balancer.health.HealthChecker;
+import com.baitan.balancer.priority.PriorityClass;
+import com.baitan.balancer.priority.PriorityClassifier;
+import com.baitan.balancer.priority.WeightedFairScheduler;
+import com.baitan.balancer.routing.BackendPool;
+import com.baitan.balancer.routing.BackendPools;
+import com.baitan.balancer.routing.RouteTable;
+import com.baitan.balancer.snapshot.MembershipSnapshot;
+import com.baitan.balancer.snapshot.SnapshotWriter;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+import com.baitan.balancer.trace.AdmissionEvent;
+import com.baitan.balancer.trace.BufferPoolEvent;
+import com.baitan.balancer.trace.PriorityClassEvent;
 import com.baitan.balancer.strategy.BalancingStrategy;
 import com.baitan.balancer.strategy.ConcurrentRoundRobinStrategy;
+import com.baitan.balancer.strategy.BalancingStrategies;
 import com.sun.net.httpserver.HttpServer;
 
 /**
@@ -19,9 +44,11 @@ import com.sun.net.httpserver.HttpServer;
  * healthy services are used for routing requests.
  * 
  * <p>
- * The load balancer uses a concurrent round-robin strategy to distribute
- * requests among available backend services. It also performs periodic health
- * checks to update the list of healthy services.
+ * Backend services are grouped into {@link BackendPool}s, each with its own
+ * strategy instance to distribute requests among its available services
+ * (concurrent round-robin, or least-loaded as selected by
+ * {@code BALANCING_STRATEGY}), and requests are dispatched to a pool by host and path prefix. It
+ * also performs periodic health checks to update the list of healthy services.
  * </p>
  *
  * @see BalancingStrategy
@@ -33,17 +60,60 @@ import com.sun.net.httpserver.HttpServer;
 public class ConcurrentLoadBalancer {
 
     private static volatile ConcurrentLoadBalancer instance;
-    private BalancingStrategy balancingStrategy;
+    private final BackendPools backendPools;
+    private final RouteTable routeTable;
     private final HealthChecker healthChecker;
+    private PriorityClassifier priorityClassifier;
+    private WeightedFairScheduler scheduler;
     private final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
     private static final int DEFAULT_PORT = 8080;
+    private static final String BALANCING_STRATEGY = BalancerConfig.getString("BALANCING_STRATEGY",
+            BalancingStrategies.ROUND_ROBIN);
+    private static final int ADMISSION_QUEUE_DEPTH = BalancerConfig.getInt("ADMISSION_QUEUE_DEPTH", 256);
+    private static final long ADMISSION_MAX_QUEUE_MS = BalancerConfig.getLong("ADMISSION_MAX_QUEUE_MS", 1000);
+    private static final long CODEL_TARGET_MS = BalancerConfig.getLong("CODEL_TARGET_MS", 10);
+    private static final long CODEL_INTERVAL_MS = BalancerConfig.getLong("CODEL_INTERVAL_MS", 100);
+    private static final boolean CLUSTER_ENABLED = BalancerConfig.getBoolean("CLUSTER_ENABLED", false);
+    private static final int CLUSTER_BIND_PORT = BalancerConfig.getInt("CLUSTER_BIND_PORT", 7946);
+    private static final String CLUSTER_PEERS = BalancerConfig.getString("CLUSTER_PEERS", "");
+    private static final long CLUSTER_GOSSIP_INTERVAL_MS = BalancerConfig.getLong("CLUSTER_GOSSIP_INTERVAL_MS", 1000);
+    private static final long CLUSTER_PEER_TIMEOUT_MS = BalancerConfig.getLong("CLUSTER_PEER_TIMEOUT_MS", 5000);
+    private static final String PRIORITY_CLASSES = BalancerConfig.getString("PRIORITY_CLASSES", "");
+    private static final String PRIORITY_RULES = BalancerConfig.getString("PRIORITY_RULES", "");
+    private static final String PRIORITY_DEFAULT_CLASS = BalancerConfig.getString("PRIORITY_DEFAULT_CLASS",
+            "default");
+    private static final boolean SNAPSHOT_ENABLED = BalancerConfig.getBoolean("SNAPSHOT_ENABLED", false);
+    private static final String SNAPSHOT_FILE = BalancerConfig.getString("SNAPSHOT_FILE", "membership.snapshot");
+    private static final long SNAPSHOT_INTERVAL_MS = BalancerConfig.getLong("SNAPSHOT_INTERVAL_MS", 1000);
+    private static final long SNAPSHOT_REFRESH_MS = BalancerConfig.getLong("SNAPSHOT_REFRESH_MS", 30_000);
+    private static final long SNAPSHOT_MAX_AGE_MS = BalancerConfig.getLong("SNAPSHOT_MAX_AGE_MS", 600_000);
+    private static final long CLUSTER_VERDICT_MAX_AGE_MS = BalancerConfig.getLong("CLUSTER_VERDICT_MAX_AGE_MS",
+            120_000);
 
     private ConcurrentLoadBalancer() {
-        this.balancingStrategy = ConcurrentRoundRobinStrategy.getInstance();
+        Supplier<BalancingStrategy> strategyFactory = strategyFactory(BALANCING_STRATEGY);
+        this.backendPools = new BackendPools(strategyFactory.get(), strategyFactory);
+        this.routeTable = RouteTable.fromEnvironment(backendPools);
         this.healthChecker = HealthChecker.getInstance();
 
     }
 
+    /**
+     * Returns the factory creating the strategy of each backend pool.
+     *
+     * @param name the configured strategy, see {@link BalancingStrategies}
+     * @return the factory, creating round-robin strategies if the name is
+     *         unknown
+     */
+    private static Supplier<BalancingStrategy> strategyFactory(String name) {
+        try {
+            return BalancingStrategies.factory(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ", using " + BalancingStrategies.ROUND_ROBIN);
+            return ConcurrentRoundRobinStrategy::new;
+        }
+    }
+
     /**
      * Returns the singleton instance of ConcurrentLoadBalancer.
      * <p>
@@ -67,25 +137,35 @@ public class ConcurrentLoadBalancer {
     }
 
     /**
-     * Returns the current balancing strategy used by the load balancer.
+     * Returns the balancing strategy of the default backend pool.
      * 
      * @return the BalancingStrategy instance
      */
     public BalancingStrategy getBalancingStrategy() {
-        return balancingStrategy;
+        return backendPools.getDefaultPool().getBalancingStrategy();
     }
 
     /**
-     * Sets the balancing strategy for the load balancer.
+     * Sets the balancing strategy of the default backend pool.
      * <p>
-     * This method updates the current balancing strategy and loads it with healthy
-     * services from the HealthChecker.
+     * This method updates the strategy of the default pool and loads it with
+     * healthy services from the HealthChecker.
      * 
      * @param balancingStrategy the BalancingStrategy instance to set
      */
     public void setBalancingStrategy(BalancingStrategy balancingStrategy) {
-        this.balancingStrategy = balancingStrategy;
-        loadStrategyWithHealthyServices();
+        BackendPool defaultPool = backendPools.getDefaultPool();
+        defaultPool.setBalancingStrategy(balancingStrategy);
+        backendPools.load(defaultPool, healthChecker.getHealthyServices());
+    }
+
+    /**
+     * Returns the backend pools of the load balancer.
+     *
+     * @return the BackendPools instance
+     */
+    public BackendPools getBackendPools() {
+        return backendPools;
     }
 
     /**
@@ -95,14 +175,14 @@ public class ConcurrentLoadBalancer {
      * <p>
      * This method initializes a new HealthCheckThread and starts it. The thread
      * will run indefinitely, checking the health of services every 60 seconds. It
-     * also synchronizes the balancing strategy with the healthy services retrieved
-     * from the HealthChecker.
+     * also synchronizes the balancing strategy of every backend pool with the
+     * healthy services retrieved from the HealthChecker.
      * </p>
      * 
      */
     private void runHealthCheck() {
         try {
-            HealthCheckThread healthCheckThread = new HealthCheckThread(healthChecker, balancingStrategy);
+            HealthCheckThread healthCheckThread = new HealthCheckThread(healthChecker, backendPools);
             healthCheckThread.start();
         } catch (Exception e) {
             System.err.println("Failed to start health check thread: " + e.getMessage());
@@ -111,20 +191,135 @@ public class ConcurrentLoadBalancer {
     }
 
     /**
-     * Loads the balancing strategy with healthy services.
+     * Joins the cluster of load balancer instances if cluster mode is enabled.
+     *
      * <p>
-     * This method clears the current services in the balancing strategy and adds
-     * only the healthy services retrieved from the HealthChecker. It ensures that
-     * the balancing strategy is always up-to-date with the current state of the
-     * backend services.
+     * Starts a {@link GossipNode} that shares health verdicts and load
+     * observations with the configured peers over UDP, and hands the shared
+     * {@link ClusterView} to the HealthChecker so that probing is divided among
+     * the instances. Failing to join, for example because {@code CLUSTER_NODE_ID}
+     * is too long, leaves this instance running on its own.
+     * </p>
+     */
+    private void joinCluster() {
+        if (!CLUSTER_ENABLED) {
+            return;
+        }
+        try {
+            String nodeId = BalancerConfig.getString("CLUSTER_NODE_ID",
+                    InetAddress.getLocalHost().getHostName() + ":" + CLUSTER_BIND_PORT);
+            List<String> peers = Arrays.stream(CLUSTER_PEERS.split(",")).map(String::trim)
+                    .filter(peer -> !peer.isEmpty()).toList();
+            ClusterView clusterView = new ClusterView(nodeId, CLUSTER_PEER_TIMEOUT_MS, CLUSTER_VERDICT_MAX_AGE_MS,
+                    ServiceStatsRegistry.getInstance());
+            new GossipNode(clusterView, CLUSTER_BIND_PORT, peers, CLUSTER_GOSSIP_INTERVAL_MS).start();
+            healthChecker.setClusterView(clusterView);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to join load balancer cluster: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the balancing strategies with healthy services.
+     * <p>
+     * This method clears the current services of every backend pool and adds
+     * only the healthy services retrieved from the HealthChecker that belong to
+     * it. It ensures that the balancing strategies are always up-to-date with
+     * the current state of the backend services.
      * </p>
      * 
      */
     private void loadStrategyWithHealthyServices() {
-        balancingStrategy.clearServices();
-        Service[] healthyServers = healthChecker.getHealthyServices();
-        for (Service server : healthyServers) {
-            balancingStrategy.addServices(server);
+        backendPools.load(healthChecker.getHealthyServices());
+    }
+
+    /**
+     * Loads the balancing strategies from the membership snapshot left by a
+     * previous run, so requests can be served before the backends have been
+     * discovered and probed. The restored services are handed to the
+     * HealthChecker as healthy, and the health check thread revalidates them in
+     * the background: the ones still healthy stay in rotation without slow
+     * start, the others are removed once they fail {@code HEALTH_FALL} probes
+     * in a row.
+     *
+     * <p>
+     * Snapshots older than {@code SNAPSHOT_MAX_AGE_MS}, empty snapshots and
+     * unreadable files are ignored.
+     * </p>
+     *
+     * @return true if the strategies were loaded from the snapshot
+     */
+    private boolean loadStrategyFromSnapshot() {
+        Path file = Path.of(SNAPSHOT_FILE);
+        if (!SNAPSHOT_ENABLED || !Files.isRegularFile(file)) {
+            return false;
+        }
+        try {
+            MembershipSnapshot snapshot = MembershipSnapshot.readFrom(file);
+            long now = System.currentTimeMillis();
+            long ageMillis = now - snapshot.getTakenAtMillis();
+            if (!snapshot.isUsable(now, SNAPSHOT_MAX_AGE_MS)) {
+                System.out.println("Ignoring membership snapshot taken " + ageMillis + " ms ago with "
+                        + snapshot.getEntries().size() + " services");
+                return false;
+            }
+
+            ServiceStatsRegistry registry = ServiceStatsRegistry.getInstance();
+            for (MembershipSnapshot.Entry entry : snapshot.getEntries()) {
+                registry.get(entry.getService()).restoreLatencyEwma(entry.getLatencyEwmaNanos());
+            }
+            backendPools.load(snapshot.getServices());
+            healthChecker.restoreHealthy(snapshot.getServices());
+            System.out.println("Warm start with " + snapshot.getEntries().size()
+                    + " services from membership snapshot taken " + ageMillis + " ms ago");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to read membership snapshot " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Starts the background thread persisting the membership snapshot, if
+     * enabled.
+     */
+    private void startSnapshotWriter() {
+        if (SNAPSHOT_ENABLED) {
+            SnapshotWriter writer = new SnapshotWriter(backendPools, ServiceStatsRegistry.getInstance(),
+                    Path.of(SNAPSHOT_FILE), SNAPSHOT_INTERVAL_MS, SNAPSHOT_REFRESH_MS);
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Sets up the classifier and the scheduler granting concurrency slots to
+     * priority classes, if {@code PRIORITY_CLASSES} is configured. A malformed
+     * configuration is reported and leaves scheduling disabled.
+     */
+    private void setUpPriorityScheduling() {
+        if (PRIORITY_CLASSES.isBlank()) {
+            return;
+        }
+        try {
+            List<PriorityClass> classes = PriorityClass.parseAll(PRIORITY_CLASSES, CODEL_TARGET_MS,
+                    CODEL_INTERVAL_MS, ADMISSION_MAX_QUEUE_MS);
+            PriorityClassifier classifier = new PriorityClassifier(classes, PRIORITY_RULES, PRIORITY_DEFAULT_CLASS);
+            int reserved = classes.stream().mapToInt(PriorityClass::getReservedSlots).sum();
+            int maxConcurrency = BalancerConfig.getInt("PRIORITY_MAX_CONCURRENCY", NUM_THREADS + reserved);
+            ExecutorService workers = Executors.newFixedThreadPool(Math.max(maxConcurrency, 1));
+            try {
+                this.scheduler = new WeightedFairScheduler(classes, maxConcurrency,
+                        BalancerConfig.getInt("PRIORITY_QUEUE_DEPTH", ADMISSION_QUEUE_DEPTH), workers);
+            } catch (IllegalArgumentException e) {
+                workers.shutdown();
+                throw e;
+            }
+            this.priorityClassifier = classifier;
+            PriorityClassEvent.register(scheduler);
+            System.out.println("Scheduling requests in priority classes " + classes);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid priority configuration, scheduling disabled: " + e.getMessage());
         }
     }
 
@@ -134,15 +329,37 @@ public class ConcurrentLoadBalancer {
      * 
      * <p>
      * This method creates an HTTP server that listens on a specified port and
-     * routes incoming requests to the ProxyHandler, which uses the current
-     * balancing strategy to forward requests to backend services.
+     * routes incoming requests to the ProxyHandler, which dispatches them to a
+     * backend pool through the {@link RouteTable} and uses the pool's balancing
+     * strategy to forward them to backend services.
+     * </p>
+     *
+     * <p>
+     * Requests run on a {@link RequestExecutor}, which records how long each
+     * request waited for a worker thread. Its queue is bounded, and requests
+     * that find it full or wait too long in it are shed with a fast 503.
+     * </p>
+     *
+     * <p>
+     * With {@code PRIORITY_CLASSES} configured, requests are classified on the
+     * executor and wait in the queue of their class, without a thread, until a
+     * {@link WeightedFairScheduler} grants them a slot and runs them on its own
+     * pool of a thread per slot.
      * </p>
      */
     private void initializeLoadBalancerServer() {
         try {
             HttpServer loadBalancerServer = HttpServer.create(new InetSocketAddress(DEFAULT_PORT), 0);
-            loadBalancerServer.createContext("/", ProxyHandler.getInstance());
-            ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+            setUpPriorityScheduling();
+            if (scheduler == null) {
+                loadBalancerServer.createContext("/", new ProxyHandler(routeTable));
+            } else {
+                loadBalancerServer.createContext("/", new ProxyHandler(routeTable, priorityClassifier, scheduler));
+            }
+            CoDelController coDelController = new CoDelController(CODEL_TARGET_MS, CODEL_INTERVAL_MS,
+                    ADMISSION_MAX_QUEUE_MS);
+            RequestExecutor executor = new RequestExecutor(NUM_THREADS, ADMISSION_QUEUE_DEPTH, coDelController);
+            AdmissionEvent.register(executor);
             loadBalancerServer.setExecutor(executor);
             loadBalancerServer.start();
             System.out.println("Load Balancer started on port" + DEFAULT_PORT);
@@ -152,16 +369,30 @@ public class ConcurrentLoadBalancer {
     }
 
     /**
-     * Starts the load balancer by loading the balancing strategy with healthy
-     * services, running the health check thread, and initializing the load balancer
-     * server.
+     * Starts the load balancer by joining the cluster if enabled, loading the
+     * balancing strategy with healthy services, running the health check
+     * thread, and initializing the load balancer server.
      * 
+     * <p>
+     * If a recent membership snapshot exists, the strategies are loaded from it
+     * instead of a synchronous discovery and health sweep, and the server opens
+     * right away while the health check thread revalidates the backends.
+     * </p>
      */
     public void start() {
-        loadStrategyWithHealthyServices();
+        BufferPoolEvent.register();
+        AccessLog.getInstance().start();
+
+        joinCluster();
+
+        if (!loadStrategyFromSnapshot()) {
+            loadStrategyWithHealthyServices();
+        }
 
         runHealthCheck();
 
+        startSnapshotWriter();
+
         initializeLoadBalancerServer();
 
     }
@@ -1,14 +1,33 @@
 package com.baitan.balancer;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpStatus;
 
+import com.baitan.balancer.buffer.BufferPool;
+import com.baitan.balancer.buffer.PooledBuffer;
+import com.baitan.balancer.buffer.ResponseSpool;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.deadline.DeadlineWatchdog;
+import com.baitan.balancer.deadline.RequestDeadline;
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+import com.baitan.balancer.routing.BackendPool;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+import com.baitan.balancer.trace.RequestTrace;
 import com.sun.net.httpserver.HttpExchange;
 
 import io.netty.handler.codec.http.HttpResponseStatus;
@@ -25,14 +44,18 @@ import io.netty.handler.codec.http.HttpResponseStatus;
  * <ul>
  * <li>{@code host}: The hostname or IP address of the service.</li>
  * <li>{@code port}: The port number on which the service is running.</li>
+ * <li>{@code pool}: The name of the {@link BackendPool} the service belongs
+ * to.</li>
  * </ul>
  *
  * <h2>Key Methods</h2>
  * <ul>
  * <li>{@link #isHealthy()}: Checks if the service is healthy by sending a GET
  * request to the /health endpoint.</li>
- * <li>{@link #routeRequest(com.sun.net.httpserver.HttpExchange)}: Routes an
- * incoming HTTP request to this service and returns the response.</li>
+ * <li>{@link #routeRequest(HttpExchange, RequestTrace, RequestDeadline, Runnable)}:
+ * Routes an incoming HTTP request to this service and returns the response.</li>
+ * <li>{@link #prewarm(int)}: Opens upstream connections to the service ahead
+ * of real traffic.</li>
  * <li>{@link #isInvalid(Service)}: Static utility to validate a Service
  * instance.</li>
  * </ul>
@@ -48,12 +71,24 @@ public class Service {
 
     private final String host;
     private final int port;
+    private final String pool;
+    private final URI baseUri;
     private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+    private static final Map<Long, HttpClient> UPSTREAM_CLIENTS = new ConcurrentHashMap<>();
+    private static final Map<String, Set<Long>> POOL_CONNECT_TIMEOUTS = new ConcurrentHashMap<>();
     private static final int DEFAULT_TIMEOUT = 2000; // Default timeout in milliseconds
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+    private static final String LOAD_HINT_HEADER = BalancerConfig.getString("LOAD_HINT_HEADER", "X-Backend-Load");
 
     public Service(String host, int port) {
+        this(host, port, BackendPool.DEFAULT_POOL);
+    }
+
+    public Service(String host, int port, String pool) {
         this.host = host;
         this.port = port;
+        this.pool = pool;
+        this.baseUri = isInvalid(host, port) ? null : URI.create("http://" + host + ":" + port);
     }
 
     /**
@@ -74,6 +109,16 @@ public class Service {
         return port;
     }
 
+    /**
+     * Returns the name of the backend pool the service belongs to. The pool is
+     * not part of the identity of the service.
+     *
+     * @return the pool name
+     */
+    public String getPool() {
+        return pool;
+    }
+
     /**
      * Checks if the provided service is invalid. A service is considered invalid if
      * it is null, has an empty host, or has a non-positive port number.
@@ -82,7 +127,11 @@ public class Service {
      * @return true if the service is invalid, false otherwise
      */
     public static boolean isInvalid(Service service) {
-        return service == null || service.getHost() == null || service.getHost().isEmpty() || service.getPort() <= 0;
+        return service == null || isInvalid(service.host, service.port);
+    }
+
+    private static boolean isInvalid(String host, int port) {
+        return host == null || host.isEmpty() || port <= 0;
     }
 
     /**
@@ -102,7 +151,7 @@ public class Service {
 
         try {
             var request = HttpRequest.newBuilder().uri(java.net.URI.create("http://" + host + ":" + port + "/health"))
-                    .timeout(java.time.Duration.ofSeconds(DEFAULT_TIMEOUT)).GET().build();
+                    .timeout(java.time.Duration.ofMillis(DEFAULT_TIMEOUT)).GET().build();
 
             var response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
 
@@ -112,38 +161,390 @@ public class Service {
         }
     }
 
+    /**
+     * Records that a route with a connect timeout leads to a pool, so that
+     * services of the pool are pre-warmed through the upstream client of that
+     * timeout. Called by the {@code RouteTable} for each of its routes.
+     *
+     * @param pool          the name of the pool the route leads to
+     * @param connectMillis the connect timeout of the route in milliseconds
+     */
+    public static void addPoolConnectTimeout(String pool, long connectMillis) {
+        POOL_CONNECT_TIMEOUTS.computeIfAbsent(pool, p -> ConcurrentHashMap.newKeySet()).add(connectMillis);
+    }
+
+    /**
+     * Pre-warms the service by opening a number of upstream connections ahead of
+     * real traffic.
+     * <p>
+     * Sends {@code connections} concurrent GET requests to the /health endpoint
+     * through each upstream HTTP client that routes to the service's pool use,
+     * one per distinct connect timeout, so the connections end up in the pools
+     * real requests draw from and the backend gets a few requests before it
+     * sees its share of the load. A pool no route was recorded for is warmed
+     * through the client of the default timeouts. The requests are
+     * fire-and-forget and failures are ignored.
+     * </p>
+     *
+     * @param connections the number of concurrent warm-up requests to send
+     *                    through each client
+     */
+    public void prewarm(int connections) {
+        if (isInvalid(this) || connections <= 0) {
+            return;
+        }
+
+        var request = HttpRequest.newBuilder().uri(URI.create("http://" + host + ":" + port + "/health"))
+                .timeout(java.time.Duration.ofMillis(DEFAULT_TIMEOUT)).GET().build();
+
+        Set<Long> connectTimeouts = POOL_CONNECT_TIMEOUTS.getOrDefault(pool,
+                Set.of(UpstreamTimeouts.getDefaults().getConnectMillis()));
+        for (long connectMillis : connectTimeouts) {
+            HttpClient client = getUpstreamClient(connectMillis);
+            for (int i = 0; i < connections; i++) {
+                client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).exceptionally(e -> null);
+            }
+        }
+        System.out.println("Pre-warming " + connections + " connections to " + this + " in each of "
+                + connectTimeouts.size() + " upstream clients");
+    }
+
     /**
      * Routes an incoming HTTP request to this service. It constructs a new URI
      * based on the service's host and port, and forwards the request to the backend
      * service.
      *
-     * @param exchange the HttpExchange object containing the request and response
-     *                 information
+     * <p>
+     * The upstream URI is resolved against a base URI parsed once per service,
+     * so the request URI is not concatenated and parsed again on every request.
+     * </p>
+     *
+     * <p>
+     * Payloads are copied through buffers borrowed from the heap
+     * {@link BufferPool} instead of freshly allocated arrays. Request bodies
+     * with a known length that fits a pooled buffer are read into one and sent
+     * from it; other bodies are streamed. The response body is streamed to the
+     * client in chunks as it arrives from the backend.
+     * </p>
+     *
+     * <p>
+     * The end of each phase (first byte, body transfer, client write) is
+     * recorded on the supplied trace, and the in-flight count and upstream
+     * latency are recorded in the {@link ServiceStats} of the service, along
+     * with the load hint the backend may return in the
+     * {@code X-Backend-Load} header (configurable through
+     * {@code LOAD_HINT_HEADER}).
+     * </p>
+     *
+     * <p>
+     * The request is bounded by its deadline and the timeouts of its route:
+     * the connection must be established within the connect timeout, the
+     * response headers must arrive within the first-byte timeout, and the
+     * whole exchange is aborted by the {@link DeadlineWatchdog} once the
+     * deadline passes. The remaining budget is passed to the backend in the
+     * {@value RequestDeadline#TIMEOUT_HEADER} header. A request that times out
+     * before its response has started is answered with 504 Gateway Timeout.
+     * </p>
+     *
+     * <p>
+     * With {@code RESPONSE_SPOOLING} enabled, the response body is first drained
+     * into a {@link ResponseSpool} and the upstream connection is released
+     * before the client is written to, so a slow client does not hold on to
+     * the backend. {@code upstreamReleased} is run at that point, or once the
+     * response is complete if it was streamed. The write of a completely
+     * spooled body is bounded by {@code SPOOL_WRITE_TIMEOUT_MS} rather than by
+     * the request deadline. Backends can opt a response out with
+     * {@code X-Accel-Buffering: no}, and event streams are never spooled.
+     * </p>
+     *
+     * @param exchange         the HttpExchange object containing the request and
+     *                         response information
+     * @param trace            the trace collecting the per-phase timings of the
+     *                         request
+     * @param deadline         the deadline of the request
+     * @param upstreamReleased called as soon as the backend is done with the
+     *                         request; not called if the request never
+     *                         reached it
      * @throws IllegalArgumentException if the service is invalid
      */
-    public void routeRequest(HttpExchange exchange) throws IOException {
+    public void routeRequest(HttpExchange exchange, RequestTrace trace, RequestDeadline deadline,
+            Runnable upstreamReleased) throws IOException {
         if (isInvalid(this)) {
             throw new IllegalArgumentException("Invalid server: " + this);
         }
 
-        URI uri = URI.create("http://" + this.getHost() + ":" + this.getPort() + exchange.getRequestURI());
+        URI uri = upstreamUri(exchange.getRequestURI());
+
+        ServiceStats stats = ServiceStatsRegistry.getInstance().get(this);
+        PooledBuffer requestBuffer = null;
+        boolean headersSent = false;
+        boolean aborted = false;
+        DeadlineWatchdog.Guard guard = DeadlineWatchdog.arm(deadline);
+        try {
+
+            long requestLength = getRequestContentLength(exchange);
+            HttpRequest.BodyPublisher bodyPublisher;
+            if (requestLength == 0) {
+                bodyPublisher = HttpRequest.BodyPublishers.noBody();
+            } else if (requestLength > 0 && requestLength <= BufferPool.getMaxPooledSize()) {
+                requestBuffer = BufferPool.getHeapPool().acquire((int) requestLength);
+                int read = exchange.getRequestBody().readNBytes(requestBuffer.array(), 0, (int) requestLength);
+                bodyPublisher = HttpRequest.BodyPublishers.ofByteArray(requestBuffer.array(), 0, read);
+            } else {
+                bodyPublisher = HttpRequest.BodyPublishers.ofInputStream(() -> exchange.getRequestBody());
+            }
 
-        HttpRequest request = HttpRequest.newBuilder().uri(uri).method(exchange.getRequestMethod(),
-                HttpRequest.BodyPublishers.ofInputStream(() -> exchange.getRequestBody())).build();
+            if (deadline.isExpired()) {
+                throw new HttpTimeoutException("Deadline exceeded before forwarding");
+            }
+            long firstByteMillis = Math.min(deadline.getTimeouts().getFirstByteMillis(),
+                    Math.max(1, deadline.remainingMillis()));
+            HttpRequest request = HttpRequest.newBuilder().uri(uri).timeout(Duration.ofMillis(firstByteMillis))
+                    .header(RequestDeadline.TIMEOUT_HEADER, Long.toString(deadline.remainingMillis()))
+                    .method(exchange.getRequestMethod(), bodyPublisher).build();
+            HttpClient client = getUpstreamClient(deadline.getTimeouts().getConnectMillis());
 
-        try (exchange) {
+            long upstreamStart = System.nanoTime();
+            boolean upstreamHeld = true;
+            stats.onRequestStart();
+            try {
+                var response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                int statusCode = response.statusCode();
+                trace.firstByteReceived(statusCode);
+                recordLoadHint(stats, response);
+                long responseLength = getResponseLength(exchange.getRequestMethod(), response);
 
-            var response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
-            byte[] responseBytes = response.body().readAllBytes();
-            exchange.sendResponseHeaders(response.statusCode(), responseBytes.length);
-            exchange.getResponseBody().write(responseBytes);
+                InputStream body = response.body();
+                try {
+                    guard.attach(body);
+                    if (responseLength == -1 || !shouldSpool(response, responseLength)) {
+                        exchange.sendResponseHeaders(statusCode, responseLength);
+                        headersSent = true;
+                        copyResponseBody(body, exchange.getResponseBody(), trace, 0, 0, 0);
+                    } else {
+                        try (ResponseSpool spool = new ResponseSpool()) {
+                            long drainStart = System.nanoTime();
+                            boolean complete = spool.drain(body);
+                            long drainNanos = System.nanoTime() - drainStart;
+                            if (complete) {
+                                // Hands the connection back to the client's pool
+                                body.close();
+                                stats.onRequestEnd(System.nanoTime() - upstreamStart);
+                                upstreamHeld = false;
+                                upstreamReleased.run();
+                                responseLength = spool.size() == 0 ? -1 : spool.size();
+                                // Only the client is left; it gets its own budget instead of the request deadline
+                                guard.disarm();
+                                guard = DeadlineWatchdog.arm(
+                                        TimeUnit.MILLISECONDS.toNanos(ResponseSpool.getWriteTimeoutMillis()));
+                            }
+                            exchange.sendResponseHeaders(statusCode, responseLength);
+                            headersSent = true;
+                            long writeStart = System.nanoTime();
+                            spool.writeTo(exchange.getResponseBody());
+                            long writeNanos = System.nanoTime() - writeStart;
+                            if (complete) {
+                                trace.responseStreamed(drainNanos, writeNanos, spool.size());
+                            } else {
+                                copyResponseBody(body, exchange.getResponseBody(), trace, drainNanos, writeNanos,
+                                        spool.size());
+                            }
+                        }
+                    }
+                } finally {
+                    body.close();
+                }
+                trace.clientWritten(statusCode);
+            } finally {
+                if (upstreamHeld) {
+                    stats.onRequestEnd(System.nanoTime() - upstreamStart);
+                    upstreamReleased.run();
+                }
+            }
 
         } catch (IOException | InterruptedException e) {
 
-            String errorResponse = "Error processing request: " + e.getMessage();
-            exchange.sendResponseHeaders(HttpStatus.SC_INTERNAL_SERVER_ERROR, errorResponse.length());
-            exchange.getResponseBody().write(errorResponse.getBytes());
+            boolean timedOut = guard.disarm() || e instanceof HttpTimeoutException;
+            if (headersSent) {
+                // The status line is already on the wire, all we can do is cut the response short.
+                // Leaving the exchange open makes the server drop the connection, so the client
+                // sees a truncated response instead of a complete one.
+                aborted = true;
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            int status = timedOut ? HttpStatus.SC_GATEWAY_TIMEOUT : HttpStatus.SC_INTERNAL_SERVER_ERROR;
+            byte[] errorResponse = (timedOut ? "Upstream deadline exceeded"
+                    : "Error processing request: " + e.getMessage()).getBytes();
+            exchange.sendResponseHeaders(status, errorResponse.length);
+            exchange.getResponseBody().write(errorResponse);
+            trace.clientWritten(status);
+
+        } finally {
+            guard.disarm();
+            if (requestBuffer != null) {
+                requestBuffer.release();
+            }
+            if (!aborted) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the upstream HTTP client for a connect timeout. The connect
+     * timeout is a property of the client, so one client, with its own
+     * connection pool, is kept per distinct timeout.
+     *
+     * @param connectMillis the connect timeout in milliseconds
+     * @return the shared client using that connect timeout
+     */
+    private static HttpClient getUpstreamClient(long connectMillis) {
+        HttpClient client = UPSTREAM_CLIENTS.get(connectMillis);
+        if (client == null) {
+            client = UPSTREAM_CLIENTS.computeIfAbsent(connectMillis,
+                    millis -> HttpClient.newBuilder().connectTimeout(Duration.ofMillis(millis)).build());
+        }
+        return client;
+    }
+
+    /**
+     * Returns the URI of a request on this service.
+     * <p>
+     * A request URI made of a path and query is resolved against the cached
+     * base URI, which copies its already parsed components. Anything carrying
+     * its own scheme or authority, such as a path starting with {@code //}, is
+     * appended verbatim instead so that it cannot redirect the request to
+     * another host.
+     * </p>
+     *
+     * @param requestUri the URI of the incoming request
+     * @return the URI to forward the request to
+     */
+    URI upstreamUri(URI requestUri) {
+        String rawPath = requestUri.getRawPath();
+        if (requestUri.getScheme() == null && requestUri.getRawAuthority() == null && rawPath != null
+                && rawPath.startsWith("/")) {
+            return baseUri.resolve(requestUri);
+        }
+        return URI.create(baseUri + requestUri.toString());
+    }
+
+    /**
+     * Returns whether a response should be spooled before it is written to the
+     * client.
+     *
+     * @param response       the upstream response
+     * @param responseLength the response length worked out for the client
+     * @return true if spooling is enabled and the response may be buffered
+     */
+    static boolean shouldSpool(HttpResponse<?> response, long responseLength) {
+        if (!ResponseSpool.isEnabled() || responseLength > ResponseSpool.getMaxBytes()) {
+            return false;
+        }
+        var headers = response.headers();
+        return !headers.firstValue("X-Accel-Buffering").map("no"::equalsIgnoreCase).orElse(false)
+                && !headers.firstValue("Content-Type").map(type -> type.startsWith("text/event-stream"))
+                        .orElse(false);
+    }
+
+    /**
+     * Records the load hint returned by the backend, if any. Malformed hints
+     * are ignored; a backend that cannot report its load is no worse off than
+     * one that does not try.
+     *
+     * @param stats    the statistics of the service
+     * @param response the upstream response
+     */
+    static void recordLoadHint(ServiceStats stats, HttpResponse<?> response) {
+        String hint = response.headers().firstValue(LOAD_HINT_HEADER).orElse(null);
+        if (hint == null) {
+            return;
+        }
+        try {
+            stats.recordLoadHint(Double.parseDouble(hint.trim()));
+        } catch (NumberFormatException e) {
+            // Ignored, see above
+        }
+    }
+
+    /**
+     * Returns the length of the request body announced by the client.
+     *
+     * @param exchange the incoming exchange
+     * @return the Content-Length, 0 if the request has no body, or -1 if the
+     *         length is unknown (chunked or malformed)
+     */
+    private static long getRequestContentLength(HttpExchange exchange) {
+        var headers = exchange.getRequestHeaders();
+        if (headers.containsKey("Transfer-encoding")) {
+            return -1;
+        }
+        String contentLength = headers.getFirst("Content-length");
+        if (contentLength == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Works out the response length to pass to
+     * {@link HttpExchange#sendResponseHeaders(int, long)} from the upstream
+     * response.
+     *
+     * @param requestMethod the method of the incoming request
+     * @param response      the upstream response
+     * @return the Content-Length of the upstream response, -1 if the response
+     *         has no body, or 0 to stream it with chunked encoding
+     */
+    static long getResponseLength(String requestMethod, HttpResponse<?> response) {
+        int statusCode = response.statusCode();
+        if ("HEAD".equalsIgnoreCase(requestMethod) || statusCode == HttpStatus.SC_NO_CONTENT
+                || statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            return -1;
+        }
+        long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (contentLength == 0) {
+            return -1;
+        }
+        return contentLength < 0 ? 0 : contentLength;
+    }
+
+    /**
+     * Streams the upstream response body to the client through a pooled buffer,
+     * attributing the time spent reading and writing to the respective phases
+     * of the trace.
+     *
+     * @param body       the upstream response body
+     * @param out        the client response body
+     * @param trace      the trace of the request
+     * @param readNanos  the time already spent reading the body, if part of it
+     *                   was spooled
+     * @param writeNanos the time already spent writing the body
+     * @param bytes      the number of body bytes already copied
+     * @throws IOException if reading from the backend or writing to the client
+     *                     fails
+     */
+    static void copyResponseBody(InputStream body, OutputStream out, RequestTrace trace, long readNanos,
+            long writeNanos, long bytes) throws IOException {
+        try (PooledBuffer buffer = BufferPool.getHeapPool().acquire(COPY_BUFFER_SIZE)) {
+            byte[] chunk = buffer.array();
 
+            long mark = System.nanoTime();
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                long afterRead = System.nanoTime();
+                readNanos += afterRead - mark;
+                out.write(chunk, 0, read);
+                bytes += read;
+                mark = System.nanoTime();
+                writeNanos += mark - afterRead;
+            }
+            readNanos += System.nanoTime() - mark;
+            trace.responseStreamed(readNanos, writeNanos, bytes);
         }
     }
 
@@ -174,13 +575,15 @@ public class Service {
     }
 
     /**
-     * Returns a hash code value for this Service object.
+     * Returns a hash code value for this Service object. Equal to
+     * {@code Objects.hash(host, port)}, computed without the varargs array as
+     * services are looked up in maps on every request.
      *
      * @return an integer hash code
      */
     @Override
     public int hashCode() {
-        return Objects.hash(host, port);
+        return 31 * (31 + Objects.hashCode(host)) + port;
     }
 
 }
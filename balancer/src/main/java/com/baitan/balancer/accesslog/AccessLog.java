@@ -0,0 +1,99 @@
+package com.baitan.balancer.accesslog;
+
+import java.nio.file.Path;
+
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.trace.RequestTrace;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Singleton entry point of the structured access log.
+ * <p>
+ * Request threads call {@link #log(HttpExchange, RequestTrace)} once a
+ * response has been written. The record goes into a lock-free
+ * {@link AccessLogRing} and is written to disk by the background
+ * {@link AccessLogWriter}, so logging never blocks on I/O. Segments can be
+ * converted to text with {@link AccessLogReader}.
+ * </p>
+ *
+ * <p>
+ * The access log is off unless {@code ACCESS_LOG_ENABLED} is set, as it keeps
+ * up to {@code ACCESS_LOG_MAX_SEGMENTS} segments of
+ * {@code ACCESS_LOG_SEGMENT_SIZE_MB} each on disk.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class AccessLog {
+
+    private static final boolean ENABLED = BalancerConfig.getBoolean("ACCESS_LOG_ENABLED", false);
+    private static final String DIRECTORY = BalancerConfig.getString("ACCESS_LOG_DIR", "access-log");
+    private static final int RING_SIZE = BalancerConfig.getInt("ACCESS_LOG_RING_SIZE", 65_536);
+    private static final long SEGMENT_SIZE_MB = BalancerConfig.getLong("ACCESS_LOG_SEGMENT_SIZE_MB", 64);
+    private static final int MAX_SEGMENTS = BalancerConfig.getInt("ACCESS_LOG_MAX_SEGMENTS", 10);
+
+    private static volatile AccessLog instance;
+
+    private final AccessLogRing ring;
+    private final AccessLogWriter writer;
+
+    private AccessLog() {
+        this.ring = ENABLED ? new AccessLogRing(RING_SIZE) : null;
+        this.writer = ENABLED ? new AccessLogWriter(ring, Path.of(DIRECTORY), SEGMENT_SIZE_MB * 1024 * 1024,
+                MAX_SEGMENTS) : null;
+    }
+
+    /**
+     * Returns the singleton instance of AccessLog.
+     * <p>
+     * Uses double-checked locking to ensure thread safety and lazy initialization.
+     * </p>
+     *
+     * @return the singleton instance of AccessLog
+     */
+    public static AccessLog getInstance() {
+        AccessLog localInstance = instance;
+        if (localInstance == null) {
+            synchronized (AccessLog.class) {
+                localInstance = instance;
+                if (localInstance == null) {
+                    instance = localInstance = new AccessLog();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    /**
+     * Starts the background writer. Does nothing if the access log is disabled.
+     */
+    public void start() {
+        if (writer != null) {
+            writer.setDaemon(true);
+            writer.start();
+            System.out.println("Access log writing to " + Path.of(DIRECTORY).toAbsolutePath());
+        }
+    }
+
+    /**
+     * Records a finished request. Never blocks; if the writer has fallen behind
+     * the record is dropped and counted.
+     *
+     * @param exchange the finished exchange
+     * @param trace    the trace of the request
+     */
+    public void log(HttpExchange exchange, RequestTrace trace) {
+        if (ring != null) {
+            ring.offer(System.currentTimeMillis(), exchange.getRemoteAddress(), exchange.getRequestMethod(), trace);
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because the writer fell behind.
+     *
+     * @return the drop count, or 0 if the access log is disabled
+     */
+    public long getDropped() {
+        return ring == null ? 0 : ring.getDropped();
+    }
+}
@@ -0,0 +1,143 @@
+package com.baitan.balancer.accesslog;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line tool converting binary access log segments to text, one line
+ * per request.
+ *
+ * <pre>
+ * java -cp balancer.jar com.baitan.balancer.accesslog.AccessLogReader &lt;segment-or-directory&gt;...
+ * </pre>
+ *
+ * Directories are expanded to the segments they contain, in write order.
+ * Phase timings are printed in microseconds.
+ *
+ * @author Tanish Baidya
+ */
+public class AccessLogReader {
+
+    private AccessLogReader() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: AccessLogReader <segment-or-directory>...");
+            System.exit(1);
+        }
+        for (Path segment : listSegments(args)) {
+            print(segment, System.out);
+        }
+    }
+
+    /**
+     * Expands the given paths to segment files. Directories are expanded to
+     * the segments they contain, in write order.
+     *
+     * @param args the segment files and directories
+     * @return the segment files
+     * @throws IOException if a directory cannot be listed
+     */
+    public static List<Path> listSegments(String... args) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        for (String arg : args) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    segments.addAll(files.filter(AccessLogWriter::isSegment).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                segments.add(path);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Prints all records of a segment.
+     *
+     * @param segment the segment file
+     * @param out     the stream to print to
+     * @throws IOException if the segment cannot be read or is not a valid segment
+     */
+    public static void print(Path segment, PrintStream out) throws IOException {
+        ByteBuffer buffer = map(segment);
+        int count = buffer.getInt(AccessLogRecord.HEADER_COUNT_OFFSET);
+        for (int i = 0; i < count; i++) {
+            out.println(format(buffer, AccessLogRecord.HEADER_SIZE + i * AccessLogRecord.SIZE));
+        }
+    }
+
+    /**
+     * Returns the times at which the requests of a segment arrived. Records are
+     * stamped when the request completes, so the arrival time is estimated by
+     * subtracting the recorded phase timings from the timestamp.
+     *
+     * @param segment the segment file
+     * @return the arrival times in epoch milliseconds, in write order
+     * @throws IOException if the segment cannot be read or is not a valid segment
+     */
+    public static long[] readArrivalTimes(Path segment) throws IOException {
+        ByteBuffer buffer = map(segment);
+        long[] arrivals = new long[buffer.getInt(AccessLogRecord.HEADER_COUNT_OFFSET)];
+        for (int i = 0; i < arrivals.length; i++) {
+            int base = AccessLogRecord.HEADER_SIZE + i * AccessLogRecord.SIZE;
+            long phaseNanos = Math.max(0, buffer.getLong(base + AccessLogRecord.QUEUE_WAIT))
+                    + Math.max(0, buffer.getLong(base + AccessLogRecord.SELECTION))
+                    + Math.max(0, buffer.getLong(base + AccessLogRecord.TIME_TO_FIRST_BYTE))
+                    + Math.max(0, buffer.getLong(base + AccessLogRecord.BODY_TRANSFER))
+                    + Math.max(0, buffer.getLong(base + AccessLogRecord.CLIENT_WRITE));
+            arrivals[i] = buffer.getLong(base + AccessLogRecord.TIMESTAMP) - phaseNanos / 1_000_000;
+        }
+        return arrivals;
+    }
+
+    private static ByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < AccessLogRecord.HEADER_SIZE || buffer.getInt(0) != AccessLogRecord.MAGIC
+                    || buffer.getInt(4) != AccessLogRecord.VERSION || buffer.getInt(8) != AccessLogRecord.SIZE) {
+                throw new IOException("Not an access log segment: " + segment);
+            }
+            return buffer;
+        }
+    }
+
+    private static String format(ByteBuffer buffer, int base) throws IOException {
+        byte[] address = new byte[AccessLogRecord.CLIENT_ADDRESS_LENGTH];
+        buffer.get(base + AccessLogRecord.CLIENT_ADDRESS, address);
+        String backendHost = AccessLogRecord.getAscii(buffer, base + AccessLogRecord.BACKEND_HOST,
+                AccessLogRecord.BACKEND_HOST_LENGTH);
+
+        return Instant.ofEpochMilli(buffer.getLong(base + AccessLogRecord.TIMESTAMP))
+                + " client=" + InetAddress.getByAddress(address).getHostAddress()
+                + ":" + buffer.getInt(base + AccessLogRecord.CLIENT_PORT)
+                + " method=" + AccessLogRecord.getAscii(buffer, base + AccessLogRecord.METHOD,
+                        AccessLogRecord.METHOD_LENGTH)
+                + " backend=" + (backendHost.isEmpty() ? "-"
+                        : backendHost + ":" + buffer.getInt(base + AccessLogRecord.BACKEND_PORT))
+                + " status=" + buffer.getInt(base + AccessLogRecord.STATUS)
+                + " bytes=" + buffer.getLong(base + AccessLogRecord.RESPONSE_BYTES)
+                + " queue_us=" + micros(buffer, base + AccessLogRecord.QUEUE_WAIT)
+                + " select_us=" + micros(buffer, base + AccessLogRecord.SELECTION)
+                + " ttfb_us=" + micros(buffer, base + AccessLogRecord.TIME_TO_FIRST_BYTE)
+                + " body_us=" + micros(buffer, base + AccessLogRecord.BODY_TRANSFER)
+                + " write_us=" + micros(buffer, base + AccessLogRecord.CLIENT_WRITE);
+    }
+
+    private static long micros(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset) / 1000;
+    }
+}
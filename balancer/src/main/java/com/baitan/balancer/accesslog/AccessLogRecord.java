@@ -0,0 +1,107 @@
+package com.baitan.balancer.accesslog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a binary access log record and of the segment file header.
+ * <p>
+ * Every record has the same fixed size so that writers can claim a slot in
+ * the ring buffer with a single counter and the reader can seek to any
+ * record. Strings are stored as zero-padded ASCII and truncated to their
+ * field width.
+ * </p>
+ *
+ * <pre>
+ * offset size field
+ *      0    8 timestamp (epoch milliseconds)
+ *      8   16 client address (IPv6, or IPv4-mapped IPv6)
+ *     24    4 client port
+ *     28    8 request method
+ *     36   32 backend host
+ *     68    4 backend port
+ *     72    4 status code
+ *     76    8 response bytes
+ *     84    8 queue wait (ns)
+ *     92    8 selection (ns)
+ *    100    8 time to first byte (ns)
+ *    108    8 body transfer (ns)
+ *    116    8 client write (ns)
+ *    124    4 reserved
+ * </pre>
+ *
+ * @author Tanish Baidya
+ */
+public final class AccessLogRecord {
+
+    /** Size of one record in bytes. */
+    public static final int SIZE = 128;
+
+    /** Size of the segment file header in bytes. */
+    public static final int HEADER_SIZE = 16;
+    /** Magic number at the start of every segment file ("LBAL"). */
+    public static final int MAGIC = 0x4C42414C;
+    /** Version of the record layout. */
+    public static final int VERSION = 1;
+    /** Offset of the record count within the segment header. */
+    public static final int HEADER_COUNT_OFFSET = 12;
+
+    static final int TIMESTAMP = 0;
+    static final int CLIENT_ADDRESS = 8;
+    static final int CLIENT_PORT = 24;
+    static final int METHOD = 28;
+    static final int BACKEND_HOST = 36;
+    static final int BACKEND_PORT = 68;
+    static final int STATUS = 72;
+    static final int RESPONSE_BYTES = 76;
+    static final int QUEUE_WAIT = 84;
+    static final int SELECTION = 92;
+    static final int TIME_TO_FIRST_BYTE = 100;
+    static final int BODY_TRANSFER = 108;
+    static final int CLIENT_WRITE = 116;
+
+    static final int CLIENT_ADDRESS_LENGTH = 16;
+    static final int METHOD_LENGTH = 8;
+    static final int BACKEND_HOST_LENGTH = 32;
+
+    private AccessLogRecord() {
+    }
+
+    /**
+     * Writes a string as zero-padded ASCII without allocating.
+     *
+     * @param buffer the buffer to write to
+     * @param offset the absolute offset of the field
+     * @param length the width of the field
+     * @param value  the string to write, may be null
+     */
+    static void putAscii(ByteBuffer buffer, int offset, int length, String value) {
+        int count = value == null ? 0 : Math.min(length, value.length());
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            buffer.put(offset + i, (byte) (c < 0x80 ? c : '?'));
+        }
+        for (int i = count; i < length; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+    }
+
+    /**
+     * Reads a zero-padded ASCII field.
+     *
+     * @param buffer the buffer to read from
+     * @param offset the absolute offset of the field
+     * @param length the width of the field
+     * @return the string without its padding
+     */
+    static String getAscii(ByteBuffer buffer, int offset, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(offset + i);
+            if (b == 0) {
+                break;
+            }
+            builder.append((char) b);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package com.baitan.balancer.accesslog;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.trace.RequestTrace;
+
+/**
+ * Lock-free multi-producer, single-consumer ring buffer of fixed-size access
+ * log records.
+ * <p>
+ * Request threads claim a slot by advancing a shared sequence with a CAS,
+ * write the record straight into a preallocated buffer and publish it by
+ * storing the sequence number in the slot's marker. The single consumer
+ * reads published slots in order. When the consumer falls behind and the
+ * ring is full, new records are dropped and counted instead of blocking the
+ * request path.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class AccessLogRing {
+
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer records;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a new AccessLogRing.
+     *
+     * @param minCapacity the minimum number of records the ring can hold, rounded
+     *                    up to a power of two
+     */
+    public AccessLogRing(int minCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.records = ByteBuffer.allocate(size * AccessLogRecord.SIZE);
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Appends a record for a finished request. Never blocks; returns false if
+     * the ring is full and the record was dropped.
+     *
+     * @param timestampMillis the completion time of the request
+     * @param client          the client address, may be null
+     * @param method          the request method
+     * @param trace           the trace of the request
+     * @return true if the record was written
+     */
+    public boolean offer(long timestampMillis, InetSocketAddress client, String method, RequestTrace trace) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask);
+        int base = slot * AccessLogRecord.SIZE;
+        records.putLong(base + AccessLogRecord.TIMESTAMP, timestampMillis);
+        putClient(base, client);
+        AccessLogRecord.putAscii(records, base + AccessLogRecord.METHOD, AccessLogRecord.METHOD_LENGTH, method);
+        Service backend = trace.getBackend();
+        AccessLogRecord.putAscii(records, base + AccessLogRecord.BACKEND_HOST, AccessLogRecord.BACKEND_HOST_LENGTH,
+                backend == null ? null : backend.getHost());
+        records.putInt(base + AccessLogRecord.BACKEND_PORT, backend == null ? 0 : backend.getPort());
+        records.putInt(base + AccessLogRecord.STATUS, trace.getStatus());
+        records.putLong(base + AccessLogRecord.RESPONSE_BYTES, trace.getResponseBytes());
+        records.putLong(base + AccessLogRecord.QUEUE_WAIT, trace.getQueueWaitNanos());
+        records.putLong(base + AccessLogRecord.SELECTION, trace.getSelectionNanos());
+        records.putLong(base + AccessLogRecord.TIME_TO_FIRST_BYTE, trace.getTimeToFirstByteNanos());
+        records.putLong(base + AccessLogRecord.BODY_TRANSFER, trace.getBodyTransferNanos());
+        records.putLong(base + AccessLogRecord.CLIENT_WRITE, trace.getClientWriteNanos());
+
+        published.lazySet(slot, sequence);
+        return true;
+    }
+
+    private void putClient(int base, InetSocketAddress client) {
+        int offset = base + AccessLogRecord.CLIENT_ADDRESS;
+        InetAddress address = client == null ? null : client.getAddress();
+        if (address instanceof Inet4Address) {
+            // Store as an IPv4-mapped IPv6 address; hashCode() is the address itself
+            records.putLong(offset, 0L);
+            records.putInt(offset + 8, 0x0000FFFF);
+            records.putInt(offset + 12, address.hashCode());
+        } else if (address != null) {
+            records.put(offset, address.getAddress(), 0, AccessLogRecord.CLIENT_ADDRESS_LENGTH);
+        } else {
+            records.putLong(offset, 0L);
+            records.putLong(offset + 8, 0L);
+        }
+        records.putInt(base + AccessLogRecord.CLIENT_PORT, client == null ? 0 : client.getPort());
+    }
+
+    /**
+     * Copies the next published record into the target buffer. Must only be
+     * called from the single consumer thread.
+     *
+     * @param target the buffer receiving the record at its position
+     * @return true if a record was copied, false if none is available yet
+     */
+    public boolean poll(ByteBuffer target) {
+        long sequence = consumed.get();
+        int slot = (int) (sequence & mask);
+        if (published.get(slot) != sequence) {
+            return false;
+        }
+        int base = slot * AccessLogRecord.SIZE;
+        target.put(target.position(), records, base, AccessLogRecord.SIZE);
+        target.position(target.position() + AccessLogRecord.SIZE);
+        consumed.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     *
+     * @return the drop count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
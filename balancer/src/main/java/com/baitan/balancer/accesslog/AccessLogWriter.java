@@ -0,0 +1,150 @@
+package com.baitan.balancer.accesslog;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Background thread draining the {@link AccessLogRing} into rotating
+ * memory-mapped segment files.
+ * <p>
+ * Each segment is a fixed-size file starting with a small header (magic,
+ * version, record size, record count) followed by records in the layout of
+ * {@link AccessLogRecord}. Records are copied straight into the mapping, so
+ * writing them costs no system call; the kernel writes the pages back in the
+ * background. The record count in the header is updated after every batch so
+ * a reader never sees a partially written record. When a segment is full a
+ * new one is started, and the oldest segments beyond the retention limit are
+ * deleted. The writer should be started as a daemon thread, so it does not
+ * keep the JVM alive.
+ * </p>
+ *
+ * @see AccessLogReader
+ *
+ * @author Tanish Baidya
+ */
+public class AccessLogWriter extends Thread {
+
+    private static final String SEGMENT_PREFIX = "access-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Drained well before a full ring at any realistic request rate, see ACCESS_LOG_RING_SIZE
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(64);
+
+    private final AccessLogRing ring;
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+
+    private MappedByteBuffer segment;
+    private int segmentRecords;
+    private long segmentSequence;
+
+    /**
+     * Creates a new AccessLogWriter.
+     *
+     * @param ring             the ring to drain
+     * @param directory        the directory holding the segment files
+     * @param segmentSizeBytes the size of each segment file
+     * @param maxSegments      the number of segments to keep
+     */
+    public AccessLogWriter(AccessLogRing ring, Path directory, long segmentSizeBytes, int maxSegments) {
+        super("access-log-writer");
+        this.ring = ring;
+        this.directory = directory;
+        this.recordsPerSegment = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE / AccessLogRecord.SIZE - 1,
+                        (segmentSizeBytes - AccessLogRecord.HEADER_SIZE) / AccessLogRecord.SIZE));
+        this.maxSegments = Math.max(1, maxSegments);
+    }
+
+    /**
+     * Drains the ring until the thread is interrupted, parking whenever the
+     * ring is empty. The park doubles with every empty poll up to a maximum and
+     * drops back as soon as records arrive, so an idle balancer does not wake
+     * the writer a thousand times per second.
+     */
+    @Override
+    public void run() {
+        try {
+            Files.createDirectories(directory);
+            long parkNanos = MIN_IDLE_PARK_NANOS;
+            while (!isInterrupted()) {
+                if (drain() > 0) {
+                    parkNanos = MIN_IDLE_PARK_NANOS;
+                } else {
+                    LockSupport.parkNanos(parkNanos);
+                    parkNanos = Math.min(MAX_IDLE_PARK_NANOS, parkNanos * 2);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Access log writer stopped: " + e.getMessage());
+        }
+    }
+
+    private int drain() throws IOException {
+        int drained = 0;
+        while (true) {
+            if (segment == null || segmentRecords == recordsPerSegment) {
+                rotate();
+            }
+            if (!ring.poll(segment)) {
+                break;
+            }
+            segmentRecords++;
+            drained++;
+        }
+        if (drained > 0) {
+            segment.putInt(AccessLogRecord.HEADER_COUNT_OFFSET, segmentRecords);
+        }
+        return drained;
+    }
+
+    private void rotate() throws IOException {
+        if (segment != null) {
+            segment.putInt(AccessLogRecord.HEADER_COUNT_OFFSET, segmentRecords);
+            segment.force();
+        }
+
+        String name = String.format("%s%d-%05d%s", SEGMENT_PREFIX, System.currentTimeMillis(), segmentSequence++,
+                SEGMENT_SUFFIX);
+        long size = AccessLogRecord.HEADER_SIZE + (long) recordsPerSegment * AccessLogRecord.SIZE;
+        try (FileChannel channel = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt(AccessLogRecord.MAGIC).putInt(AccessLogRecord.VERSION).putInt(AccessLogRecord.SIZE).putInt(0);
+        segmentRecords = 0;
+
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(AccessLogWriter::isSegment).sorted().collect(Collectors.toList());
+        }
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * Returns whether a file is an access log segment.
+     *
+     * @param file the file to check
+     * @return true for segment files
+     */
+    static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,265 @@
+package com.baitan.balancer.buffer;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.baitan.balancer.config.BalancerConfig;
+
+/**
+ * A size-classed pool of reusable buffers for proxy payload copies.
+ * <p>
+ * Buffers are handed out as {@link PooledBuffer} handles from a fixed set of
+ * size classes. A request is served from the smallest class that fits it;
+ * requests larger than the largest class get a one-off buffer that is not
+ * pooled. Released buffers go to a small per-thread cache first and spill
+ * over into a bounded shared queue, so the common case of a worker thread
+ * reusing its own buffers never touches shared state.
+ * </p>
+ *
+ * <p>
+ * The buffers are heap buffers, shared through the {@linkplain #getHeapPool()
+ * heap pool}. Every payload copy bridges {@link java.io.InputStream}s and
+ * {@link java.io.OutputStream}s, which only accept byte arrays, so off-heap
+ * buffers would force a temporary array on every copy. Pooled heap buffers
+ * are long-lived, so they are promoted once and no longer cause
+ * young-generation churn.
+ * </p>
+ *
+ * <p>
+ * Leak detection is enabled with {@code BUFFER_LEAK_DETECTION=true} and is
+ * intended for tests and debugging, as it records a stack trace on every
+ * acquisition.
+ * </p>
+ *
+ * <h2>Thread Safety</h2>
+ * <p>
+ * The pool is thread-safe. A single {@link PooledBuffer} must only be used by
+ * one thread at a time.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class BufferPool {
+
+    private static final int[] SIZE_CLASSES = { 4 * 1024, 16 * 1024, 64 * 1024 };
+    private static final int THREAD_CACHE_SIZE = BalancerConfig.getInt("BUFFER_THREAD_CACHE_SIZE", 4);
+    private static final int SHARED_POOL_SIZE = BalancerConfig.getInt("BUFFER_SHARED_POOL_SIZE", 64);
+    private static final boolean LEAK_DETECTION = BalancerConfig.getBoolean("BUFFER_LEAK_DETECTION", false);
+
+    private static final BufferPool HEAP_POOL = new BufferPool("heap", LEAK_DETECTION);
+
+    private final String name;
+    private final Cleaner leakCleaner;
+
+    private final ThreadLocal<ArrayDeque<PooledBuffer>[]> threadCaches;
+    private final Queue<PooledBuffer>[] sharedPools;
+    private final AtomicInteger[] sharedPoolSizes;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder sharedPoolHits = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder unpooledAllocations = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Creates a new BufferPool.
+     *
+     * @param name          the name of the pool, used in metrics and logs
+     * @param leakDetection whether to report buffers that are never released
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BufferPool(String name, boolean leakDetection) {
+        this.name = name;
+        this.leakCleaner = leakDetection ? Cleaner.create() : null;
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<PooledBuffer>[] caches = new ArrayDeque[SIZE_CLASSES.length];
+            for (int i = 0; i < caches.length; i++) {
+                caches[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+            }
+            return caches;
+        });
+        this.sharedPools = new Queue[SIZE_CLASSES.length];
+        this.sharedPoolSizes = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            sharedPools[i] = new ConcurrentLinkedQueue<>();
+            sharedPoolSizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns the shared pool of heap buffers used for stream copies.
+     *
+     * @return the heap buffer pool
+     */
+    public static BufferPool getHeapPool() {
+        return HEAP_POOL;
+    }
+
+    /**
+     * Returns the size of the largest pooled size class.
+     *
+     * @return the largest pooled capacity in bytes
+     */
+    public static int getMaxPooledSize() {
+        return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+    }
+
+    /**
+     * Borrows a buffer with at least the requested capacity.
+     *
+     * @param minCapacity the minimum capacity in bytes
+     * @return a cleared buffer that must be released after use
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        acquisitions.increment();
+        int sizeClass = sizeClassFor(minCapacity);
+
+        PooledBuffer pooled;
+        if (sizeClass < 0) {
+            unpooledAllocations.increment();
+            pooled = new PooledBuffer(this, ByteBuffer.allocate(minCapacity), -1);
+        } else {
+            pooled = threadCaches.get()[sizeClass].pollLast();
+            if (pooled != null) {
+                threadCacheHits.increment();
+            } else {
+                pooled = sharedPools[sizeClass].poll();
+                if (pooled != null) {
+                    sharedPoolSizes[sizeClass].decrementAndGet();
+                    sharedPoolHits.increment();
+                } else {
+                    allocations.increment();
+                    pooled = new PooledBuffer(this, ByteBuffer.allocate(SIZE_CLASSES[sizeClass]), sizeClass);
+                }
+            }
+        }
+        pooled.onAcquire(leakCleaner);
+        return pooled;
+    }
+
+    /**
+     * Takes back a released buffer. Called by {@link PooledBuffer#release()}.
+     *
+     * @param pooled the released buffer
+     */
+    void recycle(PooledBuffer pooled) {
+        releases.increment();
+        int sizeClass = pooled.sizeClass();
+        if (sizeClass < 0) {
+            return;
+        }
+
+        ArrayDeque<PooledBuffer> threadCache = threadCaches.get()[sizeClass];
+        if (threadCache.size() < THREAD_CACHE_SIZE) {
+            threadCache.addLast(pooled);
+            return;
+        }
+        if (sharedPoolSizes[sizeClass].incrementAndGet() <= SHARED_POOL_SIZE) {
+            sharedPools[sizeClass].offer(pooled);
+        } else {
+            // The shared pool is full, let the buffer be garbage collected
+            sharedPoolSizes[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Reports a buffer that became unreachable without being released.
+     *
+     * @param acquisitionSite the stack trace of the acquisition
+     */
+    void onLeak(Throwable acquisitionSite) {
+        leaks.increment();
+        System.err.println("LEAK: " + name + " pool buffer was not released");
+        acquisitionSite.printStackTrace();
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the pool.
+     *
+     * @return the pool name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the total number of acquisitions.
+     *
+     * @return the acquisition count
+     */
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions served from a thread-local cache.
+     *
+     * @return the thread-local cache hit count
+     */
+    public long getThreadCacheHits() {
+        return threadCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions served from the shared pool.
+     *
+     * @return the shared pool hit count
+     */
+    public long getSharedPoolHits() {
+        return sharedPoolHits.sum();
+    }
+
+    /**
+     * Returns the number of pooled buffers that had to be newly allocated.
+     *
+     * @return the allocation count
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions too large for any size class.
+     *
+     * @return the unpooled allocation count
+     */
+    public long getUnpooledAllocations() {
+        return unpooledAllocations.sum();
+    }
+
+    /**
+     * Returns the number of buffers currently borrowed and not yet released,
+     * including leaked ones.
+     *
+     * @return the outstanding buffer count
+     */
+    public long getOutstanding() {
+        return acquisitions.sum() - releases.sum();
+    }
+
+    /**
+     * Returns the number of leaked buffers detected so far. Always 0 when leak
+     * detection is disabled.
+     *
+     * @return the leak count
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+}
@@ -0,0 +1,132 @@
+package com.baitan.balancer.buffer;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer borrowed from a {@link BufferPool}.
+ * <p>
+ * The handle wraps a {@link ByteBuffer} of one of the pool's size classes and
+ * must be given back with {@link #release()} once the caller is done with it,
+ * typically in a {@code try-with-resources} block. Handles are themselves
+ * pooled, so acquiring a buffer does not allocate in the steady state.
+ * </p>
+ *
+ * <p>
+ * When leak detection is enabled, each acquisition is registered with a
+ * {@link Cleaner}. If the handle becomes unreachable without being released,
+ * the leak is reported together with the stack trace of the acquisition.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public final class PooledBuffer implements AutoCloseable {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private boolean inUse;
+    private Cleaner.Cleanable leakTracker;
+    private LeakState leakState;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    /**
+     * Returns the underlying buffer, cleared and ready for use.
+     *
+     * @return the borrowed ByteBuffer
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public ByteBuffer buffer() {
+        if (!inUse) {
+            throw new IllegalStateException("Buffer used after release");
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the backing array of the buffer.
+     *
+     * @return the backing array
+     */
+    public byte[] array() {
+        return buffer().array();
+    }
+
+    /**
+     * Returns the capacity of the underlying buffer.
+     *
+     * @return the capacity in bytes
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Gives the buffer back to its pool. The handle must not be used afterwards.
+     *
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public void release() {
+        if (!inUse) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        inUse = false;
+        if (leakTracker != null) {
+            leakState.released = true;
+            leakTracker.clean();
+            leakTracker = null;
+            leakState = null;
+        }
+        pool.recycle(this);
+    }
+
+    /**
+     * Releases the buffer. Equivalent to {@link #release()}.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    void onAcquire(Cleaner leakCleaner) {
+        inUse = true;
+        buffer.clear();
+        if (leakCleaner != null) {
+            leakState = new LeakState(pool, new Throwable("Buffer acquired here"));
+            leakTracker = leakCleaner.register(this, leakState);
+        }
+    }
+
+    /**
+     * Cleaner action reporting a buffer that was never released. It must not
+     * reference the handle, otherwise the handle would never become
+     * unreachable.
+     */
+    private static final class LeakState implements Runnable {
+
+        private final BufferPool pool;
+        private final Throwable acquisitionSite;
+        private volatile boolean released;
+
+        private LeakState(BufferPool pool, Throwable acquisitionSite) {
+            this.pool = pool;
+            this.acquisitionSite = acquisitionSite;
+        }
+
+        @Override
+        public void run() {
+            if (!released) {
+                pool.onLeak(acquisitionSite);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.baitan.balancer.buffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.baitan.balancer.config.BalancerConfig;
+
+/**
+ * Holds an upstream response body so that the backend can be released before
+ * the client has read it.
+ * <p>
+ * {@link #drain(InputStream)} reads the upstream body as fast as the backend
+ * sends it, into buffers borrowed from the heap {@link BufferPool} up to
+ * {@code SPOOL_MEMORY_BYTES}, and spills the rest into a temporary file in
+ * {@code SPOOL_DIR}. Once the body is drained the upstream connection can go
+ * back to its pool while {@link #writeTo(OutputStream)} feeds the client at
+ * whatever pace it reads. The spilled part is read back through a pooled
+ * buffer for the write.
+ * </p>
+ *
+ * <p>
+ * Bodies larger than {@code SPOOL_MAX_BYTES}, or whose spill file cannot be
+ * created, are only partly spooled; {@link #isComplete()} then returns false
+ * and the caller streams the remainder from the backend as before. The file
+ * is deleted when the spool is closed.
+ * </p>
+ *
+ * <p>
+ * Instances are confined to the thread handling one request and are not
+ * thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public final class ResponseSpool implements AutoCloseable {
+
+    private static final boolean ENABLED = BalancerConfig.getBoolean("RESPONSE_SPOOLING", false);
+    private static final long MEMORY_BYTES = BalancerConfig.getLong("SPOOL_MEMORY_BYTES", 256 * 1024);
+    private static final long MAX_BYTES = BalancerConfig.getLong("SPOOL_MAX_BYTES", 64L * 1024 * 1024);
+    private static final Path DIRECTORY = Path.of(BalancerConfig.getString("SPOOL_DIR",
+            System.getProperty("java.io.tmpdir")));
+    private static final long WRITE_TIMEOUT_MS = BalancerConfig.getLong("SPOOL_WRITE_TIMEOUT_MS", 60_000);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final List<PooledBuffer> chunks = new ArrayList<>();
+    private int lastChunkLength = CHUNK_SIZE;
+    private long memoryBytes;
+    private FileChannel file;
+    private long fileBytes;
+    private boolean complete;
+
+    /**
+     * Returns whether responses should be spooled at all.
+     *
+     * @return true if {@code RESPONSE_SPOOLING} is enabled
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the largest body that is spooled completely.
+     *
+     * @return the limit in bytes
+     */
+    public static long getMaxBytes() {
+        return MAX_BYTES;
+    }
+
+    /**
+     * Returns the time a client gets to read a completely spooled body. The
+     * backend is already released at that point, so the request deadline no
+     * longer applies.
+     *
+     * @return the timeout in milliseconds
+     */
+    public static long getWriteTimeoutMillis() {
+        return WRITE_TIMEOUT_MS;
+    }
+
+    /**
+     * Reads the upstream body until it ends or the spool is full.
+     *
+     * @param in the upstream response body
+     * @return true if the whole body was spooled, false if the rest must be
+     *         streamed from {@code in}
+     * @throws IOException if reading from the backend fails
+     */
+    public boolean drain(InputStream in) throws IOException {
+        while (size() < MAX_BYTES) {
+            if (memoryBytes < MEMORY_BYTES) {
+                if (lastChunkLength == CHUNK_SIZE) {
+                    chunks.add(BufferPool.getHeapPool().acquire(CHUNK_SIZE));
+                    lastChunkLength = 0;
+                }
+                int wanted = (int) Math.min(CHUNK_SIZE - lastChunkLength, MAX_BYTES - size());
+                int read = in.read(chunks.get(chunks.size() - 1).array(), lastChunkLength, wanted);
+                if (read == -1) {
+                    complete = true;
+                    return true;
+                }
+                lastChunkLength += read;
+                memoryBytes += read;
+            } else if (!spill(in)) {
+                return complete;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads one buffer's worth of the body into the spill file.
+     *
+     * @param in the upstream response body
+     * @return true if more may follow, false if the body ended or the spill
+     *         file could not be created
+     * @throws IOException if reading from the backend fails
+     */
+    private boolean spill(InputStream in) throws IOException {
+        if (file == null) {
+            try {
+                Path path = Files.createTempFile(DIRECTORY, "spool-", ".tmp");
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException e) {
+                System.err.println("Cannot create spool file in " + DIRECTORY + ": " + e.getMessage());
+                return false;
+            }
+        }
+        try (PooledBuffer scratch = BufferPool.getHeapPool().acquire(CHUNK_SIZE)) {
+            int wanted = (int) Math.min(CHUNK_SIZE, MAX_BYTES - size());
+            int read = in.read(scratch.array(), 0, wanted);
+            if (read == -1) {
+                complete = true;
+                return false;
+            }
+            ByteBuffer buffer = scratch.buffer();
+            buffer.limit(read);
+            while (buffer.hasRemaining()) {
+                file.write(buffer, fileBytes + buffer.position());
+            }
+            fileBytes += read;
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether the whole body was spooled.
+     *
+     * @return true if the backend body ended within the spool
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the number of body bytes held.
+     *
+     * @return the spooled size in bytes
+     */
+    public long size() {
+        return memoryBytes + fileBytes;
+    }
+
+    /**
+     * Writes the spooled body to the client.
+     * <p>
+     * {@link com.sun.net.httpserver.HttpExchange} only exposes an
+     * {@link OutputStream}, so the spilled part cannot be transferred to the
+     * socket by the kernel; it is read back with positional reads into a
+     * pooled buffer and written from there. Mapping the file instead would
+     * leave the mappings to the garbage collector, as they cannot be unmapped
+     * explicitly.
+     * </p>
+     *
+     * @param out the client response body
+     * @throws IOException if writing to the client or reading the spill file
+     *                     fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = i == chunks.size() - 1 ? lastChunkLength : CHUNK_SIZE;
+            out.write(chunks.get(i).array(), 0, length);
+        }
+        if (fileBytes == 0) {
+            return;
+        }
+        try (PooledBuffer scratch = BufferPool.getHeapPool().acquire(CHUNK_SIZE)) {
+            ByteBuffer buffer = scratch.buffer();
+            for (long position = 0; position < fileBytes;) {
+                buffer.clear().limit((int) Math.min(CHUNK_SIZE, fileBytes - position));
+                int read = file.read(buffer, position);
+                if (read == -1) {
+                    throw new EOFException("Spool file ended after " + position + " of " + fileBytes + " bytes");
+                }
+                out.write(scratch.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * Releases the memory buffers and deletes the spill file.
+     */
+    @Override
+    public void close() {
+        for (PooledBuffer chunk : chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.err.println("Cannot delete spool file: " + e.getMessage());
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.baitan.balancer.cluster;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * The merged view of the backend services shared by all balancer instances in
+ * cluster mode.
+ * <p>
+ * Holds this node's own health verdicts and the latest gossip received from
+ * each peer. It decides which node is responsible for probing a backend,
+ * using rendezvous hashing over the live nodes, so every backend is probed by
+ * exactly one balancer and the health-check traffic stays constant as
+ * balancers are added. Load reported by peers is folded into the
+ * {@link ServiceStats} of each service, and their latency averages seed the
+ * ones of services this node has no latency for yet.
+ * </p>
+ *
+ * <h2>Thread Safety</h2>
+ * <p>
+ * The view is updated by the gossip receiver and read by the health checker
+ * and the gossip sender; all state is held in concurrent maps.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class ClusterView {
+
+    private final String localNodeId;
+    private final long peerTimeoutMillis;
+    private final long verdictMaxAgeMillis;
+    private final ServiceStatsRegistry statsRegistry;
+
+    private final Map<Service, GossipMessage.Entry> localVerdicts;
+    private final Map<String, PeerState> peers;
+
+    /**
+     * Creates a new ClusterView.
+     *
+     * @param localNodeId         the id of this node
+     * @param peerTimeoutMillis   the time after which a silent peer is considered
+     *                            dead
+     * @param verdictMaxAgeMillis the age after which a peer's health verdict is
+     *                            no longer trusted
+     * @param statsRegistry       the registry receiving the load reported by peers
+     */
+    public ClusterView(String localNodeId, long peerTimeoutMillis, long verdictMaxAgeMillis,
+            ServiceStatsRegistry statsRegistry) {
+        this.localNodeId = localNodeId;
+        this.peerTimeoutMillis = peerTimeoutMillis;
+        this.verdictMaxAgeMillis = verdictMaxAgeMillis;
+        this.statsRegistry = statsRegistry;
+        this.localVerdicts = new ConcurrentHashMap<>();
+        this.peers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the id of this node.
+     *
+     * @return the local node id
+     */
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    /**
+     * Records the result of a health probe this node performed itself.
+     *
+     * @param service the probed service
+     * @param healthy whether the probe succeeded
+     */
+    public void recordLocalVerdict(Service service, boolean healthy) {
+        byte verdict = healthy ? GossipMessage.VERDICT_HEALTHY : GossipMessage.VERDICT_UNHEALTHY;
+        localVerdicts.put(service, new GossipMessage.Entry(service, verdict, System.currentTimeMillis(), 0, 0));
+    }
+
+    /**
+     * Decides whether this node is responsible for probing a service.
+     * <p>
+     * Every live node computes a hash of its id combined with the service, and
+     * the node with the highest hash owns the service. When a node joins or
+     * leaves, only the services it owned change hands.
+     * </p>
+     *
+     * @param service the service to probe
+     * @return true if this node should probe the service
+     */
+    public boolean isProbeOwner(Service service) {
+        long now = System.currentTimeMillis();
+        long bestScore = rendezvousScore(localNodeId, service);
+        for (PeerState peer : peers.values()) {
+            if (isAlive(peer, now)) {
+                long score = rendezvousScore(peer.nodeId, service);
+                if (score > bestScore || (score == bestScore && peer.nodeId.compareTo(localNodeId) > 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the most recent health verdict for a service from any live peer.
+     *
+     * @param service the service to look up
+     * @return true or false for a fresh verdict, or null if no peer has probed the
+     *         service recently
+     */
+    public Boolean getPeerVerdict(Service service) {
+        long now = System.currentTimeMillis();
+        GossipMessage.Entry latest = null;
+        for (PeerState peer : peers.values()) {
+            if (!isAlive(peer, now)) {
+                continue;
+            }
+            GossipMessage.Entry entry = peer.getFreshEntry(service, now, peerTimeoutMillis);
+            if (entry != null && entry.getVerdict() != GossipMessage.VERDICT_UNKNOWN
+                    && (latest == null || entry.getObservedAtMillis() > latest.getObservedAtMillis())) {
+                latest = entry;
+            }
+        }
+        if (latest == null || now - latest.getObservedAtMillis() > verdictMaxAgeMillis) {
+            return null;
+        }
+        return latest.getVerdict() == GossipMessage.VERDICT_HEALTHY;
+    }
+
+    /**
+     * Merges a message received from a peer into the view and updates the
+     * remote load of the services it mentions.
+     *
+     * @param message the received message
+     */
+    public void merge(GossipMessage message) {
+        if (localNodeId.equals(message.getNodeId())) {
+            return;
+        }
+        PeerState peer = peers.computeIfAbsent(message.getNodeId(), PeerState::new);
+        if (peer.lastSeenMillis == 0) {
+            System.out.println("Discovered load balancer peer: " + message.getNodeId());
+        }
+        long now = System.currentTimeMillis();
+        peer.lastSeenMillis = now;
+
+        Set<Service> mentioned = new HashSet<>();
+        for (GossipMessage.Entry entry : message.getEntries()) {
+            peer.entries.put(entry.getService(), new ReceivedEntry(entry, now));
+            mentioned.add(entry.getService());
+        }
+        for (Service service : mentioned) {
+            updateRemoteLoad(service);
+        }
+    }
+
+    /**
+     * Forgets peers that have been silent for longer than the peer timeout and
+     * removes their load from the service statistics.
+     * <p>
+     * Entries a live peer stopped reporting for longer than the peer timeout,
+     * and local verdicts older than the verdict max age, which peers would no
+     * longer trust, are dropped as well, so the view does not grow with
+     * backend churn.
+     * </p>
+     */
+    public void expirePeers() {
+        long now = System.currentTimeMillis();
+        for (PeerState peer : peers.values()) {
+            if (!isAlive(peer, now) && peers.remove(peer.nodeId, peer)) {
+                System.out.println("Load balancer peer timed out: " + peer.nodeId);
+                peer.entries.keySet().forEach(this::updateRemoteLoad);
+                continue;
+            }
+            for (var entry : peer.entries.entrySet()) {
+                if (now - entry.getValue().receivedAtMillis > peerTimeoutMillis
+                        && peer.entries.remove(entry.getKey(), entry.getValue())) {
+                    updateRemoteLoad(entry.getKey());
+                }
+            }
+        }
+        localVerdicts.values().removeIf(verdict -> now - verdict.getObservedAtMillis() > verdictMaxAgeMillis);
+    }
+
+    /**
+     * Builds the entries describing this node's view, to be gossiped to peers.
+     * Each entry combines this node's own verdict, if any, with its local load.
+     * Only services with a trusted local verdict or with statistics in the
+     * registry, which evicts the services that are no longer discovered, are
+     * advertised.
+     *
+     * @return the entries of the local view
+     */
+    public List<GossipMessage.Entry> buildLocalEntries() {
+        Set<Service> services = new HashSet<>(localVerdicts.keySet());
+        services.addAll(statsRegistry.getAll().keySet());
+
+        List<GossipMessage.Entry> entries = new ArrayList<>(services.size());
+        for (Service service : services) {
+            GossipMessage.Entry verdict = localVerdicts.get(service);
+            ServiceStats stats = statsRegistry.find(service);
+            entries.add(new GossipMessage.Entry(service,
+                    verdict == null ? GossipMessage.VERDICT_UNKNOWN : verdict.getVerdict(),
+                    verdict == null ? 0 : verdict.getObservedAtMillis(),
+                    stats == null ? 0 : stats.getInFlight(),
+                    stats == null ? 0 : (long) (stats.getLatencyEwmaNanos() / 1000)));
+        }
+        return entries;
+    }
+
+    private void updateRemoteLoad(Service service) {
+        long now = System.currentTimeMillis();
+        int inFlight = 0;
+        long latencySum = 0;
+        int latencyCount = 0;
+        for (PeerState peer : peers.values()) {
+            GossipMessage.Entry entry = peer.getFreshEntry(service, now, peerTimeoutMillis);
+            if (entry == null || !isAlive(peer, now)) {
+                continue;
+            }
+            inFlight += entry.getInFlight();
+            if (entry.getLatencyEwmaMicros() > 0) {
+                latencySum += entry.getLatencyEwmaMicros();
+                latencyCount++;
+            }
+        }
+        // Services this node does not know are not tracked, or they would be gossiped back forever
+        ServiceStats stats = statsRegistry.find(service);
+        if (stats != null) {
+            stats.setRemoteInFlight(inFlight);
+            if (latencyCount > 0) {
+                // A service this node has not completed a request to yet starts from the peers' average
+                stats.restoreLatencyEwma((latencySum * 1000.0) / latencyCount);
+            }
+        }
+    }
+
+    private boolean isAlive(PeerState peer, long now) {
+        return now - peer.lastSeenMillis <= peerTimeoutMillis;
+    }
+
+    private static long rendezvousScore(String nodeId, Service service) {
+        // Mix the hashes so that similar ids and services still spread evenly
+        long h = nodeId.hashCode() * 0x9E3779B97F4A7C15L ^ service.hashCode();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * The latest gossip received from a single peer. Entries the peer stopped
+     * reporting, for example because the backend was removed, age out after
+     * the peer timeout and are dropped by {@link ClusterView#expirePeers()}.
+     */
+    private static final class PeerState {
+
+        private final String nodeId;
+        private final Map<Service, ReceivedEntry> entries = new ConcurrentHashMap<>();
+        private volatile long lastSeenMillis;
+
+        private PeerState(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        private GossipMessage.Entry getFreshEntry(Service service, long now, long maxAgeMillis) {
+            ReceivedEntry received = entries.get(service);
+            if (received == null || now - received.receivedAtMillis > maxAgeMillis) {
+                return null;
+            }
+            return received.entry;
+        }
+    }
+
+    /**
+     * An entry together with the time at which it was received.
+     */
+    private static final class ReceivedEntry {
+
+        private final GossipMessage.Entry entry;
+        private final long receivedAtMillis;
+
+        private ReceivedEntry(GossipMessage.Entry entry, long receivedAtMillis) {
+            this.entry = entry;
+            this.receivedAtMillis = receivedAtMillis;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.baitan.balancer.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.baitan.balancer.Service;
+
+/**
+ * A single gossip datagram exchanged between balancer instances.
+ * <p>
+ * A message carries the id of the sending node and one entry per backend
+ * service the node has something to say about: its own latest health verdict
+ * and its local load observations. Messages are encoded in a compact binary
+ * format so a whole view normally fits in one UDP datagram; larger views are
+ * split by {@link #encode(String, List)}.
+ * </p>
+ *
+ * <pre>
+ * message := MAGIC:int VERSION:byte nodeId:string count:short entry*
+ * entry   := host:string port:int verdict:byte observedAtMillis:long
+ *            inFlight:int latencyEwmaMicros:long
+ * string  := length:short utf8-bytes
+ * </pre>
+ *
+ * @author Tanish Baidya
+ */
+public class GossipMessage {
+
+    /** Verdict value for a backend the sender has not probed itself. */
+    public static final byte VERDICT_UNKNOWN = 0;
+    /** Verdict value for a backend the sender found healthy. */
+    public static final byte VERDICT_HEALTHY = 1;
+    /** Verdict value for a backend the sender found unhealthy. */
+    public static final byte VERDICT_UNHEALTHY = 2;
+
+    private static final int MAGIC = 0x4C424750; // "LBGP"
+    private static final byte VERSION = 1;
+    private static final int MAX_DATAGRAM_SIZE = 1400; // Stay below a typical Ethernet MTU
+    private static final int MAX_NODE_ID_BYTES = 255; // Leaves most of a datagram for entries
+
+    private final String nodeId;
+    private final List<Entry> entries;
+
+    /**
+     * Creates a new GossipMessage.
+     *
+     * @param nodeId  the id of the sending node
+     * @param entries the per-service entries
+     */
+    public GossipMessage(String nodeId, List<Entry> entries) {
+        this.nodeId = nodeId;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the id of the node that sent the message.
+     *
+     * @return the sender id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the per-service entries of the message.
+     *
+     * @return the entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Checks that a node id is short enough to be sent with every datagram.
+     *
+     * @param nodeId the id of a node
+     * @throws IllegalArgumentException if the id is longer than
+     *                                  {@value #MAX_NODE_ID_BYTES} bytes in
+     *                                  UTF-8
+     */
+    public static void checkNodeId(String nodeId) {
+        int length = nodeId.getBytes(StandardCharsets.UTF_8).length;
+        if (length > MAX_NODE_ID_BYTES) {
+            throw new IllegalArgumentException(
+                    "Cluster node id is " + length + " bytes long, at most " + MAX_NODE_ID_BYTES + " are allowed");
+        }
+    }
+
+    /**
+     * Encodes a node's view into one or more datagrams, each no larger than
+     * {@value #MAX_DATAGRAM_SIZE} bytes. An empty view still produces one
+     * datagram so that it serves as a heartbeat.
+     *
+     * @param nodeId  the id of the sending node
+     * @param entries the entries to encode
+     * @return the encoded datagrams
+     * @throws IllegalArgumentException if the node id is too long, see
+     *                                  {@link #checkNodeId(String)}
+     */
+    public static List<ByteBuffer> encode(String nodeId, List<Entry> entries) {
+        checkNodeId(nodeId);
+        List<ByteBuffer> datagrams = new ArrayList<>();
+        byte[] nodeIdBytes = nodeId.getBytes(StandardCharsets.UTF_8);
+
+        int index = 0;
+        do {
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            buffer.putInt(MAGIC).put(VERSION);
+            putString(buffer, nodeIdBytes);
+            int countPosition = buffer.position();
+            buffer.putShort((short) 0);
+
+            short count = 0;
+            while (index < entries.size()) {
+                Entry entry = entries.get(index);
+                byte[] hostBytes = entry.service.getHost().getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < Entry.FIXED_SIZE + hostBytes.length) {
+                    break;
+                }
+                putString(buffer, hostBytes);
+                buffer.putInt(entry.service.getPort()).put(entry.verdict).putLong(entry.observedAtMillis)
+                        .putInt(entry.inFlight).putLong(entry.latencyEwmaMicros);
+                count++;
+                index++;
+            }
+            if (count == 0 && index < entries.size()) {
+                // A single host name that does not fit into a datagram can never be sent
+                index++;
+                continue;
+            }
+            buffer.putShort(countPosition, count);
+            buffer.flip();
+            datagrams.add(buffer);
+        } while (index < entries.size());
+
+        return datagrams;
+    }
+
+    /**
+     * Decodes a datagram.
+     * <p>
+     * Datagrams may come from anywhere, so any malformed input, including
+     * counts and lengths that do not match the datagram, yields null rather
+     * than an exception that could stop the receiver.
+     * </p>
+     *
+     * @param buffer the received datagram
+     * @return the decoded message, or null if the datagram is not a valid gossip
+     *         message
+     */
+    public static GossipMessage decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                return null;
+            }
+            String nodeId = getString(buffer);
+            int count = buffer.getShort() & 0xFFFF;
+            if (count > buffer.remaining() / Entry.FIXED_SIZE) {
+                return null;
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String host = getString(buffer);
+                int port = buffer.getInt();
+                byte verdict = buffer.get();
+                long observedAtMillis = buffer.getLong();
+                int inFlight = buffer.getInt();
+                long latencyEwmaMicros = buffer.getLong();
+                entries.add(new Entry(new Service(host, port), verdict, observedAtMillis, inFlight,
+                        latencyEwmaMicros));
+            }
+            return new GossipMessage(nodeId, entries);
+        } catch (RuntimeException e) {
+            // Truncated datagrams underflow, and hostile ones may fail in other ways, e.g. in Service
+            return null;
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * What a node reports about a single backend service.
+     */
+    public static class Entry {
+
+        private static final int FIXED_SIZE = Short.BYTES + Integer.BYTES + Byte.BYTES + Long.BYTES
+                + Integer.BYTES + Long.BYTES;
+
+        private final Service service;
+        private final byte verdict;
+        private final long observedAtMillis;
+        private final int inFlight;
+        private final long latencyEwmaMicros;
+
+        /**
+         * Creates a new Entry.
+         *
+         * @param service           the backend service
+         * @param verdict           the sender's own health verdict, one of the
+         *                          {@code VERDICT_} constants
+         * @param observedAtMillis  the wall-clock time of the verdict
+         * @param inFlight          the sender's in-flight request count
+         * @param latencyEwmaMicros the sender's latency EWMA in microseconds
+         */
+        public Entry(Service service, byte verdict, long observedAtMillis, int inFlight, long latencyEwmaMicros) {
+            this.service = service;
+            this.verdict = verdict;
+            this.observedAtMillis = observedAtMillis;
+            this.inFlight = inFlight;
+            this.latencyEwmaMicros = latencyEwmaMicros;
+        }
+
+        /**
+         * Returns the backend service.
+         *
+         * @return the service
+         */
+        public Service getService() {
+            return service;
+        }
+
+        /**
+         * Returns the sender's own health verdict.
+         *
+         * @return one of the {@code VERDICT_} constants
+         */
+        public byte getVerdict() {
+            return verdict;
+        }
+
+        /**
+         * Returns the wall-clock time at which the verdict was made.
+         *
+         * @return the epoch time in milliseconds
+         */
+        public long getObservedAtMillis() {
+            return observedAtMillis;
+        }
+
+        /**
+         * Returns the sender's in-flight request count.
+         *
+         * @return the in-flight count
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Returns the sender's latency EWMA.
+         *
+         * @return the latency EWMA in microseconds
+         */
+        public long getLatencyEwmaMicros() {
+            return latencyEwmaMicros;
+        }
+    }
+}
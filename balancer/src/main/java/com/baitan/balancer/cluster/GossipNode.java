@@ -0,0 +1,170 @@
+package com.baitan.balancer.cluster;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exchanges health verdicts and load observations with the other balancer
+ * instances over UDP.
+ * <p>
+ * Every gossip interval the node sends its local view to all configured peers
+ * and expires peers it has not heard from. A peer that cannot be reached is
+ * skipped for the round without affecting the others. A receiver thread
+ * merges incoming messages into the shared {@link ClusterView}. Peer addresses are resolved
+ * on every round, so a Docker service name that resolves to all balancer
+ * replicas can be used as a single peer entry.
+ * </p>
+ *
+ * @see ClusterView
+ * @see GossipMessage
+ *
+ * @author Tanish Baidya
+ */
+public class GossipNode {
+
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    private final ClusterView clusterView;
+    private final int bindPort;
+    private final List<String> peerSpecs;
+    private final long gossipIntervalMillis;
+    private DatagramChannel channel;
+
+    /**
+     * Creates a new GossipNode.
+     *
+     * @param clusterView          the view to publish and merge into
+     * @param bindPort             the UDP port to listen on
+     * @param peerSpecs            the peers as {@code host:port} strings
+     * @param gossipIntervalMillis the time between two gossip rounds
+     * @throws IllegalArgumentException if the id of the local node is too long
+     *                                  to fit into a datagram
+     */
+    public GossipNode(ClusterView clusterView, int bindPort, List<String> peerSpecs, long gossipIntervalMillis) {
+        GossipMessage.checkNodeId(clusterView.getLocalNodeId());
+        this.clusterView = clusterView;
+        this.bindPort = bindPort;
+        this.peerSpecs = peerSpecs;
+        this.gossipIntervalMillis = gossipIntervalMillis;
+    }
+
+    /**
+     * Binds the UDP socket and starts the sender and receiver threads.
+     *
+     * @throws IOException if the socket cannot be bound
+     */
+    public void start() throws IOException {
+        channel = DatagramChannel.open().bind(new InetSocketAddress(bindPort));
+
+        Thread receiver = new Thread(this::receiveLoop, "gossip-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        Thread sender = new Thread(this::sendLoop, "gossip-sender");
+        sender.setDaemon(true);
+        sender.start();
+
+        System.out.println("Gossip node " + clusterView.getLocalNodeId() + " listening on UDP port " + bindPort);
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                GossipMessage message = GossipMessage.decode(buffer);
+                if (message != null) {
+                    clusterView.merge(message);
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    System.err.println("Failed to receive gossip: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sendLoop() {
+        while (channel.isOpen()) {
+            clusterView.expirePeers();
+            List<ByteBuffer> datagrams = GossipMessage.encode(clusterView.getLocalNodeId(),
+                    clusterView.buildLocalEntries());
+            for (InetSocketAddress peer : resolvePeers()) {
+                send(datagrams, peer);
+            }
+            try {
+                Thread.sleep(gossipIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Gossip sender interrupted: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the datagrams of a round to a single peer. A peer that cannot be
+     * reached is skipped until the next round, without holding up the others.
+     */
+    private void send(List<ByteBuffer> datagrams, InetSocketAddress peer) {
+        try {
+            for (ByteBuffer datagram : datagrams) {
+                channel.send(datagram.duplicate(), peer);
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                System.err.println("Failed to send gossip to " + peer + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private List<InetSocketAddress> resolvePeers() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String spec : peerSpecs) {
+            int separator = spec.lastIndexOf(':');
+            String host = separator < 0 ? spec : spec.substring(0, separator);
+            try {
+                int port = separator < 0 ? bindPort : Integer.parseInt(spec.substring(separator + 1));
+                for (InetAddress address : InetAddress.getAllByName(host)) {
+                    InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+                    if (!isSelf(socketAddress)) {
+                        addresses.add(socketAddress);
+                    }
+                }
+            } catch (UnknownHostException e) {
+                // The peer may not be up yet, try again next round
+            } catch (SocketException e) {
+                System.err.println("Failed to resolve gossip peer " + spec + ": " + e.getMessage());
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid gossip peer: " + spec);
+            }
+        }
+        return addresses;
+    }
+
+    private boolean isSelf(InetSocketAddress address) throws SocketException {
+        return address.getPort() == bindPort && (address.getAddress().isAnyLocalAddress()
+                || NetworkInterface.getByInetAddress(address.getAddress()) != null);
+    }
+
+    /**
+     * Closes the UDP socket, which stops the sender and receiver threads.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.baitan.balancer.config;
+
+/**
+ * Static accessors for the tunables of the load balancer.
+ * <p>
+ * Every setting is read from an environment variable so it can be set from
+ * {@code run.sh} or {@code docker-compose.yaml}. Missing or malformed values
+ * fall back to the supplied default and are reported on stderr.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public final class BalancerConfig {
+
+    private BalancerConfig() {
+    }
+
+    /**
+     * Returns the value of an environment variable as a String.
+     *
+     * @param name         the environment variable name
+     * @param defaultValue the value to use when the variable is unset or blank
+     * @return the configured value or the default
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns the value of an environment variable as an int.
+     *
+     * @param name         the environment variable name
+     * @param defaultValue the value to use when the variable is unset or invalid
+     * @return the configured value or the default
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of an environment variable as a long.
+     *
+     * @param name         the environment variable name
+     * @param defaultValue the value to use when the variable is unset or invalid
+     * @return the configured value or the default
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid long for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of an environment variable as a double.
+     *
+     * @param name         the environment variable name
+     * @param defaultValue the value to use when the variable is unset or invalid
+     * @return the configured value or the default
+     */
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of an environment variable as a boolean. Only
+     * {@code true} (case-insensitive) is treated as enabled.
+     *
+     * @param name         the environment variable name
+     * @param defaultValue the value to use when the variable is unset
+     * @return the configured value or the default
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,140 @@
+package com.baitan.balancer.deadline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interrupts a worker thread whose request has run past its deadline.
+ * <p>
+ * Blocking reads of an upstream response body and blocking writes to the
+ * client cannot be given a timeout directly. Instead the worker arms a
+ * {@link Guard} before the blocking section; if the deadline passes first, a
+ * timer thread closes the resource attached to the guard and interrupts the
+ * worker, which aborts the blocked I/O with an exception. Both are needed:
+ * the upstream body stream of {@link java.net.http.HttpClient} ignores
+ * interrupts unless it has been closed, while blocking socket writes only
+ * react to the interrupt. Disarming the guard makes sure a late interrupt can never leak
+ * into the next request run by the same pooled thread.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public final class DeadlineWatchdog {
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private DeadlineWatchdog() {
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "deadline-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Arms a guard for the current thread.
+     *
+     * @param deadline the deadline after which the thread is interrupted
+     * @return the guard, which must be disarmed when the blocking section ends
+     */
+    public static Guard arm(RequestDeadline deadline) {
+        return arm(deadline.remainingNanos());
+    }
+
+    /**
+     * Arms a guard for the current thread that is not tied to a request
+     * deadline, such as the budget of a client write.
+     *
+     * @param timeoutNanos the time after which the thread is interrupted
+     * @return the guard, which must be disarmed when the blocking section ends
+     */
+    public static Guard arm(long timeoutNanos) {
+        Guard guard = new Guard(Thread.currentThread());
+        guard.future = TIMER.schedule(guard::fire, Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        return guard;
+    }
+
+    /**
+     * A deadline armed for one thread.
+     */
+    public static final class Guard {
+
+        private static final int ARMED = 0;
+        private static final int FIRING = 1;
+        private static final int FIRED = 2;
+        private static final int DISARMED = 3;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(ARMED);
+        private volatile ScheduledFuture<?> future;
+        private volatile Closeable resource;
+
+        private Guard(Thread thread) {
+            this.thread = thread;
+        }
+
+        private void fire() {
+            if (state.compareAndSet(ARMED, FIRING)) {
+                closeQuietly(resource);
+                thread.interrupt();
+                state.set(FIRED);
+            }
+        }
+
+        /**
+         * Attaches a resource to be closed when the deadline passes, such as
+         * the upstream response body the worker is about to read. If the guard
+         * already fired, the resource is closed straight away.
+         *
+         * @param resource the resource to close on timeout
+         */
+        public void attach(Closeable resource) {
+            this.resource = resource;
+            if (state.get() != ARMED) {
+                closeQuietly(resource);
+            }
+        }
+
+        private static void closeQuietly(Closeable resource) {
+            if (resource == null) {
+                return;
+            }
+            try {
+                resource.close();
+            } catch (IOException e) {
+                // The request is being abandoned anyway
+            }
+        }
+
+        /**
+         * Disarms the guard. Must be called by the guarded thread and may be
+         * called more than once. If the guard already fired, waits for the
+         * interrupt to be delivered and clears it.
+         *
+         * @return true if the deadline passed and the thread was interrupted
+         */
+        public boolean disarm() {
+            if (state.compareAndSet(ARMED, DISARMED)) {
+                future.cancel(false);
+                return false;
+            }
+            if (state.get() == DISARMED) {
+                return false;
+            }
+            while (state.get() == FIRING) {
+                Thread.onSpinWait();
+            }
+            Thread.interrupted();
+            return true;
+        }
+    }
+}
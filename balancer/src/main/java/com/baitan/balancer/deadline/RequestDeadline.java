@@ -0,0 +1,93 @@
+package com.baitan.balancer.deadline;
+
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The point in time by which a request must be finished.
+ * <p>
+ * A deadline is the earlier of the route's total timeout and the budget the
+ * client sent in the {@value #TIMEOUT_HEADER} header, both measured from the
+ * moment the request arrived at the load balancer, so time spent queueing
+ * counts against it. The remaining budget is passed on to the backend in the
+ * same header, so the backend can give up on work nobody is waiting for.
+ * </p>
+ *
+ * <p>
+ * The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class RequestDeadline {
+
+    /** Header carrying the remaining time budget of a request in milliseconds. */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+    private final long deadlineNanos;
+    private final UpstreamTimeouts timeouts;
+
+    private RequestDeadline(long deadlineNanos, UpstreamTimeouts timeouts) {
+        this.deadlineNanos = deadlineNanos;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Computes the deadline of an incoming request.
+     *
+     * @param exchange     the incoming exchange
+     * @param arrivalNanos the {@link System#nanoTime()} at which the request
+     *                     arrived
+     * @param timeouts     the timeouts of the request's route
+     * @return the deadline of the request
+     */
+    public static RequestDeadline of(HttpExchange exchange, long arrivalNanos, UpstreamTimeouts timeouts) {
+        long budgetMillis = timeouts.getTotalMillis();
+        String clientBudget = exchange.getRequestHeaders().getFirst(TIMEOUT_HEADER);
+        if (clientBudget != null) {
+            try {
+                budgetMillis = Math.min(budgetMillis, Math.max(0, Long.parseLong(clientBudget.trim())));
+            } catch (NumberFormatException e) {
+                // Ignore a malformed budget and fall back to the route timeout
+            }
+        }
+        return new RequestDeadline(arrivalNanos + TimeUnit.MILLISECONDS.toNanos(budgetMillis), timeouts);
+    }
+
+    /**
+     * Returns the timeouts of the request's route.
+     *
+     * @return the route timeouts
+     */
+    public UpstreamTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the time left until the deadline.
+     *
+     * @return the remaining time in nanoseconds, negative once expired
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * Returns the time left until the deadline in whole milliseconds.
+     *
+     * @return the remaining time in milliseconds, at least 0
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+    }
+
+    /**
+     * Returns whether the deadline has passed.
+     *
+     * @return true if no time is left
+     */
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+}
@@ -0,0 +1,137 @@
+package com.baitan.balancer.deadline;
+
+import com.baitan.balancer.config.BalancerConfig;
+
+/**
+ * The upstream timeouts applying to requests on a route.
+ * <ul>
+ * <li>{@code connect}: time allowed to establish a connection to the
+ * backend.</li>
+ * <li>{@code firstByte}: time allowed from sending the request until the
+ * response headers arrive.</li>
+ * <li>{@code total}: time allowed for the whole request, from its arrival at
+ * the load balancer until the response has been written to the client.</li>
+ * </ul>
+ *
+ * <p>
+ * The defaults are configured by the {@code UPSTREAM_*_TIMEOUT_MS} environment
+ * variables and can be overridden per route in {@code ROUTES}, see
+ * {@link com.baitan.balancer.routing.RouteTable}.
+ * </p>
+ *
+ * <p>
+ * The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class UpstreamTimeouts {
+
+    private static final UpstreamTimeouts FALLBACK = new UpstreamTimeouts(1_000, 10_000, 30_000);
+    private static final UpstreamTimeouts DEFAULTS = fromEnvironment();
+
+    private final long connectMillis;
+    private final long firstByteMillis;
+    private final long totalMillis;
+
+    /**
+     * Creates a new UpstreamTimeouts.
+     *
+     * @param connectMillis   the connect timeout in milliseconds
+     * @param firstByteMillis the first-byte timeout in milliseconds
+     * @param totalMillis     the total timeout in milliseconds
+     * @throws IllegalArgumentException if a timeout is not positive
+     */
+    public UpstreamTimeouts(long connectMillis, long firstByteMillis, long totalMillis) {
+        if (connectMillis <= 0 || firstByteMillis <= 0 || totalMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts must be positive: " + connectMillis + "/" + firstByteMillis
+                    + "/" + totalMillis);
+        }
+        this.connectMillis = connectMillis;
+        this.firstByteMillis = firstByteMillis;
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * Returns the timeouts of requests on routes without their own, configured
+     * from the {@code UPSTREAM_CONNECT_TIMEOUT_MS},
+     * {@code UPSTREAM_FIRST_BYTE_TIMEOUT_MS} and
+     * {@code UPSTREAM_TOTAL_TIMEOUT_MS} environment variables. A malformed
+     * configuration is reported and replaced by built-in defaults.
+     *
+     * @return the default timeouts
+     */
+    public static UpstreamTimeouts getDefaults() {
+        return DEFAULTS;
+    }
+
+    private static UpstreamTimeouts fromEnvironment() {
+        try {
+            return new UpstreamTimeouts(BalancerConfig.getLong("UPSTREAM_CONNECT_TIMEOUT_MS", 1_000),
+                    BalancerConfig.getLong("UPSTREAM_FIRST_BYTE_TIMEOUT_MS", 10_000),
+                    BalancerConfig.getLong("UPSTREAM_TOTAL_TIMEOUT_MS", 30_000));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid upstream timeout configuration, using " + FALLBACK + ": " + e.getMessage());
+            return FALLBACK;
+        }
+    }
+
+    /**
+     * Parses timeouts written as {@code connect/firstByte/total} in
+     * milliseconds, e.g. {@code 500/2000/5000}.
+     *
+     * @param spec the timeouts to parse
+     * @return the parsed timeouts
+     * @throws IllegalArgumentException if the specification is malformed or a
+     *                                  timeout is not positive
+     */
+    public static UpstreamTimeouts parse(String spec) {
+        String[] values = spec.trim().split("/");
+        if (values.length != 3) {
+            throw new IllegalArgumentException("Expected connect/firstByte/total but got: " + spec);
+        }
+        try {
+            return new UpstreamTimeouts(Long.parseLong(values[0].trim()), Long.parseLong(values[1].trim()),
+                    Long.parseLong(values[2].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid timeout in: " + spec, e);
+        }
+    }
+
+    /**
+     * Returns the connect timeout.
+     *
+     * @return the connect timeout in milliseconds
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * Returns the first-byte timeout.
+     *
+     * @return the first-byte timeout in milliseconds
+     */
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    /**
+     * Returns the total timeout.
+     *
+     * @return the total timeout in milliseconds
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Returns a string representation of the timeouts.
+     *
+     * @return a string in the format "connect/firstByte/total ms"
+     */
+    @Override
+    public String toString() {
+        return connectMillis + "/" + firstByteMillis + "/" + totalMillis + " ms";
+    }
+}
@@ -0,0 +1,87 @@
+package com.baitan.balancer.executor;
+
+/**
+ * Decides whether a queued request should be shed based on how long it waited
+ * in the queue, following the controlled-delay (CoDel) approach used for
+ * request queues.
+ * <p>
+ * Queue length is a poor overload signal because requests vary in cost, so
+ * the decision is based on queueing time instead. The controller tracks the
+ * minimum queueing time seen during each interval. If even the fastest request
+ * of an interval waited longer than the target, the queue is standing rather
+ * than absorbing a burst, and the controller switches to overloaded mode. In
+ * that mode any request that waited longer than the target is shed, so the
+ * queue drains quickly. Otherwise requests are only shed once they exceed the
+ * maximum queueing time. An interval in which no request was dequeued is
+ * never considered overloaded.
+ * </p>
+ *
+ * <p>
+ * The controller is thread-safe. Its state is tiny and only touched once per
+ * dequeued request, so it is guarded by the instance monitor.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class CoDelController {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final long maxQueueNanos;
+
+    private long intervalEnd;
+    private long minSojournInInterval = Long.MAX_VALUE;
+    private boolean overloaded;
+
+    /**
+     * Creates a new CoDelController.
+     *
+     * @param targetMillis   the acceptable standing queueing time
+     * @param intervalMillis the window over which the minimum queueing time is
+     *                       measured
+     * @param maxQueueMillis the queueing time after which a request is always
+     *                       shed
+     */
+    public CoDelController(long targetMillis, long intervalMillis, long maxQueueMillis) {
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.maxQueueNanos = maxQueueMillis * 1_000_000L;
+        this.intervalEnd = System.nanoTime() + intervalNanos;
+    }
+
+    /**
+     * Records the queueing time of a request that is about to run and decides
+     * whether it should be shed.
+     *
+     * @param sojournNanos how long the request waited in the queue
+     * @param now          the current {@link System#nanoTime()}
+     * @return true if the request should be rejected instead of processed
+     */
+    public synchronized boolean shouldShed(long sojournNanos, long now) {
+        if (now - intervalEnd >= 0) {
+            // An interval without dequeues, such as the first one or a later idle one, says nothing about a
+            // standing queue, so the first burst after it is not shed at the target
+            boolean empty = minSojournInInterval == Long.MAX_VALUE || now - intervalEnd >= intervalNanos;
+            overloaded = !empty && minSojournInInterval > targetNanos;
+            minSojournInInterval = Long.MAX_VALUE;
+            intervalEnd = now + intervalNanos;
+        }
+        if (sojournNanos < minSojournInInterval) {
+            minSojournInInterval = sojournNanos;
+        }
+
+        if (sojournNanos > maxQueueNanos) {
+            return true;
+        }
+        return overloaded && sojournNanos > targetNanos;
+    }
+
+    /**
+     * Returns whether the controller currently considers the queue overloaded.
+     *
+     * @return true if requests are being shed at the target queueing time
+     */
+    public synchronized boolean isOverloaded() {
+        return overloaded;
+    }
+}
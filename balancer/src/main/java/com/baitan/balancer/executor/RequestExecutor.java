@@ -0,0 +1,224 @@
+package com.baitan.balancer.executor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor used by the load balancer server to run request handlers, with
+ * bounded admission and load shedding.
+ * <p>
+ * Requests are queued in a bounded queue in front of a fixed pool of workers.
+ * Each task is stamped with the time at which it was queued, so the handler
+ * can find out how long the request waited via
+ * {@link #currentQueueWaitNanos()}.
+ * </p>
+ *
+ * <p>
+ * A request is shed when the queue is full, or when the {@link CoDelController}
+ * decides that it waited too long by the time a worker picked it up. A shed
+ * request still runs its handler so that the client receives an immediate
+ * response; the handler checks {@link #isCurrentRequestShed()} and answers
+ * with 503 instead of proxying. Requests rejected because the queue is full
+ * are handed to a small separate pool, so the fast rejection does not wait
+ * behind the backlog. When that pool is saturated as well, the request is
+ * rejected on the calling dispatcher thread, and the handler answers it with
+ * a fixed response before doing any other work, so that accepting new
+ * connections is only delayed by a single small write.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class RequestExecutor implements Executor {
+
+    private static final int SHED_THREADS = 2;
+    private static final int SHED_QUEUE_DEPTH = 1024;
+
+    private static final ThreadLocal<TaskContext> CURRENT_TASK = ThreadLocal.withInitial(TaskContext::new);
+
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor shedders;
+    private final CoDelController coDelController;
+
+    private final AtomicLong shedQueueFull = new AtomicLong();
+    private final AtomicLong shedQueueTime = new AtomicLong();
+    private final AtomicLong shedInline = new AtomicLong();
+
+    /**
+     * Creates a new RequestExecutor.
+     *
+     * @param numThreads      the number of worker threads
+     * @param queueDepth      the maximum number of requests waiting for a worker
+     * @param coDelController the controller deciding when queued requests are
+     *                        shed
+     */
+    public RequestExecutor(int numThreads, int queueDepth, CoDelController coDelController) {
+        this.workers = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth));
+        this.shedders = new ThreadPoolExecutor(SHED_THREADS, SHED_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(SHED_QUEUE_DEPTH), new InlineRejection());
+        this.coDelController = coDelController;
+    }
+
+    /**
+     * Returns how long the task running on the current thread waited in the
+     * queue before it was picked up by a worker.
+     *
+     * @return the queue wait in nanoseconds, or 0 when called outside a task
+     */
+    public static long currentQueueWaitNanos() {
+        return CURRENT_TASK.get().queueWaitNanos;
+    }
+
+    /**
+     * Returns whether the task running on the current thread has been shed and
+     * should be answered with a rejection instead of being processed.
+     *
+     * @return true if the current request was shed
+     */
+    public static boolean isCurrentRequestShed() {
+        return CURRENT_TASK.get().shed;
+    }
+
+    /**
+     * Returns whether the task running on the current thread was rejected on
+     * the dispatcher thread because the shedding pool was saturated, and must
+     * be answered with the cheapest possible response.
+     *
+     * @return true if the current request is being rejected inline
+     */
+    public static boolean isCurrentRequestRejectedInline() {
+        return CURRENT_TASK.get().inline;
+    }
+
+    /**
+     * Queues a task for execution. If the queue is full, the task is run on the
+     * shedding pool and marked as shed.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            workers.execute(new QueuedTask(task, System.nanoTime(), false));
+        } catch (RejectedExecutionException e) {
+            shedQueueFull.incrementAndGet();
+            shedders.execute(new QueuedTask(task, System.nanoTime(), true));
+        }
+    }
+
+    /**
+     * Returns the number of requests shed because the queue was full.
+     *
+     * @return the number of requests shed on admission
+     */
+    public long getShedQueueFullCount() {
+        return shedQueueFull.get();
+    }
+
+    /**
+     * Returns the number of requests shed because they waited too long in the
+     * queue.
+     *
+     * @return the number of requests shed on dequeue
+     */
+    public long getShedQueueTimeCount() {
+        return shedQueueTime.get();
+    }
+
+    /**
+     * Returns the number of requests rejected on the dispatcher thread because
+     * the shedding pool was saturated. These are also counted as shed because
+     * the queue was full.
+     *
+     * @return the number of requests rejected inline
+     */
+    public long getShedInlineCount() {
+        return shedInline.get();
+    }
+
+    /**
+     * Returns the controller deciding when queued requests are shed.
+     *
+     * @return the CoDel controller
+     */
+    public CoDelController getCoDelController() {
+        return coDelController;
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a worker.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Per-thread state of the task currently being run.
+     */
+    private static final class TaskContext {
+        private long queueWaitNanos;
+        private boolean shed;
+        private boolean inline;
+    }
+
+    /**
+     * Runs tasks the saturated shedding pool cannot take on the calling
+     * dispatcher thread, flagged so that the handler only writes a fixed
+     * rejection.
+     */
+    private final class InlineRejection implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            shedInline.incrementAndGet();
+            ((QueuedTask) task).run(true);
+        }
+    }
+
+    /**
+     * A task together with the time at which it was queued.
+     */
+    private final class QueuedTask implements Runnable {
+
+        private final Runnable task;
+        private final long enqueuedAt;
+        private final boolean rejected;
+
+        private QueuedTask(Runnable task, long enqueuedAt, boolean rejected) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void run() {
+            run(false);
+        }
+
+        private void run(boolean inline) {
+            TaskContext context = CURRENT_TASK.get();
+            long now = System.nanoTime();
+            context.queueWaitNanos = now - enqueuedAt;
+            context.shed = rejected;
+            context.inline = inline;
+            if (!rejected && coDelController.shouldShed(context.queueWaitNanos, now)) {
+                shedQueueTime.incrementAndGet();
+                context.shed = true;
+            }
+            try {
+                task.run();
+            } finally {
+                context.queueWaitNanos = 0;
+                context.shed = false;
+                context.inline = false;
+            }
+        }
+    }
+}
@@ -1,75 +1,273 @@
 package com.baitan.balancer.handlers;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.http.HttpStatus;
 
-import com.baitan.balancer.ConcurrentLoadBalancer;
 import com.baitan.balancer.Service;
+import com.baitan.balancer.accesslog.AccessLog;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.deadline.RequestDeadline;
+import com.baitan.balancer.executor.RequestExecutor;
+import com.baitan.balancer.priority.PriorityClass;
+import com.baitan.balancer.priority.PriorityClassifier;
+import com.baitan.balancer.priority.WeightedFairScheduler;
+import com.baitan.balancer.routing.Route;
+import com.baitan.balancer.routing.RouteTable;
 import com.baitan.balancer.strategy.BalancingStrategy;
+import com.baitan.balancer.trace.RequestTrace;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 /**
  * ProxyHandler is responsible for handling incoming HTTP requests and routing
- * them to the appropriate backend service based on the current balancing
- * strategy. It uses a singleton pattern to ensure only one instance exists.
+ * them to the appropriate backend service. Each request is resolved by the
+ * {@link RouteTable} to a {@link Route}, which names the backend pool and the
+ * upstream timeouts, and the pool's balancing strategy picks the service.
+ *
+ * <p>
+ * A priority slot is given back as soon as the backend is done with the
+ * request, so a spooled response that is still being written to a slow
+ * client does not keep other requests from reaching the backends.
+ * </p>
  * 
  * @author Tanish Baidya
  */
 public class ProxyHandler implements HttpHandler {
 
-    private static volatile ProxyHandler instance;
+    private static final String RETRY_AFTER_SECONDS = String
+            .valueOf(BalancerConfig.getInt("RETRY_AFTER_SECONDS", 1));
+    private static final byte[] OVERLOADED_RESPONSE = "Load balancer overloaded, retry later"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final Runnable NOTHING_TO_RELEASE = () -> {
+    };
 
-    private ProxyHandler() {
+    private final RouteTable routeTable;
+    private final PriorityClassifier priorityClassifier;
+    private final WeightedFairScheduler scheduler;
+
+    /**
+     * Creates a new ProxyHandler that proxies every request as soon as it is
+     * handled.
+     *
+     * @param routeTable the routes dispatching requests to backend pools
+     */
+    public ProxyHandler(RouteTable routeTable) {
+        this(routeTable, null, null);
     }
 
     /**
-     * Returns the singleton instance of ProxyHandler.
-     * <p>
-     * Uses double-checked locking to ensure thread safety and lazy initialization.
-     * </p>
+     * Creates a new ProxyHandler that classifies requests into priority classes
+     * and proxies them once a {@link WeightedFairScheduler} grants them a slot.
      *
-     * @return the singleton instance of ProxyHandler
+     * @param routeTable         the routes dispatching requests to backend pools
+     * @param priorityClassifier the classifier assigning requests to classes,
+     *                           or null to proxy without scheduling
+     * @param scheduler          the scheduler granting slots, or null to proxy
+     *                           without scheduling
      */
-    public static ProxyHandler getInstance() {
-        ProxyHandler localInstance = ProxyHandler.instance;
-        if (localInstance == null) {
-            synchronized (ProxyHandler.class) {
-                localInstance = ProxyHandler.instance;
-                if (localInstance == null) {
-                    ProxyHandler.instance = localInstance = new ProxyHandler();
-                }
-            }
-        }
-        return localInstance;
+    public ProxyHandler(RouteTable routeTable, PriorityClassifier priorityClassifier,
+            WeightedFairScheduler scheduler) {
+        this.routeTable = routeTable;
+        this.priorityClassifier = priorityClassifier;
+        this.scheduler = scheduler;
     }
 
     /**
      * Handles incoming HTTP requests by routing them to the next available backend
-     * service using the current balancing strategy.
+     * service of the pool selected by the route table.
      * <p>
-     * If no healthy backend servers are available, it responds with a 503 Service
+     * If the pool has no healthy backend servers, it responds with a 503 Service
      * Unavailable status.
      * </p>
+     *
+     * <p>
+     * Every request is timed with a {@link RequestTrace}, which is committed as
+     * a Flight Recorder event and written to the {@link AccessLog} once the
+     * response has been written.
+     * </p>
+     *
+     * <p>
+     * Requests shed by the {@link RequestExecutor} are answered straight away
+     * with 503 and a Retry-After header, without touching a backend. Requests
+     * it rejects on the dispatcher thread get the same response with the
+     * connection closed, and are neither traced nor access logged. Requests
+     * whose {@link RequestDeadline} already passed while they were queued are
+     * answered with 504 and not forwarded.
+     * </p>
+     *
+     * <p>
+     * With priority classes configured, the request is classified and handed
+     * to the {@link WeightedFairScheduler}, and this thread returns right away.
+     * The request waits in the queue of its class and is proxied on a worker
+     * of the scheduler once it is granted a slot. Requests the scheduler sheds
+     * are answered with 503 and a Retry-After header as well.
+     * </p>
      */
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        System.out.println("Using thread:" + Thread.currentThread().getName());
-        BalancingStrategy strategy = ConcurrentLoadBalancer.getInstance().getBalancingStrategy();
+        if (RequestExecutor.isCurrentRequestRejectedInline()) {
+            rejectInline(exchange);
+            return;
+        }
+        RequestTrace trace = new RequestTrace(RequestExecutor.currentQueueWaitNanos());
+        if (scheduler != null && !RequestExecutor.isCurrentRequestShed()) {
+            PriorityClass priorityClass = priorityClassifier.classify(exchange);
+            scheduler.submit(priorityClass, new ScheduledRequest(exchange, trace, priorityClass));
+            return;
+        }
+        try {
+            if (RequestExecutor.isCurrentRequestShed()) {
+                rejectOverloaded(exchange);
+                trace.clientWritten(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            proxy(exchange, trace, NOTHING_TO_RELEASE);
+        } finally {
+            finish(exchange, trace);
+        }
+    }
+
+    /**
+     * Commits the trace of a finished request and writes it to the access log.
+     *
+     * @param exchange the finished exchange
+     * @param trace    the trace of the request
+     */
+    private static void finish(HttpExchange exchange, RequestTrace trace) {
+        trace.commit(exchange);
+        AccessLog.getInstance().log(exchange, trace);
+    }
+
+    /**
+     * Forwards an admitted request to a backend of the pool selected by the
+     * route table, unless its deadline already passed.
+     *
+     * @param exchange         the exchange to proxy
+     * @param trace            the trace of the request
+     * @param upstreamReleased called as soon as the backend is done with the
+     *                         request
+     * @throws IOException if the response cannot be written
+     */
+    private void proxy(HttpExchange exchange, RequestTrace trace, Runnable upstreamReleased) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        Route route = routeTable.lookup(exchange.getRequestHeaders().getFirst("Host"), path);
+        long arrivalNanos = System.nanoTime() - trace.getQueueWaitNanos();
+        RequestDeadline deadline = RequestDeadline.of(exchange, arrivalNanos, route.getTimeouts());
+        if (deadline.isExpired()) {
+            rejectExpired(exchange);
+            trace.clientWritten(HttpStatus.SC_GATEWAY_TIMEOUT);
+            return;
+        }
+
+        BalancingStrategy strategy = route.getPool().getBalancingStrategy();
         Service currentBackend = strategy.getNextService();
+        trace.selectionDone(currentBackend);
 
         if (currentBackend == null) {
             try (exchange) {
                 String response = "No healthy backend servers available";
                 exchange.sendResponseHeaders(HttpStatus.SC_SERVICE_UNAVAILABLE, response.length());
                 exchange.getResponseBody().write(response.getBytes());
+                trace.clientWritten(HttpStatus.SC_SERVICE_UNAVAILABLE);
             }
             return;
         }
 
-        currentBackend.routeRequest(exchange);
+        currentBackend.routeRequest(exchange, trace, deadline, upstreamReleased);
+    }
+
+    /**
+     * A request waiting for a slot from the scheduler. It runs away from the
+     * server's handler threads, so failures are reported here rather than by
+     * the server: the exchange is closed, which drops the connection.
+     */
+    private final class ScheduledRequest implements WeightedFairScheduler.Request {
+
+        private final HttpExchange exchange;
+        private final RequestTrace trace;
+        private final PriorityClass priorityClass;
+
+        private ScheduledRequest(HttpExchange exchange, RequestTrace trace, PriorityClass priorityClass) {
+            this.exchange = exchange;
+            this.trace = trace;
+            this.priorityClass = priorityClass;
+        }
+
+        @Override
+        public void granted(WeightedFairScheduler.Permit permit) {
+            try (permit) {
+                trace.scheduled(priorityClass.getName(), permit.getQueueWaitNanos());
+                proxy(exchange, trace, permit::release);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to proxy scheduled request: " + e.getMessage());
+                exchange.close();
+            } finally {
+                finish(exchange, trace);
+            }
+        }
+
+        @Override
+        public void shed() {
+            try {
+                trace.scheduled(priorityClass.getName(), 0);
+                rejectOverloaded(exchange);
+                trace.clientWritten(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to reject scheduled request: " + e.getMessage());
+                exchange.close();
+            } finally {
+                finish(exchange, trace);
+            }
+        }
+    }
 
+    /**
+     * Responds with 504 Gateway Timeout to a request whose deadline passed
+     * before it could be forwarded.
+     *
+     * @param exchange the exchange to reject
+     * @throws IOException if the response cannot be written
+     */
+    private void rejectExpired(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String response = "Request deadline exceeded";
+            exchange.sendResponseHeaders(HttpStatus.SC_GATEWAY_TIMEOUT, response.length());
+            exchange.getResponseBody().write(response.getBytes());
+        }
+    }
+
+    /**
+     * Responds with 503 Service Unavailable and a Retry-After header to a
+     * request that was shed because the load balancer is overloaded.
+     *
+     * @param exchange the exchange to reject
+     * @throws IOException if the response cannot be written
+     */
+    private void rejectOverloaded(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+            exchange.sendResponseHeaders(HttpStatus.SC_SERVICE_UNAVAILABLE, OVERLOADED_RESPONSE.length);
+            exchange.getResponseBody().write(OVERLOADED_RESPONSE);
+        }
+    }
+
+    /**
+     * Responds with the fixed 503 of {@link #rejectOverloaded(HttpExchange)}
+     * on the dispatcher thread and closes the connection, so that the
+     * dispatcher does not wait for a request body or a next request.
+     *
+     * @param exchange the exchange to reject
+     * @throws IOException if the response cannot be written
+     */
+    private void rejectInline(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+            exchange.getResponseHeaders().set("Connection", "close");
+            exchange.sendResponseHeaders(HttpStatus.SC_SERVICE_UNAVAILABLE, OVERLOADED_RESPONSE.length);
+            exchange.getResponseBody().write(OVERLOADED_RESPONSE);
+        }
     }
 
 }
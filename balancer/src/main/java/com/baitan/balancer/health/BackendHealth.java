@@ -0,0 +1,161 @@
+package com.baitan.balancer.health;
+
+/**
+ * Health state of a single backend with rise/fall hysteresis.
+ * <p>
+ * A single probe result does not flip a backend in or out of rotation. A
+ * healthy backend that fails a probe becomes {@link State#SUSPECT} and stays
+ * in rotation until it has failed {@code fall} consecutive probes. An
+ * unhealthy backend that passes a probe becomes {@link State#RECOVERING} and
+ * only rejoins the rotation after {@code rise} consecutive successes. This
+ * keeps occasional failed probes from evicting and re-adding healthy
+ * backends.
+ * </p>
+ *
+ * <p>
+ * The first result ever recorded for a backend sets its state directly, so
+ * newly discovered backends are admitted on their first successful probe.
+ * Backends known to be healthy from elsewhere, such as a membership snapshot,
+ * are seeded with {@link #adopt(boolean)} instead and go through the fall
+ * threshold like any other healthy backend.
+ * </p>
+ *
+ * <p>
+ * Instances are only accessed by the health checker and are not thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class BackendHealth {
+
+    /**
+     * The health states of a backend.
+     */
+    public enum State {
+        /** Passing probes and in rotation. */
+        HEALTHY,
+        /** Failed recent probes but still in rotation until the fall threshold. */
+        SUSPECT,
+        /** Failing probes and out of rotation. */
+        UNHEALTHY,
+        /** Passed recent probes but out of rotation until the rise threshold. */
+        RECOVERING
+    }
+
+    private final int rise;
+    private final int fall;
+
+    private State state;
+    private int consecutiveSuccesses;
+    private int consecutiveFailures;
+    private long nextProbeAtNanos;
+
+    /**
+     * Creates a new BackendHealth for a backend that has not been probed yet.
+     *
+     * @param rise the number of consecutive successes needed to rejoin rotation
+     * @param fall the number of consecutive failures needed to leave rotation
+     */
+    public BackendHealth(int rise, int fall) {
+        this.rise = Math.max(1, rise);
+        this.fall = Math.max(1, fall);
+        this.nextProbeAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the result of a probe and updates the state.
+     *
+     * @param success whether the probe succeeded
+     * @return true if the backend moved in or out of rotation
+     */
+    public boolean record(boolean success) {
+        boolean wasInRotation = isInRotation();
+
+        if (success) {
+            consecutiveSuccesses++;
+            consecutiveFailures = 0;
+        } else {
+            consecutiveFailures++;
+            consecutiveSuccesses = 0;
+        }
+
+        if (state == null) {
+            state = success ? State.HEALTHY : State.UNHEALTHY;
+        } else if (success) {
+            state = switch (state) {
+            case HEALTHY, SUSPECT -> State.HEALTHY;
+            case UNHEALTHY, RECOVERING -> consecutiveSuccesses >= rise ? State.HEALTHY : State.RECOVERING;
+            };
+        } else {
+            state = switch (state) {
+            case HEALTHY, SUSPECT -> consecutiveFailures >= fall ? State.UNHEALTHY : State.SUSPECT;
+            case UNHEALTHY, RECOVERING -> State.UNHEALTHY;
+            };
+        }
+
+        return wasInRotation != isInRotation();
+    }
+
+    /**
+     * Adopts a verdict made elsewhere, such as by the cluster peer that owns
+     * the backend or by a previous run of the load balancer. The verdict has
+     * already been through hysteresis, so it is applied directly.
+     *
+     * @param healthy whether the backend should be in rotation
+     * @return true if the backend moved in or out of rotation
+     */
+    public boolean adopt(boolean healthy) {
+        boolean wasInRotation = isInRotation();
+        state = healthy ? State.HEALTHY : State.UNHEALTHY;
+        consecutiveSuccesses = 0;
+        consecutiveFailures = 0;
+        return wasInRotation != isInRotation();
+    }
+
+    /**
+     * Returns whether the backend should receive traffic.
+     *
+     * @return true if the backend is healthy or only suspect
+     */
+    public boolean isInRotation() {
+        return state == State.HEALTHY || state == State.SUSPECT;
+    }
+
+    /**
+     * Returns the current state.
+     *
+     * @return the state, or null if the backend was never probed
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns whether the backend is due for a probe.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return true if the next probe time has passed
+     */
+    public boolean isDue(long now) {
+        return now - nextProbeAtNanos >= 0;
+    }
+
+    /**
+     * Returns the time of the next probe.
+     *
+     * @return the {@link System#nanoTime()} at which the backend is due
+     */
+    public long getNextProbeAtNanos() {
+        return nextProbeAtNanos;
+    }
+
+    /**
+     * Schedules the next probe.
+     *
+     * @param nextProbeAtNanos the {@link System#nanoTime()} at which to probe
+     *                         again
+     */
+    public void setNextProbeAtNanos(long nextProbeAtNanos) {
+        this.nextProbeAtNanos = nextProbeAtNanos;
+    }
+}
@@ -1,19 +1,26 @@
 package com.baitan.balancer.health;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 import com.baitan.balancer.Service;
+import com.baitan.balancer.routing.BackendPools;
 import com.baitan.balancer.strategy.BalancingStrategy;
 
 /**
  * A thread that periodically performs health checks on services and updates the
- * balancing strategy with the list of healthy servers. The health check
- * interval is set to 60 seconds.
+ * balancing strategies of the backend pools with the list of healthy servers.
  *
  * <p>
  * This thread continuously runs, invoking the
- * {@link HealthChecker#getHealthyServices()} method to retrieve the current
- * healthy services, and then synchronizes the {@link BalancingStrategy} with
- * the updated list. If interrupted, the thread will log the interruption and
- * terminate gracefully.
+ * {@link HealthChecker#runDueProbes()} method to probe the backends that are
+ * due and retrieve the current healthy services. The {@link BalancingStrategy}
+ * of each pool is only synchronized when the set of healthy services actually changed, so
+ * stable backends do not cause any membership churn. Between rounds the
+ * thread sleeps until the next probe is due. If interrupted, the thread will
+ * log the interruption and terminate gracefully.
  * </p>
  *
  * @see HealthChecker
@@ -24,44 +31,54 @@ import com.baitan.balancer.strategy.BalancingStrategy;
 public class HealthCheckThread extends Thread {
 
     private final HealthChecker healthChecker;
-    private final BalancingStrategy balancingStrategy;
-    private static final int HEALTH_CHECK_INTERVAL = 1000 * 60; // 1 minute in milliseconds
+    private final BackendPools backendPools;
+    private static final long MIN_SLEEP_MS = 100;
+    private static final long MAX_SLEEP_MS = 1000 * 60; // 1 minute in milliseconds
 
     /**
      * Constructor for HealthCheckThread.
      * <p>
-     * Initializes the thread with a HealthChecker instance and a BalancingStrategy
-     * instance.
+     * Initializes the thread with a HealthChecker instance and the backend pools
+     * whose strategies it keeps up to date.
      * </p>
      * 
-     * @param healthChecker   the HealthChecker instance to use for health checks
-     * @param balacingStategy the BalancingStrategy instance to synchronize with
-     *                        healthy services
+     * @param healthChecker the HealthChecker instance to use for health checks
+     * @param backendPools  the backend pools to synchronize with healthy services
      */
-    public HealthCheckThread(HealthChecker healthChecker, BalancingStrategy balacingStategy) {
+    public HealthCheckThread(HealthChecker healthChecker, BackendPools backendPools) {
         this.healthChecker = healthChecker;
-        this.balancingStrategy = balacingStategy;
+        this.backendPools = backendPools;
     }
 
     /**
      * Starts the health check thread.
      * <p>
      * This method overrides the {@link Thread#run()} method to perform health
-     * checks at regular intervals. It retrieves the list of healthy services and
-     * updates the list of services in the balancing strategy accordingly.
+     * checks as they fall due. It retrieves the list of healthy services and
+     * updates the list of services in each pool's balancing strategy when it
+     * changed.
      * </p>
      */
     @Override
     public void run() {
+        Set<Service> lastHealthyServices = null;
         while (true) {
             try {
-                Service[] services = healthChecker.getHealthyServices();
-                System.out.println("Healthy services: " + services.length);
-                balancingStrategy.synchronizeWithHealthyServices(services);
-                Thread.sleep(HEALTH_CHECK_INTERVAL); // Sleep for 60 seconds before the next health check
+                Service[] services = healthChecker.runDueProbes();
+                Set<Service> healthyServices = Arrays.stream(services).collect(Collectors.toSet());
+                if (!healthyServices.equals(lastHealthyServices)) {
+                    System.out.println("Healthy services: " + services.length);
+                    backendPools.synchronize(services);
+                    lastHealthyServices = healthyServices;
+                }
+
+                // Sleep until the next probe or container listing is due
+                long sleepMillis = TimeUnit.NANOSECONDS.toMillis(healthChecker.getNextWakeNanos() - System.nanoTime());
+                Thread.sleep(Math.max(MIN_SLEEP_MS, Math.min(MAX_SLEEP_MS, sleepMillis)));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 System.err.println("Health check thread interrupted: " + e.getMessage());
+                return;
             }
         }
     }
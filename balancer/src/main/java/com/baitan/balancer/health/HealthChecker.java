@@ -2,9 +2,21 @@ package com.baitan.balancer.health;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.baitan.balancer.Service;
+import com.baitan.balancer.cluster.ClusterView;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.routing.BackendPool;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+import com.baitan.balancer.trace.HealthSweepEvent;
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.core.DockerClientBuilder;
 
 /**
@@ -25,12 +37,20 @@ import com.github.dockerjava.core.DockerClientBuilder;
  * the load balancer.</li>
  * <li>{@link #getHealthyServices()} - Returns only healthy services from
  * running containers.</li>
+ * <li>{@link #runDueProbes()} - Probes the backends that are due according to
+ * their individual schedules.</li>
  * <li>{@link #getHealthyContainers()} - Returns names of all healthy (running)
  * containers.</li>
  * <li>{@link #close()} - Closes the Docker client and resets the singleton
  * instance.</li>
  * </ul>
  *
+ * <p>
+ * Each backend has a {@link BackendHealth} with rise/fall hysteresis and its
+ * own probe schedule (see {@link ProbeSchedule}), so a single failed probe neither evicts a healthy
+ * backend nor triggers a burst of membership changes.
+ * </p>
+ *
  * Thread-safe implementation using double-checked locking for singleton
  * instantiation.
  * 
@@ -39,10 +59,29 @@ import com.github.dockerjava.core.DockerClientBuilder;
 public class HealthChecker {
 
     private static volatile HealthChecker instance;
+
+    private static final int HEALTH_RISE = BalancerConfig.getInt("HEALTH_RISE", 2);
+    private static final int HEALTH_FALL = BalancerConfig.getInt("HEALTH_FALL", 3);
+    private static final long HEALTH_STABLE_INTERVAL_MS = BalancerConfig.getLong("HEALTH_STABLE_INTERVAL_MS", 60_000);
+    private static final long HEALTH_FAST_INTERVAL_MS = BalancerConfig.getLong("HEALTH_FAST_INTERVAL_MS", 2_000);
+    private static final long HEALTH_UNHEALTHY_INTERVAL_MS = BalancerConfig.getLong("HEALTH_UNHEALTHY_INTERVAL_MS",
+            10_000);
+    private static final long HEALTH_DISCOVERY_INTERVAL_MS = BalancerConfig.getLong("HEALTH_DISCOVERY_INTERVAL_MS",
+            10_000);
+    private static final double HEALTH_PROBE_JITTER = BalancerConfig.getDouble("HEALTH_PROBE_JITTER", 0.2);
+    private static final String POOL_LABEL = BalancerConfig.getString("POOL_LABEL", "lb.pool");
+
+    private final ProbeSchedule probeSchedule = new ProbeSchedule(HEALTH_STABLE_INTERVAL_MS, HEALTH_FAST_INTERVAL_MS,
+            HEALTH_UNHEALTHY_INTERVAL_MS, HEALTH_PROBE_JITTER, () -> ThreadLocalRandom.current().nextDouble());
     private final DockerClient dockerClient;
+    private final Map<Service, BackendHealth> backends;
+    private long nextDiscoveryAtNanos;
+    private volatile ClusterView clusterView;
 
     private HealthChecker() {
         this.dockerClient = DockerClientBuilder.getInstance().build();
+        this.backends = new LinkedHashMap<>();
+        this.nextDiscoveryAtNanos = System.nanoTime();
     }
 
     /**
@@ -67,9 +106,37 @@ public class HealthChecker {
         return localInstance;
     }
 
+    /**
+     * Enables cluster mode. Backends owned by another balancer instance are no
+     * longer probed locally; their health is taken from the peer's gossiped
+     * verdict while it is fresh.
+     *
+     * @param clusterView the shared view of the cluster, or null to disable
+     *                    cluster mode
+     */
+    public void setClusterView(ClusterView clusterView) {
+        this.clusterView = clusterView;
+    }
+
+    /**
+     * Starts tracking services restored from a membership snapshot as healthy.
+     * They are already in rotation, so they are revalidated like any other
+     * healthy backend and only leave it after {@code HEALTH_FALL} consecutive
+     * failed probes, rather than on the first one as a newly seen backend
+     * would.
+     *
+     * @param services the services put back into rotation
+     */
+    public synchronized void restoreHealthy(Service[] services) {
+        for (Service service : services) {
+            backends.computeIfAbsent(service, s -> new BackendHealth(HEALTH_RISE, HEALTH_FALL)).adopt(true);
+        }
+    }
+
     /**
      * Retrieves all running Docker containers, excluding the load balancer
-     * container.
+     * container. Each service is assigned to the backend pool named by the
+     * container's {@code POOL_LABEL} label.
      *
      * @return an array of Service objects representing running containers
      */
@@ -89,12 +156,25 @@ public class HealthChecker {
             int port = container.getPorts()[0].getPrivatePort(); // Using private port because it is the port exposed by
                                                                  // the container within the same network as the load
                                                                  // balancer
-            return new Service(name, port);
+            return new Service(name, port, poolOf(container));
         }).toArray(Service[]::new);
 
         return services;
     }
 
+    /**
+     * Returns the name of the backend pool of a container, taken from its
+     * {@code POOL_LABEL} label.
+     *
+     * @param container the container
+     * @return the pool name, or the default pool if the container has no label
+     */
+    private static String poolOf(Container container) {
+        Map<String, String> labels = container.getLabels();
+        String pool = labels == null ? null : labels.get(POOL_LABEL);
+        return pool == null || pool.isBlank() ? BackendPool.DEFAULT_POOL : pool.trim();
+    }
+
     /**
      * Retrieves all exited Docker containers, excluding the load balancer
      * container.
@@ -115,7 +195,7 @@ public class HealthChecker {
             int port = container.getPorts()[0].getPrivatePort(); // Using private port because it is the port exposed by
                                                                  // the container within the same network as the load
                                                                  // balancer
-            return new Service(name, port);
+            return new Service(name, port, poolOf(container));
         }).toArray(Service[]::new);
 
         return services;
@@ -124,18 +204,147 @@ public class HealthChecker {
     /**
      * Returns an array of healthy services from the running containers.
      * <p>
-     * A service is considered healthy if it responds to a health check request.
+     * Lists the running containers and probes every one of them straight away,
+     * regardless of its probe schedule. Probe results go through the rise/fall
+     * hysteresis of {@link BackendHealth}, so a backend that was already known
+     * only changes state after enough consecutive results; a backend seen for
+     * the first time is admitted on its first successful probe. In cluster
+     * mode, services probed by another balancer instance use its verdict
+     * instead. Each sweep is recorded as a {@link HealthSweepEvent}.
      * </p>
      *
      * @return an array of healthy Service objects
      */
-    public Service[] getHealthyServices() {
-        var healthyContainers = getRunningContainers();
+    public synchronized Service[] getHealthyServices() {
+        HealthSweepEvent event = new HealthSweepEvent();
+        event.begin();
 
-        // Mark unhealthy services as null then filter them out to only keep healthy
-        // ones and return it as an array
-        return Arrays.stream(healthyContainers).map(service -> service.isHealthy() ? service : null)
-                .filter(service -> service != null).toArray(Service[]::new);
+        long now = System.nanoTime();
+        var runningContainers = getRunningContainers();
+        trackDiscoveredServices(runningContainers, now);
+
+        for (Service service : runningContainers) {
+            probe(service, backends.get(service), now);
+        }
+
+        Service[] healthyServices = getServicesInRotation();
+        commitSweepEvent(event, runningContainers.length, healthyServices.length);
+        return healthyServices;
+    }
+
+    /**
+     * Probes the backends whose next probe is due and returns the services
+     * currently in rotation.
+     * <p>
+     * Backends are probed on individual schedules: often while they are
+     * suspect or recovering, less often while unhealthy, and rarely while
+     * stable, each with random jitter so probes do not line up. The container
+     * list is refreshed on its own, shorter interval so scale-out is picked up
+     * quickly.
+     * </p>
+     *
+     * @return an array of the services that should receive traffic
+     */
+    public synchronized Service[] runDueProbes() {
+        HealthSweepEvent event = new HealthSweepEvent();
+        event.begin();
+
+        long now = System.nanoTime();
+        if (now - nextDiscoveryAtNanos >= 0) {
+            trackDiscoveredServices(getRunningContainers(), now);
+        }
+
+        int probed = 0;
+        for (var entry : backends.entrySet()) {
+            if (entry.getValue().isDue(now)) {
+                probe(entry.getKey(), entry.getValue(), now);
+                probed++;
+            }
+        }
+
+        Service[] healthyServices = getServicesInRotation();
+        if (probed > 0) {
+            commitSweepEvent(event, backends.size(), healthyServices.length);
+        }
+        return healthyServices;
+    }
+
+    /**
+     * Returns the time at which {@link #runDueProbes()} next has work to do,
+     * either a due probe or a container listing.
+     *
+     * @return the {@link System#nanoTime()} of the next scheduled action
+     */
+    public synchronized long getNextWakeNanos() {
+        long next = nextDiscoveryAtNanos;
+        for (BackendHealth health : backends.values()) {
+            if (health.getNextProbeAtNanos() - next < 0) {
+                next = health.getNextProbeAtNanos();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Starts tracking newly discovered services and forgets the ones whose
+     * containers are gone, together with their statistics.
+     *
+     * @param runningContainers the services of the running containers
+     * @param now               the current {@link System#nanoTime()}
+     */
+    private void trackDiscoveredServices(Service[] runningContainers, long now) {
+        Set<Service> running = new HashSet<>(Arrays.asList(runningContainers));
+        backends.keySet().retainAll(running);
+        ServiceStatsRegistry.getInstance().retainAll(running);
+        for (Service service : runningContainers) {
+            backends.computeIfAbsent(service, s -> new BackendHealth(HEALTH_RISE, HEALTH_FALL));
+        }
+        nextDiscoveryAtNanos = now + TimeUnit.MILLISECONDS.toNanos(HEALTH_DISCOVERY_INTERVAL_MS);
+    }
+
+    /**
+     * Updates the health of a single service, either by probing it or, in
+     * cluster mode, by adopting the fresh verdict of the peer that owns it, and
+     * schedules its next probe. Local verdicts are recorded in the cluster view
+     * so they can be gossiped.
+     *
+     * @param service the service to check
+     * @param health  the health state of the service
+     * @param now     the current {@link System#nanoTime()}
+     */
+    private void probe(Service service, BackendHealth health, long now) {
+        ClusterView view = clusterView;
+        boolean changed;
+
+        Boolean peerVerdict = view == null || view.isProbeOwner(service) ? null : view.getPeerVerdict(service);
+        if (peerVerdict != null) {
+            changed = health.adopt(peerVerdict);
+            health.setNextProbeAtNanos(now + probeSchedule.peerVerdictDelayNanos());
+        } else {
+            changed = health.record(service.isHealthy());
+            if (view != null) {
+                view.recordLocalVerdict(service, health.isInRotation());
+            }
+            health.setNextProbeAtNanos(now + probeSchedule.nextProbeDelayNanos(health.getState()));
+        }
+
+        if (changed) {
+            System.out.println("Service " + service + " is now " + health.getState());
+        }
+    }
+
+    private Service[] getServicesInRotation() {
+        return backends.entrySet().stream().filter(entry -> entry.getValue().isInRotation())
+                .map(Map.Entry::getKey).toArray(Service[]::new);
+    }
+
+    private static void commitSweepEvent(HealthSweepEvent event, int discoveredServices, int healthyServices) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.discoveredServices = discoveredServices;
+            event.healthyServices = healthyServices;
+            event.commit();
+        }
     }
 
     /**
@@ -0,0 +1,76 @@
+package com.baitan.balancer.health;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The probe intervals of the backends, by {@link BackendHealth.State}.
+ * <p>
+ * Suspect and recovering backends are probed on the fast interval so their
+ * state settles quickly, unhealthy ones less often, and stable ones rarely.
+ * Backends whose verdict comes from a cluster peer are rechecked on the fast
+ * interval, so the local instance takes over soon after the peer goes quiet.
+ * Every interval is spread by a random jitter, so probes of backends admitted
+ * together do not stay lined up.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+class ProbeSchedule {
+
+    private final long stableIntervalMs;
+    private final long fastIntervalMs;
+    private final long unhealthyIntervalMs;
+    private final double jitter;
+    private final DoubleSupplier random;
+
+    /**
+     * Creates a new ProbeSchedule.
+     *
+     * @param stableIntervalMs    the interval of healthy backends
+     * @param fastIntervalMs      the interval of suspect and recovering backends
+     *                            and of peer verdicts
+     * @param unhealthyIntervalMs the interval of unhealthy backends
+     * @param jitter              the largest fraction by which an interval is
+     *                            lengthened or shortened
+     * @param random              a source of uniform values in [0, 1)
+     */
+    ProbeSchedule(long stableIntervalMs, long fastIntervalMs, long unhealthyIntervalMs, double jitter,
+            DoubleSupplier random) {
+        this.stableIntervalMs = stableIntervalMs;
+        this.fastIntervalMs = fastIntervalMs;
+        this.unhealthyIntervalMs = unhealthyIntervalMs;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    /**
+     * Returns the jittered time until the next probe of a backend probed
+     * locally.
+     *
+     * @param state the state of the backend after its last probe
+     * @return the delay in nanoseconds
+     */
+    long nextProbeDelayNanos(BackendHealth.State state) {
+        return jittered(switch (state) {
+        case HEALTHY -> stableIntervalMs;
+        case SUSPECT, RECOVERING -> fastIntervalMs;
+        case UNHEALTHY -> unhealthyIntervalMs;
+        });
+    }
+
+    /**
+     * Returns the jittered time until a backend whose verdict was adopted
+     * from a cluster peer is checked again.
+     *
+     * @return the delay in nanoseconds
+     */
+    long peerVerdictDelayNanos() {
+        return jittered(fastIntervalMs);
+    }
+
+    private long jittered(long intervalMillis) {
+        double factor = 1.0 + jitter * (2 * random.getAsDouble() - 1);
+        return TimeUnit.MILLISECONDS.toNanos((long) (intervalMillis * factor));
+    }
+}
@@ -0,0 +1,180 @@
+package com.baitan.balancer.priority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.baitan.balancer.executor.CoDelController;
+
+/**
+ * A class of requests sharing a queue in the {@link WeightedFairScheduler}.
+ * <p>
+ * Classes are ranked by the order in which they are configured, the first
+ * one being the most important. A class receives a share of the concurrency
+ * slots proportional to its weight while other classes are busy, and can
+ * reserve a number of slots that no other class may use. Each class has its own
+ * {@link CoDelController}, so a class that is starved by more important
+ * traffic starts shedding on its own without affecting the others.
+ * </p>
+ *
+ * <p>
+ * Classes are configured as a semicolon-separated list of
+ * {@code name:weight:reserved:maxQueueMs} entries, for example
+ * {@code interactive:8:2:200;default:4:0:500;batch:1:0:2000}. The maximum
+ * queueing time is optional and defaults to the one of the executor.
+ * </p>
+ *
+ * <p>
+ * The class is thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class PriorityClass {
+
+    private final String name;
+    private final int rank;
+    private final int weight;
+    private final int reservedSlots;
+    private final CoDelController coDelController;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * Creates a new PriorityClass.
+     *
+     * @param name            the name of the class
+     * @param rank            the rank of the class, 0 being the most important
+     * @param weight          the share of the slots of the class, at least 1
+     * @param reservedSlots   the number of slots reserved for the class
+     * @param coDelController the controller shedding requests of the class
+     *                        that queued too long
+     */
+    public PriorityClass(String name, int rank, int weight, int reservedSlots, CoDelController coDelController) {
+        if (weight < 1 || reservedSlots < 0) {
+            throw new IllegalArgumentException("Invalid weight or reservation for priority class " + name);
+        }
+        this.name = name;
+        this.rank = rank;
+        this.weight = weight;
+        this.reservedSlots = reservedSlots;
+        this.coDelController = coDelController;
+    }
+
+    /**
+     * Parses a list of priority classes, ranked in the order given.
+     *
+     * @param spec           the class specification
+     * @param targetMillis   the CoDel target queueing time of every class
+     * @param intervalMillis the CoDel interval of every class
+     * @param maxQueueMillis the maximum queueing time of classes that do not
+     *                       set their own
+     * @return the classes, most important first
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static List<PriorityClass> parseAll(String spec, long targetMillis, long intervalMillis,
+            long maxQueueMillis) {
+        List<PriorityClass> classes = new ArrayList<>();
+        for (String entry : spec.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":");
+            if (parts.length < 3 || parts.length > 4 || parts[0].isBlank()) {
+                throw new IllegalArgumentException("Expected name:weight:reserved[:maxQueueMs] but got: " + entry);
+            }
+            String name = parts[0].trim();
+            if (classes.stream().anyMatch(c -> c.getName().equals(name))) {
+                throw new IllegalArgumentException("Duplicate priority class: " + name);
+            }
+            try {
+                long maxQueue = parts.length == 4 ? Long.parseLong(parts[3].trim()) : maxQueueMillis;
+                CoDelController coDelController = new CoDelController(targetMillis, intervalMillis, maxQueue);
+                classes.add(new PriorityClass(name, classes.size(), Integer.parseInt(parts[1].trim()),
+                        Integer.parseInt(parts[2].trim()), coDelController));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number in priority class: " + entry, e);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the name of the class.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the rank of the class.
+     *
+     * @return the rank, 0 being the most important
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * Returns the weight of the class.
+     *
+     * @return the weight
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the number of concurrency slots reserved for the class.
+     *
+     * @return the reserved slots
+     */
+    public int getReservedSlots() {
+        return reservedSlots;
+    }
+
+    /**
+     * Returns the controller shedding requests of the class that queued too
+     * long.
+     *
+     * @return the CoDelController of the class
+     */
+    public CoDelController getCoDelController() {
+        return coDelController;
+    }
+
+    /**
+     * Returns the number of requests of the class that were granted a slot.
+     *
+     * @return the served count
+     */
+    public long getServedCount() {
+        return served.get();
+    }
+
+    /**
+     * Returns the number of requests of the class that were shed.
+     *
+     * @return the shed count
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    void onServed() {
+        served.incrementAndGet();
+    }
+
+    void onShed() {
+        shed.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityClass{" + "name='" + name + '\'' + ", rank=" + rank + ", weight=" + weight
+                + ", reservedSlots=" + reservedSlots + '}';
+    }
+}
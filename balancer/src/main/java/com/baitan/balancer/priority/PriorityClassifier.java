@@ -0,0 +1,135 @@
+package com.baitan.balancer.priority;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Assigns requests to {@link PriorityClass}es.
+ * <p>
+ * Rules are configured as a semicolon-separated list, checked in order, where
+ * the first match wins:
+ * </p>
+ * <ul>
+ * <li>{@code path:/reports=batch} matches requests whose path starts with
+ * {@code /reports}.</li>
+ * <li>{@code header:X-Priority:low=batch} matches requests whose
+ * {@code X-Priority} header equals {@code low}, ignoring case;
+ * {@code header:X-Batch-Job=batch} matches requests carrying the header at
+ * all.</li>
+ * <li>{@code client:10.1.=batch} matches clients whose IP address starts with
+ * {@code 10.1.}.</li>
+ * </ul>
+ * <p>
+ * Requests matching no rule belong to the default class.
+ * </p>
+ *
+ * <p>
+ * The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class PriorityClassifier {
+
+    private final Rule[] rules;
+    private final PriorityClass defaultClass;
+
+    /**
+     * Creates a new PriorityClassifier.
+     *
+     * @param classes          the configured classes
+     * @param rules            the rule specification, may be empty
+     * @param defaultClassName the name of the class of requests matching no rule
+     * @throws IllegalArgumentException if a rule is malformed or a class is
+     *                                  unknown
+     */
+    public PriorityClassifier(List<PriorityClass> classes, String rules, String defaultClassName) {
+        this.defaultClass = find(classes, defaultClassName);
+
+        List<Rule> parsed = new ArrayList<>();
+        for (String rule : rules.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            int equals = rule.lastIndexOf('=');
+            int colon = rule.indexOf(':');
+            if (equals < 0 || colon < 0 || colon > equals) {
+                throw new IllegalArgumentException("Expected kind:match=class but got: " + rule);
+            }
+            String kind = rule.substring(0, colon).trim();
+            String match = rule.substring(colon + 1, equals).trim();
+            PriorityClass priorityClass = find(classes, rule.substring(equals + 1).trim());
+            parsed.add(switch (kind) {
+            case "path" -> new Rule(Kind.PATH, match, null, priorityClass);
+            case "client" -> new Rule(Kind.CLIENT, match, null, priorityClass);
+            case "header" -> {
+                String[] header = match.split(":", 2);
+                yield new Rule(Kind.HEADER, header[0].trim(), header.length == 2 ? header[1].trim() : null,
+                        priorityClass);
+            }
+            default -> throw new IllegalArgumentException("Unknown priority rule kind: " + kind);
+            });
+        }
+        this.rules = parsed.toArray(Rule[]::new);
+    }
+
+    private static PriorityClass find(List<PriorityClass> classes, String name) {
+        return classes.stream().filter(c -> c.getName().equals(name)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown priority class: " + name));
+    }
+
+    /**
+     * Returns the class of a request.
+     *
+     * @param exchange the request
+     * @return the class of the first matching rule, or the default class
+     */
+    public PriorityClass classify(HttpExchange exchange) {
+        for (Rule rule : rules) {
+            if (rule.matches(exchange)) {
+                return rule.priorityClass;
+            }
+        }
+        return defaultClass;
+    }
+
+    private enum Kind {
+        PATH, HEADER, CLIENT
+    }
+
+    /**
+     * A single classification rule.
+     */
+    private static final class Rule {
+
+        private final Kind kind;
+        private final String match;
+        private final String value;
+        private final PriorityClass priorityClass;
+
+        private Rule(Kind kind, String match, String value, PriorityClass priorityClass) {
+            this.kind = kind;
+            this.match = match;
+            this.value = value;
+            this.priorityClass = priorityClass;
+        }
+
+        private boolean matches(HttpExchange exchange) {
+            return switch (kind) {
+            case PATH -> exchange.getRequestURI().getRawPath().startsWith(match);
+            case HEADER -> {
+                String header = exchange.getRequestHeaders().getFirst(match);
+                yield header != null && (value == null || value.equalsIgnoreCase(header.trim()));
+            }
+            case CLIENT -> {
+                InetSocketAddress remote = exchange.getRemoteAddress();
+                yield remote != null && remote.getAddress() != null
+                        && remote.getAddress().getHostAddress().startsWith(match);
+            }
+            };
+        }
+    }
+}
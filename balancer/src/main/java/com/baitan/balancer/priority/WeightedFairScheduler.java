@@ -0,0 +1,365 @@
+package com.baitan.balancer.priority;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares a fixed number of concurrency slots between the
+ * {@link PriorityClass}es by weight. A request is handed over with
+ * {@link #submit(PriorityClass, Request)} and waits in the queue of its class,
+ * without holding a thread, until a slot is granted. It then runs on the
+ * worker pool of the scheduler, proxies the request and releases the slot.
+ * Only as many workers as there are slots are needed, however many requests
+ * are waiting.
+ * <p>
+ * Slots are granted using stride scheduling: every class has a virtual pass
+ * that advances by the inverse of its weight each time one of its requests
+ * is granted, and the waiting class with the lowest pass goes next. A class
+ * with weight 8 therefore starts eight requests for every one of a class with
+ * weight 1 while both have requests waiting, and an idle class leaves its
+ * share to the others. A class that starts waiting again starts at the
+ * current virtual time, so it cannot bank credit while idle.
+ * </p>
+ *
+ * <p>
+ * The slots not reserved by any class are shared. A class may always use its
+ * reserved slots, and uses shared ones only while any are free, so a flood of
+ * one class cannot take the slots another class relies on.
+ * </p>
+ *
+ * <h2>Shedding</h2>
+ * <p>
+ * Less important traffic is shed first. When all queues together hold the
+ * maximum number of requests, an arriving request displaces the oldest
+ * waiting request of the least important class ranked below it, and is
+ * itself shed only if there is none. When a granted request starts on a
+ * worker, the {@link CoDelController} of the class decides whether it waited
+ * too long. Because weighted-fair granting starves the less important classes
+ * under overload, their queues stand first and their controllers start
+ * shedding while the important classes still meet their target.
+ * </p>
+ *
+ * <p>
+ * The class is thread-safe. Its state is guarded by a single lock that is
+ * held only for queue operations, never while a request runs. Shed requests
+ * are answered on the thread that submitted the request, or the one whose
+ * request displaced it.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class WeightedFairScheduler {
+
+    private final PriorityClass[] classes;
+    private final ArrayDeque<Waiter>[] queues;
+    private final double[] pass;
+    private final int[] running;
+    private final int maxConcurrency;
+    private final int sharedSlots;
+    private final int queueDepth;
+    private final Executor workers;
+
+    private final Lock lock;
+
+    private double virtualTime;
+    private int sharedInUse;
+    private int queued;
+
+    /**
+     * Creates a new WeightedFairScheduler.
+     *
+     * @param classes        the classes, most important first
+     * @param maxConcurrency the number of requests that may be proxied at once
+     * @param queueDepth     the maximum number of requests waiting over all
+     *                       classes
+     * @param workers        the pool running granted requests, with a thread
+     *                       for every slot; it must not run them on the
+     *                       calling thread
+     * @throws IllegalArgumentException if the classes reserve more slots than
+     *                                  there are, or leave none for a class
+     *                                  without a reservation
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public WeightedFairScheduler(List<PriorityClass> classes, int maxConcurrency, int queueDepth,
+            Executor workers) {
+        int reserved = classes.stream().mapToInt(PriorityClass::getReservedSlots).sum();
+        if (classes.isEmpty() || reserved > maxConcurrency) {
+            throw new IllegalArgumentException(
+                    "Priority classes reserve " + reserved + " of " + maxConcurrency + " slots");
+        }
+        if (reserved == maxConcurrency && classes.stream().anyMatch(c -> c.getReservedSlots() == 0)) {
+            throw new IllegalArgumentException("No shared slots left for classes without a reservation");
+        }
+        this.classes = classes.toArray(PriorityClass[]::new);
+        this.queues = new ArrayDeque[this.classes.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        this.pass = new double[this.classes.length];
+        this.running = new int[this.classes.length];
+        this.maxConcurrency = maxConcurrency;
+        this.sharedSlots = maxConcurrency - reserved;
+        this.queueDepth = queueDepth;
+        this.workers = workers;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Queues a request of a class until it is granted a slot.
+     * <p>
+     * Once granted, the request runs on the worker pool, where it is either
+     * given its {@link Permit} or shed because it waited too long. It is shed
+     * right away on the calling thread if the queues are full and it cannot
+     * displace a less important request. If it is later displaced by a more
+     * important request, it is shed on the thread submitting that one.
+     * </p>
+     *
+     * @param priorityClass the class of the request
+     * @param request       the request to run once granted
+     */
+    public void submit(PriorityClass priorityClass, Request request) {
+        int rank = priorityClass.getRank();
+        Waiter displaced = null;
+        boolean admitted;
+
+        lock.lock();
+        try {
+            if (queued >= queueDepth) {
+                displaced = displaceBelow(rank);
+            }
+            admitted = queued < queueDepth;
+            if (admitted) {
+                if (queues[rank].isEmpty() && running[rank] == 0) {
+                    pass[rank] = Math.max(pass[rank], virtualTime);
+                }
+                queues[rank].addLast(new Waiter(rank, request, System.nanoTime()));
+                queued++;
+                dispatch();
+            } else {
+                priorityClass.onShed();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (displaced != null) {
+            displaced.request.shed();
+        }
+        if (!admitted) {
+            request.shed();
+        }
+    }
+
+    /**
+     * Returns the number of requests that may be proxied at once.
+     *
+     * @return the number of slots
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the number of requests currently waiting over all classes.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the classes sharing the slots.
+     *
+     * @return the classes, most important first
+     */
+    public List<PriorityClass> getClasses() {
+        return List.of(classes);
+    }
+
+    /**
+     * Returns the number of requests of a class currently waiting for a slot.
+     *
+     * @param priorityClass the class
+     * @return the queue depth of the class
+     */
+    public int getQueueDepth(PriorityClass priorityClass) {
+        lock.lock();
+        try {
+            return queues[priorityClass.getRank()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sheds the oldest waiting request of the least important class ranked
+     * below the given one. Must be called with the lock held.
+     *
+     * @return the displaced request, to be shed once the lock is released, or
+     *         null if there was none
+     */
+    private Waiter displaceBelow(int rank) {
+        for (int r = classes.length - 1; r > rank; r--) {
+            Waiter displaced = queues[r].pollFirst();
+            if (displaced != null) {
+                queued--;
+                classes[r].onShed();
+                return displaced;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Grants slots to waiting requests for as long as there are free slots
+     * they may use, and hands them to the workers. Must be called with the
+     * lock held.
+     */
+    private void dispatch() {
+        int rank;
+        while ((rank = nextRank()) >= 0) {
+            Waiter waiter = queues[rank].pollFirst();
+            queued--;
+            waiter.usesShared = running[rank] >= classes[rank].getReservedSlots();
+            if (waiter.usesShared) {
+                sharedInUse++;
+            }
+            running[rank]++;
+            virtualTime = pass[rank];
+            pass[rank] += 1.0 / classes[rank].getWeight();
+            workers.execute(waiter);
+        }
+    }
+
+    /**
+     * Returns the rank of the class whose request should be granted next, or
+     * -1 if no waiting request may be granted a slot. Must be called with the
+     * lock held.
+     */
+    private int nextRank() {
+        int best = -1;
+        for (int rank = 0; rank < classes.length; rank++) {
+            if (queues[rank].isEmpty()) {
+                continue;
+            }
+            boolean hasSlot = running[rank] < classes[rank].getReservedSlots() || sharedInUse < sharedSlots;
+            if (hasSlot && (best < 0 || pass[rank] < pass[best])) {
+                best = rank;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A request run once the scheduler grants it a slot.
+     */
+    public interface Request {
+
+        /**
+         * Runs the request on a worker. The permit must be released once the
+         * backend is done with the request.
+         *
+         * @param permit the slot granted to the request
+         */
+        void granted(Permit permit);
+
+        /**
+         * Answers the request as shed, without proxying it.
+         */
+        void shed();
+    }
+
+    /**
+     * A request waiting in the queue of its class, run on a worker once it is
+     * granted a slot.
+     */
+    private final class Waiter implements Runnable {
+
+        private final int rank;
+        private final Request request;
+        private final long enqueuedAt;
+        private boolean usesShared;
+
+        private Waiter(int rank, Request request, long enqueuedAt) {
+            this.rank = rank;
+            this.request = request;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            PriorityClass priorityClass = classes[rank];
+            Permit permit = new Permit(rank, usesShared, now - enqueuedAt);
+            if (priorityClass.getCoDelController().shouldShed(permit.getQueueWaitNanos(), now)) {
+                permit.release();
+                priorityClass.onShed();
+                request.shed();
+                return;
+            }
+            priorityClass.onServed();
+            request.granted(permit);
+        }
+    }
+
+    /**
+     * A slot granted to a request. Must be released exactly once the request
+     * is done; further calls to {@link #release()} have no effect.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final int rank;
+        private final boolean usesShared;
+        private final long queueWaitNanos;
+        private boolean released;
+
+        private Permit(int rank, boolean usesShared, long queueWaitNanos) {
+            this.rank = rank;
+            this.usesShared = usesShared;
+            this.queueWaitNanos = queueWaitNanos;
+        }
+
+        /**
+         * Returns how long the request waited for the slot.
+         *
+         * @return the queue wait in nanoseconds
+         */
+        public long getQueueWaitNanos() {
+            return queueWaitNanos;
+        }
+
+        /**
+         * Releases the slot and grants it to the next waiting request.
+         */
+        public void release() {
+            lock.lock();
+            try {
+                if (released) {
+                    return;
+                }
+                released = true;
+                running[rank]--;
+                if (usesShared) {
+                    sharedInUse--;
+                }
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.baitan.balancer.routing;
+
+import com.baitan.balancer.strategy.BalancingStrategy;
+
+/**
+ * A named group of backend services sharing one {@link BalancingStrategy}.
+ * <p>
+ * Backends join a pool through the Docker label configured by
+ * {@code POOL_LABEL}; backends without the label belong to the
+ * {@link #DEFAULT_POOL}. Requests reach a pool through the {@link RouteTable}.
+ * </p>
+ *
+ * <p>
+ * The strategy may be swapped at runtime and is read without locking, so the
+ * class is thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class BackendPool {
+
+    public static final String DEFAULT_POOL = "default";
+
+    private final String name;
+    private volatile BalancingStrategy balancingStrategy;
+
+    /**
+     * Creates a new BackendPool.
+     *
+     * @param name              the name of the pool
+     * @param balancingStrategy the strategy choosing among the pool's services
+     */
+    public BackendPool(String name, BalancingStrategy balancingStrategy) {
+        this.name = name;
+        this.balancingStrategy = balancingStrategy;
+    }
+
+    /**
+     * Returns the name of the pool.
+     *
+     * @return the pool name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the strategy choosing among the pool's services.
+     *
+     * @return the BalancingStrategy of the pool
+     */
+    public BalancingStrategy getBalancingStrategy() {
+        return balancingStrategy;
+    }
+
+    /**
+     * Replaces the strategy of the pool. The caller is responsible for loading
+     * the new strategy with the pool's services.
+     *
+     * @param balancingStrategy the new strategy
+     */
+    public void setBalancingStrategy(BalancingStrategy balancingStrategy) {
+        this.balancingStrategy = balancingStrategy;
+    }
+
+    @Override
+    public String toString() {
+        return "BackendPool{" + "name='" + name + '\'' + ", services=" + balancingStrategy.getServiceCount() + '}';
+    }
+}
@@ -0,0 +1,143 @@
+package com.baitan.balancer.routing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.strategy.BalancingStrategy;
+
+/**
+ * The set of {@link BackendPool}s of the load balancer.
+ * <p>
+ * Always contains the {@link BackendPool#DEFAULT_POOL}; further pools are
+ * created as routes refer to them, each with its own
+ * {@link BalancingStrategy} instance from the configured factory. Healthy services reported by the
+ * health checks are handed to the pool named by {@link Service#getPool()}.
+ * Services labelled with a pool that no route refers to cannot receive any
+ * traffic and are reported once.
+ * </p>
+ *
+ * <p>
+ * The class is thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class BackendPools {
+
+    private final Map<String, BackendPool> pools;
+    private final BackendPool defaultPool;
+    private final Set<String> reportedUnknownPools;
+    private final Supplier<BalancingStrategy> strategyFactory;
+
+    /**
+     * Creates a new BackendPools containing only the default pool.
+     *
+     * @param defaultStrategy the strategy of the default pool
+     * @param strategyFactory creates the strategy of every other pool
+     */
+    public BackendPools(BalancingStrategy defaultStrategy, Supplier<BalancingStrategy> strategyFactory) {
+        this.strategyFactory = strategyFactory;
+        this.pools = new ConcurrentHashMap<>();
+        this.defaultPool = new BackendPool(BackendPool.DEFAULT_POOL, defaultStrategy);
+        this.reportedUnknownPools = ConcurrentHashMap.newKeySet();
+        pools.put(defaultPool.getName(), defaultPool);
+    }
+
+    /**
+     * Returns the pool with the given name, creating it if needed.
+     *
+     * @param name the name of the pool
+     * @return the pool
+     */
+    public BackendPool getOrCreate(String name) {
+        return pools.computeIfAbsent(name, n -> new BackendPool(n, strategyFactory.get()));
+    }
+
+    /**
+     * Returns the pool with the given name.
+     *
+     * @param name the name of the pool
+     * @return the pool, or null if there is no such pool
+     */
+    public BackendPool get(String name) {
+        return pools.get(name);
+    }
+
+    /**
+     * Returns the pool of backends without a pool label.
+     *
+     * @return the default pool
+     */
+    public BackendPool getDefaultPool() {
+        return defaultPool;
+    }
+
+    /**
+     * Returns all pools.
+     *
+     * @return a view of the pools
+     */
+    public Collection<BackendPool> getAll() {
+        return pools.values();
+    }
+
+    /**
+     * Replaces the services of every pool with the given services, without
+     * slow start. Used when the load balancer starts or a strategy is replaced.
+     *
+     * @param healthyServices the healthy services of all pools
+     */
+    public void load(Service[] healthyServices) {
+        for (BackendPool pool : pools.values()) {
+            load(pool, healthyServices);
+        }
+        reportUnknownPools(healthyServices);
+    }
+
+    /**
+     * Replaces the services of one pool with those of the given services that
+     * belong to it.
+     *
+     * @param pool            the pool to load
+     * @param healthyServices the healthy services of all pools
+     */
+    public void load(BackendPool pool, Service[] healthyServices) {
+        BalancingStrategy strategy = pool.getBalancingStrategy();
+        strategy.clearServices();
+        for (Service service : servicesOf(pool, healthyServices)) {
+            strategy.addServices(service);
+        }
+    }
+
+    /**
+     * Synchronizes the strategy of every pool with those of the given services
+     * that belong to it.
+     *
+     * @param healthyServices the healthy services of all pools
+     * @see BalancingStrategy#synchronizeWithHealthyServices(Service[])
+     */
+    public void synchronize(Service[] healthyServices) {
+        for (BackendPool pool : pools.values()) {
+            pool.getBalancingStrategy().synchronizeWithHealthyServices(servicesOf(pool, healthyServices));
+        }
+        reportUnknownPools(healthyServices);
+    }
+
+    private static Service[] servicesOf(BackendPool pool, Service[] services) {
+        return Arrays.stream(services).filter(service -> pool.getName().equals(service.getPool()))
+                .toArray(Service[]::new);
+    }
+
+    private void reportUnknownPools(Service[] services) {
+        for (Service service : services) {
+            if (!pools.containsKey(service.getPool()) && reportedUnknownPools.add(service.getPool())) {
+                System.err.println("No route leads to pool '" + service.getPool() + "' of service " + service);
+            }
+        }
+    }
+}
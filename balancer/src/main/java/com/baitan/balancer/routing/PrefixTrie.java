@@ -0,0 +1,117 @@
+package com.baitan.balancer.routing;
+
+import java.util.Arrays;
+
+/**
+ * A character trie mapping strings to int values, used to match request hosts
+ * and path prefixes.
+ * <p>
+ * The trie is built once when routes are compiled and is read-only afterwards.
+ * Each node keeps its outgoing edges in a sorted {@code char[]} searched with
+ * a binary search, so lookups walk the input one character at a time without
+ * allocating and without backtracking.
+ * </p>
+ *
+ * <p>
+ * A trie is not thread-safe while it is being built. Once built it may be
+ * shared freely, provided it is published safely, for example through a final
+ * field.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+final class PrefixTrie {
+
+    static final int NO_MATCH = -1;
+
+    private final Node root = new Node();
+
+    /**
+     * Adds a key. Must not be called once the trie is shared.
+     *
+     * @param key   the key, expected to be lower case for case-insensitive use
+     * @param value the value of the key, at least 0
+     */
+    void put(String key, int value) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childOrCreate(key.charAt(i));
+        }
+        node.value = value;
+    }
+
+    /**
+     * Looks up an exact, case-insensitive match of a region of a string.
+     *
+     * @param s    the string to search
+     * @param from the start of the region, inclusive
+     * @param to   the end of the region, exclusive
+     * @return the value of the key, or {@link #NO_MATCH}
+     */
+    int getIgnoreCase(String s, int from, int to) {
+        Node node = root;
+        for (int i = from; i < to && node != null; i++) {
+            node = node.child(Character.toLowerCase(s.charAt(i)));
+        }
+        return node == null ? NO_MATCH : node.value;
+    }
+
+    /**
+     * Finds the longest key that is a path prefix of a string. A key only
+     * matches on a segment boundary: {@code /api} matches {@code /api} and
+     * {@code /api/users} but not {@code /apis}. A key ending in {@code /}
+     * matches anything below it.
+     *
+     * @param path the raw request path
+     * @return the value of the longest matching key, or {@link #NO_MATCH}
+     */
+    int longestPathPrefix(String path) {
+        int match = NO_MATCH;
+        Node node = root;
+        int length = path.length();
+        for (int i = 0; node != null; i++) {
+            if (node.value != NO_MATCH && (i == length || path.charAt(i) == '/' || path.charAt(i - 1) == '/')) {
+                match = node.value;
+            }
+            if (i == length) {
+                break;
+            }
+            node = node.child(path.charAt(i));
+        }
+        return match;
+    }
+
+    /**
+     * A node of the trie with its outgoing edges sorted by character.
+     */
+    private static final class Node {
+
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private int value = NO_MATCH;
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node childOrCreate(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newLabels[insertAt] = c;
+            newChildren[insertAt] = new Node();
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertAt];
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.baitan.balancer.routing;
+
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+
+/**
+ * What a {@link RouteTable} entry resolves a request to: the
+ * {@link BackendPool} serving it and the {@link UpstreamTimeouts} applying to
+ * it.
+ * <p>
+ * The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class Route {
+
+    private final BackendPool pool;
+    private final UpstreamTimeouts timeouts;
+
+    /**
+     * Creates a new Route.
+     *
+     * @param pool     the pool serving requests on the route
+     * @param timeouts the upstream timeouts of requests on the route
+     */
+    public Route(BackendPool pool, UpstreamTimeouts timeouts) {
+        this.pool = pool;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Returns the pool serving requests on the route.
+     *
+     * @return the backend pool
+     */
+    public BackendPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the upstream timeouts of requests on the route.
+     *
+     * @return the timeouts
+     */
+    public UpstreamTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "Route{" + "pool='" + pool.getName() + '\'' + ", timeouts=" + timeouts + '}';
+    }
+}
@@ -0,0 +1,169 @@
+package com.baitan.balancer.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+
+/**
+ * Dispatches requests to {@link BackendPool}s by host and path prefix, and
+ * decides which {@link UpstreamTimeouts} apply to them.
+ * <p>
+ * Routes are configured as a semicolon-separated list of
+ * {@code [host]/prefix=pool[@connect/firstByte/total]} entries, for example
+ * {@code api.example.com/v1=api@500/2000/5000;/static=assets;/=web}. An entry
+ * without a host applies to every host, and an entry without timeouts uses
+ * the {@linkplain UpstreamTimeouts#getDefaults() default timeouts}. A request
+ * uses the route with the longest matching path prefix among the routes of
+ * its host, then among the routes of any host, and goes to the default pool
+ * with the default timeouts if no route matches. Prefixes match on path
+ * segment boundaries and hosts match case-insensitively, ignoring the port.
+ * </p>
+ *
+ * <p>
+ * The routes are compiled into {@link PrefixTrie}s when the table is created,
+ * so a lookup walks the host and the path once, resolves the pool and the
+ * timeouts together and allocates nothing. The connect timeout of each route
+ * is recorded for its pool, so that newly admitted services are pre-warmed
+ * through the upstream clients their requests will use (see
+ * {@link Service#prewarm(int)}). The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class RouteTable {
+
+    private final Route[] routes;
+    private final Route defaultRoute;
+    private final PrefixTrie hosts;
+    private final PrefixTrie[] hostPaths;
+    private final PrefixTrie anyHostPaths;
+
+    /**
+     * Compiles a new RouteTable.
+     *
+     * @param routes          the route specification, may be empty
+     * @param backendPools    the pools, to which the pools named by the routes
+     *                        are added
+     * @param defaultTimeouts the timeouts of routes without their own and of
+     *                        requests matching no route
+     * @throws IllegalArgumentException if the route specification is malformed
+     */
+    public RouteTable(String routes, BackendPools backendPools, UpstreamTimeouts defaultTimeouts) {
+        List<Route> routeList = new ArrayList<>();
+        Map<String, PrefixTrie> pathsByHost = new HashMap<>();
+        this.anyHostPaths = new PrefixTrie();
+
+        for (String route : routes.split(";")) {
+            if (route.isBlank()) {
+                continue;
+            }
+            String[] parts = route.trim().split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                throw new IllegalArgumentException("Invalid route: " + route);
+            }
+            String target = parts[0].trim();
+            String[] destination = parts[1].split("@", 2);
+            String poolName = destination[0].trim();
+            if (poolName.isEmpty()) {
+                throw new IllegalArgumentException("Route has no pool: " + route);
+            }
+            UpstreamTimeouts timeouts = destination.length == 2 ? UpstreamTimeouts.parse(destination[1])
+                    : defaultTimeouts;
+
+            int slash = target.indexOf('/');
+            if (slash < 0) {
+                throw new IllegalArgumentException("Route has no path prefix: " + route);
+            }
+            String host = target.substring(0, slash).toLowerCase(Locale.ROOT);
+            String prefix = target.substring(slash);
+
+            routeList.add(new Route(backendPools.getOrCreate(poolName), timeouts));
+            PrefixTrie paths = host.isEmpty() ? anyHostPaths
+                    : pathsByHost.computeIfAbsent(host, h -> new PrefixTrie());
+            paths.put(prefix, routeList.size() - 1);
+        }
+
+        this.routes = routeList.toArray(Route[]::new);
+        this.defaultRoute = new Route(backendPools.getDefaultPool(), defaultTimeouts);
+        for (Route route : routeList) {
+            Service.addPoolConnectTimeout(route.getPool().getName(), route.getTimeouts().getConnectMillis());
+        }
+        Service.addPoolConnectTimeout(defaultRoute.getPool().getName(), defaultTimeouts.getConnectMillis());
+        this.hosts = new PrefixTrie();
+        this.hostPaths = new PrefixTrie[pathsByHost.size()];
+        int hostIndex = 0;
+        for (var entry : pathsByHost.entrySet()) {
+            hosts.put(entry.getKey(), hostIndex);
+            hostPaths[hostIndex++] = entry.getValue();
+        }
+    }
+
+    /**
+     * Compiles the routes of the {@code ROUTES} environment variable with the
+     * {@linkplain UpstreamTimeouts#getDefaults() default timeouts}. A malformed
+     * configuration is reported and replaced by an empty one, which sends
+     * every request to the default pool.
+     *
+     * @param backendPools the pools, to which the pools named by the routes are
+     *                     added
+     * @return the compiled RouteTable
+     */
+    public static RouteTable fromEnvironment(BackendPools backendPools) {
+        UpstreamTimeouts defaultTimeouts = UpstreamTimeouts.getDefaults();
+        if (!BalancerConfig.getString("ROUTE_TIMEOUTS", "").isBlank()) {
+            System.err.println("ROUTE_TIMEOUTS is no longer supported and is ignored, set timeouts on ROUTES"
+                    + " entries as prefix=pool@connect/firstByte/total instead");
+        }
+        try {
+            return new RouteTable(BalancerConfig.getString("ROUTES", ""), backendPools, defaultTimeouts);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid route configuration, routing everything to the default pool: "
+                    + e.getMessage());
+            return new RouteTable("", backendPools, defaultTimeouts);
+        }
+    }
+
+    /**
+     * Returns the route of a request.
+     *
+     * @param host the Host header of the request, may be null
+     * @param path the raw request path
+     * @return the best matching route, or the route to the default pool with
+     *         the default timeouts
+     */
+    public Route lookup(String host, String path) {
+        if (host != null && hostPaths.length > 0) {
+            int hostIndex = hosts.getIgnoreCase(host, 0, hostEnd(host));
+            if (hostIndex != PrefixTrie.NO_MATCH) {
+                int routeIndex = hostPaths[hostIndex].longestPathPrefix(path);
+                if (routeIndex != PrefixTrie.NO_MATCH) {
+                    return routes[routeIndex];
+                }
+            }
+        }
+        int routeIndex = anyHostPaths.longestPathPrefix(path);
+        return routeIndex == PrefixTrie.NO_MATCH ? defaultRoute : routes[routeIndex];
+    }
+
+    /**
+     * Returns the end of the host name in a Host header, excluding the port.
+     * IPv6 literals keep their brackets.
+     */
+    private static int hostEnd(String host) {
+        int from = 0;
+        if (host.startsWith("[")) {
+            from = host.indexOf(']');
+            if (from < 0) {
+                return host.length();
+            }
+        }
+        int colon = host.indexOf(':', from);
+        return colon < 0 ? host.length() : colon;
+    }
+}
@@ -0,0 +1,114 @@
+package com.baitan.balancer.simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.baitan.balancer.accesslog.AccessLogReader;
+
+/**
+ * The times at which requests arrive at the simulated load balancer.
+ * <p>
+ * Arrivals are either synthetic, following a Poisson process, or replayed
+ * from the timestamps recorded in binary access log segments. A process is
+ * consumed by one simulation run; {@link Scenario} creates a fresh one for
+ * every strategy.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public interface ArrivalProcess {
+
+    /**
+     * Returns the time of the next arrival.
+     *
+     * @param random the source of randomness of the simulation
+     * @return the arrival time in milliseconds since the start of the
+     *         simulation, or {@link Double#NaN} once all requests have arrived
+     */
+    double nextArrivalMillis(SplittableRandom random);
+
+    /**
+     * Returns a Poisson process, with exponentially distributed gaps between
+     * arrivals.
+     *
+     * @param ratePerSecond the average number of arrivals per second
+     * @param requests      the number of arrivals
+     * @return the arrival process
+     */
+    static ArrivalProcess poisson(double ratePerSecond, long requests) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("Arrival rate must be positive: " + ratePerSecond);
+        }
+        double meanGapMillis = 1000.0 / ratePerSecond;
+        return new ArrivalProcess() {
+            private long remaining = requests;
+            private double now;
+
+            @Override
+            public double nextArrivalMillis(SplittableRandom random) {
+                if (remaining-- <= 0) {
+                    return Double.NaN;
+                }
+                now += -meanGapMillis * Math.log(1.0 - random.nextDouble());
+                return now;
+            }
+        };
+    }
+
+    /**
+     * Returns a process replaying recorded arrival times.
+     *
+     * @param offsetsMillis the arrival times in milliseconds since the first
+     *                      one, in ascending order
+     * @return the arrival process
+     */
+    static ArrivalProcess replay(double[] offsetsMillis) {
+        return new ArrivalProcess() {
+            private int next;
+
+            @Override
+            public double nextArrivalMillis(SplittableRandom random) {
+                return next < offsetsMillis.length ? offsetsMillis[next++] : Double.NaN;
+            }
+        };
+    }
+
+    /**
+     * Reads the arrival times recorded in access log segments.
+     * <p>
+     * Arrival times are estimated from the completion timestamps and phase
+     * timings of the records (see
+     * {@link AccessLogReader#readArrivalTimes(Path)}) and only have
+     * millisecond resolution, so requests that arrived within the same
+     * millisecond are replayed as a burst.
+     * </p>
+     *
+     * @param speedup the factor by which to compress the recorded time, e.g.
+     *                2 to replay the traffic at twice the recorded rate
+     * @param paths   access log segments or directories of segments
+     * @return the arrival times in milliseconds since the first one
+     * @throws IOException if a segment cannot be read
+     */
+    static double[] readAccessLog(double speedup, String... paths) throws IOException {
+        if (!(speedup > 0)) {
+            throw new IllegalArgumentException("Speedup must be positive: " + speedup);
+        }
+        long[] timestamps = new long[0];
+        for (Path segment : AccessLogReader.listSegments(paths)) {
+            long[] segmentTimestamps = AccessLogReader.readArrivalTimes(segment);
+            int length = timestamps.length;
+            timestamps = Arrays.copyOf(timestamps, length + segmentTimestamps.length);
+            System.arraycopy(segmentTimestamps, 0, timestamps, length, segmentTimestamps.length);
+        }
+        // Records are written in completion order, not arrival order
+        Arrays.sort(timestamps);
+
+        double[] offsets = new double[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            offsets[i] = (timestamps[i] - timestamps[0]) / speedup;
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,141 @@
+package com.baitan.balancer.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of simulation events ordered by time.
+ * <p>
+ * Events are stored in parallel primitive arrays rather than as objects, so
+ * scheduling and dispatching millions of events does not allocate. The kind,
+ * backend and epoch of an event share one {@code long}, so that sifting an
+ * event moves three values instead of five. The fields of the event removed
+ * by {@link #poll()} are exposed through the accessors until the next call.
+ * </p>
+ *
+ * <p>
+ * Instances are confined to the simulation thread and are not thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+final class EventQueue {
+
+    static final int ARRIVAL = 0;
+    static final int COMPLETION = 1;
+    static final int HEALTH_SYNC = 2;
+    static final int FAILURE = 3;
+    static final int RECOVERY = 4;
+
+    private double[] times = new double[64];
+    private long[] metas = new long[64];
+    private double[] arrivals = new double[64];
+    private int size;
+
+    private double polledTime;
+    private int polledKind;
+    private int polledBackend;
+    private int polledEpoch;
+    private double polledArrival;
+
+    /**
+     * Schedules an event.
+     *
+     * @param time    the simulated time of the event in milliseconds
+     * @param kind    the kind of event
+     * @param backend the index of the backend concerned, or -1
+     * @param epoch   the failure epoch of the backend when the event was
+     *                scheduled
+     * @param arrival the arrival time of the request concerned, if any
+     */
+    void add(double time, int kind, int backend, int epoch, double arrival) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            metas = Arrays.copyOf(metas, capacity);
+            arrivals = Arrays.copyOf(arrivals, capacity);
+        }
+        long meta = ((long) kind << 56) | ((long) (backend & 0xFFFFFF) << 32) | (epoch & 0xFFFFFFFFL);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= time) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, meta, arrival);
+    }
+
+    /**
+     * Removes the earliest event and makes its fields available through the
+     * accessors.
+     *
+     * @throws IllegalStateException if the queue is empty
+     */
+    void poll() {
+        if (size == 0) {
+            throw new IllegalStateException("No events");
+        }
+        polledTime = times[0];
+        long meta = metas[0];
+        polledKind = (int) (meta >>> 56);
+        polledBackend = ((int) (meta >>> 32) << 8) >> 8;
+        polledEpoch = (int) meta;
+        polledArrival = arrivals[0];
+
+        int last = --size;
+        if (last == 0) {
+            return;
+        }
+        double time = times[last];
+        int i = 0;
+        int half = last >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < last && times[child + 1] < times[child]) {
+                child++;
+            }
+            if (time <= times[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, time, metas[last], arrivals[last]);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double time() {
+        return polledTime;
+    }
+
+    int kind() {
+        return polledKind;
+    }
+
+    int backend() {
+        return polledBackend;
+    }
+
+    int epoch() {
+        return polledEpoch;
+    }
+
+    double arrival() {
+        return polledArrival;
+    }
+
+    private void move(int from, int to) {
+        set(to, times[from], metas[from], arrivals[from]);
+    }
+
+    private void set(int i, double time, long meta, double arrival) {
+        times[i] = time;
+        metas[i] = meta;
+        arrivals[i] = arrival;
+    }
+}
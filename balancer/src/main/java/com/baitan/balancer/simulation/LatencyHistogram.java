@@ -0,0 +1,94 @@
+package com.baitan.balancer.simulation;
+
+/**
+ * Histogram of request latencies with a bounded relative error.
+ * <p>
+ * Values are recorded in microseconds into log-linear buckets: every power of
+ * two is split into 64 buckets, so a percentile read back is within about
+ * 1.6% of the recorded value whatever its magnitude. Recording is a few
+ * arithmetic operations and an array increment.
+ * </p>
+ *
+ * <p>
+ * Instances are confined to the simulation thread and are not thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[HALF * (64 - SUB_BUCKET_BITS + 2)];
+    private long count;
+    private double sum;
+    private long max;
+
+    /**
+     * Records a latency.
+     *
+     * @param micros the latency in microseconds
+     */
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Returns a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in microseconds at or below which that share of the
+     *         values lies, or 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long subBucket = index - (long) shift * HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,236 @@
+package com.baitan.balancer.simulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The workload and backends a {@link Simulator} drives each strategy with.
+ * <p>
+ * A scenario is built from {@code --name=value} options:
+ * </p>
+ * <ul>
+ * <li>{@code backends}: groups of identical backends as
+ * {@code count:capacity:distribution} entries separated by {@code ;}, e.g.
+ * {@code 6:4:exp:10;2:4:lognormal:30:0.8} for six fast and two slow backends
+ * with four workers each. See {@link ServiceTimeDistribution} for the
+ * distributions. Default {@code 8:4:exp:10}.</li>
+ * <li>{@code queue-limit}: requests a backend queues when all its workers are
+ * busy; further requests are rejected. Default 128.</li>
+ * <li>{@code rate} and {@code requests}: a Poisson arrival process with the
+ * given rate per second and number of requests. The rate defaults to 70% of
+ * the total capacity of the backends, the count to 1,000,000.</li>
+ * <li>{@code trace} and {@code speedup}: replay the arrivals recorded in
+ * access log segments or directories, separated by {@code ,}, compressed in
+ * time by the speedup factor. Overrides {@code rate}.</li>
+ * <li>{@code health-interval-ms}: time between two synchronizations of the
+ * strategy with the backends that are up. Default 1000.</li>
+ * <li>{@code failures}: scheduled backend failures as
+ * {@code backend@startMs+durationMs} entries separated by {@code ;}, where
+ * {@code backend} is the index of the backend from 0.</li>
+ * <li>{@code mtbf-ms} and {@code mttr-ms}: random failures of every backend,
+ * with exponentially distributed times between failures and to repair. 0
+ * disables random failures, the default.</li>
+ * <li>{@code load-hints}: whether backends report their load on each
+ * response. Default true.</li>
+ * <li>{@code seed}: seed of the service times, arrivals and failures. Default
+ * 1.</li>
+ * </ul>
+ *
+ * @author Tanish Baidya
+ */
+public class Scenario {
+
+    private static final String DEFAULT_BACKENDS = "8:4:exp:10";
+    private static final double DEFAULT_UTILIZATION = 0.7;
+
+    private final int[] capacities;
+    private final ServiceTimeDistribution[] serviceTimes;
+    private final int queueLimit;
+    private final double ratePerSecond;
+    private final long requests;
+    private final double[] trace;
+    private final double healthIntervalMillis;
+    private final int[] failureBackends;
+    private final double[] failureStartMillis;
+    private final double[] failureDurationMillis;
+    private final double mtbfMillis;
+    private final double mttrMillis;
+    private final boolean loadHints;
+    private final long seed;
+
+    private Scenario(Map<String, String> options) throws IOException {
+        List<Integer> capacityList = new ArrayList<>();
+        List<ServiceTimeDistribution> serviceTimeList = new ArrayList<>();
+        for (String group : take(options, "backends", DEFAULT_BACKENDS).split(";")) {
+            String[] parts = group.trim().split(":", 3);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Malformed backend group: " + group);
+            }
+            int count = parsePositiveInt(parts[0], "backend count");
+            int capacity = parsePositiveInt(parts[1], "backend capacity");
+            ServiceTimeDistribution serviceTime = ServiceTimeDistribution.parse(parts[2]);
+            for (int i = 0; i < count; i++) {
+                capacityList.add(capacity);
+                serviceTimeList.add(serviceTime);
+            }
+        }
+        this.capacities = capacityList.stream().mapToInt(Integer::intValue).toArray();
+        this.serviceTimes = serviceTimeList.toArray(ServiceTimeDistribution[]::new);
+        this.queueLimit = Math.max(0, Integer.parseInt(take(options, "queue-limit", "128")));
+
+        double capacityPerSecond = 0;
+        for (int i = 0; i < capacities.length; i++) {
+            capacityPerSecond += capacities[i] * 1000.0 / serviceTimes[i].meanMillis();
+        }
+        String rate = take(options, "rate", null);
+        this.ratePerSecond = rate == null ? DEFAULT_UTILIZATION * capacityPerSecond : Double.parseDouble(rate);
+        this.requests = Long.parseLong(take(options, "requests", "1000000"));
+
+        String tracePaths = take(options, "trace", null);
+        double speedup = Double.parseDouble(take(options, "speedup", "1"));
+        this.trace = tracePaths == null ? null : ArrivalProcess.readAccessLog(speedup, tracePaths.split(","));
+
+        this.healthIntervalMillis = Double.parseDouble(take(options, "health-interval-ms", "1000"));
+        if (!(healthIntervalMillis > 0)) {
+            throw new IllegalArgumentException("health-interval-ms must be positive: " + healthIntervalMillis);
+        }
+
+        String failures = take(options, "failures", "");
+        String[] entries = failures.isBlank() ? new String[0] : failures.split(";");
+        this.failureBackends = new int[entries.length];
+        this.failureStartMillis = new double[entries.length];
+        this.failureDurationMillis = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim();
+            int at = entry.indexOf('@');
+            int plus = entry.indexOf('+', at + 1);
+            if (at < 0 || plus < 0) {
+                throw new IllegalArgumentException("Malformed failure: " + entry);
+            }
+            failureBackends[i] = Integer.parseInt(entry.substring(0, at));
+            if (failureBackends[i] < 0 || failureBackends[i] >= capacities.length) {
+                throw new IllegalArgumentException("No backend " + failureBackends[i] + " in failure: " + entry);
+            }
+            failureStartMillis[i] = Double.parseDouble(entry.substring(at + 1, plus));
+            failureDurationMillis[i] = Double.parseDouble(entry.substring(plus + 1));
+        }
+
+        this.mtbfMillis = Double.parseDouble(take(options, "mtbf-ms", "0"));
+        this.mttrMillis = Double.parseDouble(take(options, "mttr-ms", "5000"));
+        this.loadHints = Boolean.parseBoolean(take(options, "load-hints", "true"));
+        this.seed = Long.parseLong(take(options, "seed", "1"));
+    }
+
+    /**
+     * Builds a scenario from options, removing the options it recognizes from
+     * the map.
+     *
+     * @param options the options by name, without the leading {@code --}
+     * @return the scenario
+     * @throws IllegalArgumentException if an option is malformed
+     * @throws IOException              if a trace cannot be read
+     */
+    public static Scenario fromOptions(Map<String, String> options) throws IOException {
+        try {
+            return new Scenario(options);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed number: " + e.getMessage(), e);
+        }
+    }
+
+    private static String take(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static int parsePositiveInt(String value, String what) {
+        int parsed = Integer.parseInt(value.trim());
+        if (parsed <= 0) {
+            throw new IllegalArgumentException(what + " must be positive: " + value);
+        }
+        return parsed;
+    }
+
+    /**
+     * Creates a fresh set of backends for one run.
+     *
+     * @param run the number of the run, which keeps the statistics of the
+     *            backends of different runs apart
+     * @param clock the simulated time in nanoseconds, on which the load hints
+     *              of the backends age
+     * @return the backends
+     */
+    SimulatedBackend[] createBackends(int run, LongSupplier clock) {
+        SimulatedBackend[] backends = new SimulatedBackend[capacities.length];
+        for (int i = 0; i < backends.length; i++) {
+            backends[i] = new SimulatedBackend("backend-" + i + ".run-" + run + ".sim.invalid", capacities[i],
+                    queueLimit, serviceTimes[i], clock);
+        }
+        return backends;
+    }
+
+    /**
+     * Creates a fresh arrival process for one run.
+     *
+     * @return the arrival process
+     */
+    ArrivalProcess newArrivals() {
+        return trace != null ? ArrivalProcess.replay(trace) : ArrivalProcess.poisson(ratePerSecond, requests);
+    }
+
+    int getBackendCount() {
+        return capacities.length;
+    }
+
+    double getHealthIntervalMillis() {
+        return healthIntervalMillis;
+    }
+
+    int getFailureCount() {
+        return failureBackends.length;
+    }
+
+    int getFailureBackend(int failure) {
+        return failureBackends[failure];
+    }
+
+    double getFailureStartMillis(int failure) {
+        return failureStartMillis[failure];
+    }
+
+    double getFailureDurationMillis(int failure) {
+        return failureDurationMillis[failure];
+    }
+
+    double getMtbfMillis() {
+        return mtbfMillis;
+    }
+
+    double getMttrMillis() {
+        return mttrMillis;
+    }
+
+    boolean isReportingLoadHints() {
+        return loadHints;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns a one-line description of the workload.
+     *
+     * @return the description
+     */
+    @Override
+    public String toString() {
+        String arrivals = trace != null ? trace.length + " recorded arrivals"
+                : String.format("%d Poisson arrivals at %.0f/s", requests, ratePerSecond);
+        return capacities.length + " backends, " + arrivals + ", " + failureBackends.length
+                + " scheduled failures" + (mtbfMillis > 0 ? ", random failures" : "");
+    }
+}
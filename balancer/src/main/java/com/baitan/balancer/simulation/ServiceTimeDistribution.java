@@ -0,0 +1,164 @@
+package com.baitan.balancer.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Distribution of the time a simulated backend takes to serve one request.
+ * <p>
+ * Distributions are written as {@code kind:parameters}:
+ * </p>
+ * <ul>
+ * <li>{@code const:ms} - every request takes exactly {@code ms}.</li>
+ * <li>{@code exp:mean} - exponentially distributed with the given mean.</li>
+ * <li>{@code lognormal:median:sigma} - log-normally distributed, a common
+ * fit for real service times with a long right tail.</li>
+ * <li>{@code pareto:min:alpha} - Pareto distributed with the given minimum
+ * and shape, for heavy tails. {@code alpha} must be greater than 1.</li>
+ * </ul>
+ *
+ * @author Tanish Baidya
+ */
+public interface ServiceTimeDistribution {
+
+    /**
+     * Draws a service time.
+     *
+     * @param random the source of randomness of the simulation
+     * @return the service time in milliseconds
+     */
+    double sampleMillis(SplittableRandom random);
+
+    /**
+     * Returns the mean of the distribution, used to derive a default arrival
+     * rate from the capacity of the backends.
+     *
+     * @return the mean service time in milliseconds
+     */
+    double meanMillis();
+
+    /**
+     * Parses a distribution.
+     *
+     * @param spec the distribution, e.g. {@code exp:10}
+     * @return the distribution
+     * @throws IllegalArgumentException if the distribution is malformed
+     */
+    static ServiceTimeDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0]) {
+            case "const":
+                return constant(Double.parseDouble(parts[1]));
+            case "exp":
+                return exponential(Double.parseDouble(parts[1]));
+            case "lognormal":
+                return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            case "pareto":
+                return pareto(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            default:
+                throw new IllegalArgumentException("Unknown service time distribution: " + spec);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed service time distribution: " + spec, e);
+        }
+    }
+
+    /**
+     * Returns a distribution where every request takes the same time.
+     *
+     * @param millis the service time in milliseconds
+     * @return the distribution
+     */
+    static ServiceTimeDistribution constant(double millis) {
+        requirePositive(millis, "const");
+        return new ServiceTimeDistribution() {
+            @Override
+            public double sampleMillis(SplittableRandom random) {
+                return millis;
+            }
+
+            @Override
+            public double meanMillis() {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * Returns an exponential distribution.
+     *
+     * @param mean the mean service time in milliseconds
+     * @return the distribution
+     */
+    static ServiceTimeDistribution exponential(double mean) {
+        requirePositive(mean, "exp");
+        return new ServiceTimeDistribution() {
+            @Override
+            public double sampleMillis(SplittableRandom random) {
+                return -mean * Math.log(1.0 - random.nextDouble());
+            }
+
+            @Override
+            public double meanMillis() {
+                return mean;
+            }
+        };
+    }
+
+    /**
+     * Returns a log-normal distribution.
+     *
+     * @param median the median service time in milliseconds
+     * @param sigma  the standard deviation of the logarithm of the service time
+     * @return the distribution
+     */
+    static ServiceTimeDistribution logNormal(double median, double sigma) {
+        requirePositive(median, "lognormal");
+        if (!(sigma >= 0)) {
+            throw new IllegalArgumentException("lognormal sigma must not be negative: " + sigma);
+        }
+        double mu = Math.log(median);
+        return new ServiceTimeDistribution() {
+            @Override
+            public double sampleMillis(SplittableRandom random) {
+                return Math.exp(mu + sigma * random.nextGaussian());
+            }
+
+            @Override
+            public double meanMillis() {
+                return median * Math.exp(sigma * sigma / 2);
+            }
+        };
+    }
+
+    /**
+     * Returns a Pareto distribution.
+     *
+     * @param min   the smallest service time in milliseconds
+     * @param alpha the shape, greater than 1 so that the mean is finite
+     * @return the distribution
+     */
+    static ServiceTimeDistribution pareto(double min, double alpha) {
+        requirePositive(min, "pareto");
+        if (!(alpha > 1)) {
+            throw new IllegalArgumentException("pareto alpha must be greater than 1: " + alpha);
+        }
+        return new ServiceTimeDistribution() {
+            @Override
+            public double sampleMillis(SplittableRandom random) {
+                return min / Math.pow(1.0 - random.nextDouble(), 1.0 / alpha);
+            }
+
+            @Override
+            public double meanMillis() {
+                return alpha * min / (alpha - 1);
+            }
+        };
+    }
+
+    private static void requirePositive(double value, String kind) {
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(kind + " service time must be positive: " + value);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.baitan.balancer.simulation;
+
+import java.util.function.LongSupplier;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * A backend in the simulation: a number of parallel workers fed from a
+ * bounded FIFO queue.
+ * <p>
+ * Each backend is represented to the strategy by a {@link Service} whose
+ * host lies under the reserved {@code .invalid} domain, so nothing the
+ * strategy does with it can reach a real host. Its {@link ServiceStats} are
+ * updated as the proxy would update them, so load-aware strategies see the
+ * in-flight counts, latencies and load hints of the simulated backends, with
+ * the hints aging in simulated time.
+ * </p>
+ *
+ * <p>
+ * Instances are confined to the simulation thread and are not thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+final class SimulatedBackend {
+
+    final Service service;
+    final ServiceStats stats;
+    final int capacity;
+    final int queueLimit;
+    final ServiceTimeDistribution serviceTime;
+
+    int busy;
+    boolean up = true;
+    int epoch;
+
+    private double[] waiting = new double[16];
+    private int waitingHead;
+    private int waitingSize;
+    private double busyMillis;
+    private double lastChangeMillis;
+
+    SimulatedBackend(String host, int capacity, int queueLimit, ServiceTimeDistribution serviceTime,
+            LongSupplier clock) {
+        this.service = new Service(host, 3000);
+        this.stats = ServiceStatsRegistry.getInstance().get(service, clock);
+        this.capacity = capacity;
+        this.queueLimit = queueLimit;
+        this.serviceTime = serviceTime;
+    }
+
+    /**
+     * Returns whether a request arriving now can start straight away.
+     *
+     * @return true if a worker is idle
+     */
+    boolean hasIdleWorker() {
+        return busy < capacity;
+    }
+
+    /**
+     * Returns whether a request that cannot start straight away may wait.
+     *
+     * @return true if the queue is not full
+     */
+    boolean canQueue() {
+        return waitingSize < queueLimit;
+    }
+
+    /**
+     * Queues a request until a worker becomes idle.
+     *
+     * @param arrivalMillis the arrival time of the request
+     */
+    void enqueue(double arrivalMillis) {
+        if (waitingSize == waiting.length) {
+            double[] grown = new double[waiting.length * 2];
+            for (int i = 0; i < waitingSize; i++) {
+                grown[i] = waiting[(waitingHead + i) % waiting.length];
+            }
+            waiting = grown;
+            waitingHead = 0;
+        }
+        waiting[(waitingHead + waitingSize) % waiting.length] = arrivalMillis;
+        waitingSize++;
+    }
+
+    /**
+     * Removes the longest waiting request.
+     *
+     * @return its arrival time
+     */
+    double dequeue() {
+        double arrivalMillis = waiting[waitingHead];
+        waitingHead = (waitingHead + 1) % waiting.length;
+        waitingSize--;
+        return arrivalMillis;
+    }
+
+    int getWaiting() {
+        return waitingSize;
+    }
+
+    /**
+     * Drops every queued request, for example because the backend failed.
+     */
+    void clearWaiting() {
+        waitingHead = 0;
+        waitingSize = 0;
+    }
+
+    /**
+     * Returns the load the backend reports to the balancer, the same measure
+     * a real backend would put in its load hint: requests in service and
+     * waiting, relative to the number of workers.
+     *
+     * @return the load, 1.0 when every worker is busy and nothing waits
+     */
+    double getLoad() {
+        return (double) (busy + waitingSize) / capacity;
+    }
+
+    /**
+     * Adds the busy time since the last change to the utilization integral.
+     * Must be called before {@link #busy} changes.
+     *
+     * @param nowMillis the current simulated time
+     */
+    void accumulate(double nowMillis) {
+        busyMillis += busy * (nowMillis - lastChangeMillis);
+        lastChangeMillis = nowMillis;
+    }
+
+    /**
+     * Returns the share of worker time spent serving requests.
+     *
+     * @param durationMillis the length of the simulation
+     * @return the utilization between 0 and 1
+     */
+    double getUtilization(double durationMillis) {
+        return durationMillis <= 0 ? 0 : busyMillis / (capacity * durationMillis);
+    }
+}
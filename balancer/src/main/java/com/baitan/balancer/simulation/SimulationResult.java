@@ -0,0 +1,134 @@
+package com.baitan.balancer.simulation;
+
+/**
+ * Outcome of driving one strategy through a {@link Scenario}.
+ * <p>
+ * Requests end in one of four ways: completed by a backend, rejected because
+ * the chosen backend's queue was full, failed because the chosen backend was
+ * down or failed while holding the request, or unrouted because the strategy
+ * had no service to offer. Latencies are only recorded for completed
+ * requests and run from arrival at the balancer to the end of service.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class SimulationResult {
+
+    private final String strategy;
+    private final long requests;
+    private final long rejected;
+    private final long failed;
+    private final long unrouted;
+    private final double simulatedMillis;
+    private final long wallNanos;
+    private final LatencyHistogram latencies;
+    private final double[] utilizations;
+
+    SimulationResult(String strategy, long requests, long rejected, long failed, long unrouted,
+            double simulatedMillis, long wallNanos, LatencyHistogram latencies, double[] utilizations) {
+        this.strategy = strategy;
+        this.requests = requests;
+        this.rejected = rejected;
+        this.failed = failed;
+        this.unrouted = unrouted;
+        this.simulatedMillis = simulatedMillis;
+        this.wallNanos = wallNanos;
+        this.latencies = latencies;
+        this.utilizations = utilizations;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getCompleted() {
+        return latencies.getCount();
+    }
+
+    public long getErrors() {
+        return rejected + failed + unrouted;
+    }
+
+    /**
+     * Returns the share of requests that did not complete.
+     *
+     * @return the error rate between 0 and 1
+     */
+    public double getErrorRate() {
+        return requests == 0 ? 0 : (double) getErrors() / requests;
+    }
+
+    /**
+     * Returns a percentile of the latency of completed requests.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds
+     */
+    public double getLatencyMillis(double percentile) {
+        return latencies.percentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Returns the utilization of each backend, the share of its worker time
+     * spent serving requests.
+     *
+     * @return the utilizations between 0 and 1, by backend index
+     */
+    public double[] getUtilizations() {
+        return utilizations.clone();
+    }
+
+    /**
+     * Returns how unevenly the work was spread: the utilization of the busiest
+     * backend divided by the mean utilization.
+     *
+     * @return the imbalance, 1.0 for a perfectly even spread
+     */
+    public double getUtilizationImbalance() {
+        double sum = 0;
+        double max = 0;
+        for (double utilization : utilizations) {
+            sum += utilization;
+            max = Math.max(max, utilization);
+        }
+        return sum == 0 ? 1.0 : max / (sum / utilizations.length);
+    }
+
+    /**
+     * Returns the number of simulated requests processed per second of real
+     * time.
+     *
+     * @return the simulation speed
+     */
+    public double getRequestsPerWallSecond() {
+        return wallNanos == 0 ? 0 : requests * 1e9 / wallNanos;
+    }
+
+    /**
+     * Returns a multi-line report of the result.
+     *
+     * @return the report
+     */
+    @Override
+    public String toString() {
+        double meanUtilization = 0;
+        double maxUtilization = 0;
+        for (double utilization : utilizations) {
+            meanUtilization += utilization / utilizations.length;
+            maxUtilization = Math.max(maxUtilization, utilization);
+        }
+        return String.format("%s: %d requests over %.1f s simulated in %.2f s (%.2fM requests/s)%n", strategy,
+                requests, simulatedMillis / 1000, wallNanos / 1e9, getRequestsPerWallSecond() / 1e6)
+                + String.format("  latency ms   mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                        latencies.getMean() / 1000, getLatencyMillis(50), getLatencyMillis(90),
+                        getLatencyMillis(99), getLatencyMillis(99.9), latencies.getMax() / 1000.0)
+                + String.format("  errors       %.3f%% (rejected=%d failed=%d unrouted=%d)%n",
+                        getErrorRate() * 100, rejected, failed, unrouted)
+                + String.format("  utilization  mean=%.3f max=%.3f imbalance=%.3f", meanUtilization,
+                        maxUtilization, getUtilizationImbalance());
+    }
+}
@@ -0,0 +1,333 @@
+package com.baitan.balancer.simulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.strategy.AbstractBalancingStrategy;
+import com.baitan.balancer.strategy.BalancingStrategies;
+import com.baitan.balancer.strategy.BalancingStrategy;
+
+/**
+ * Discrete-event simulator for comparing {@link BalancingStrategy}
+ * implementations offline.
+ * <p>
+ * The simulator drives an unmodified strategy with the arrivals of a
+ * {@link Scenario}. Each arrival is routed to the service returned by
+ * {@link BalancingStrategy#getNextService()}. The chosen backend then serves
+ * it, queues it or rejects it. Backends fail and recover as scheduled, and
+ * the strategy is synchronized with the backends that are up at every health
+ * interval, as the health check thread would do. In between, requests routed
+ * to a failed backend fail. The {@code ServiceStats} of the backends are
+ * updated the way the proxy updates them, and backends report their load as
+ * hints, so load-aware strategies get the same signals as in production.
+ * </p>
+ *
+ * <p>
+ * Simulated time is kept apart from the wall clock. The load hints of the
+ * backends age in simulated time, and so does the slow-start ramp of
+ * strategies extending {@link AbstractBalancingStrategy}, so a recovered
+ * backend ramps over {@code SLOW_START_WINDOW_MS} of simulated time however
+ * fast the run goes. Such strategies are also run without pre-warming, as
+ * the simulated backends cannot be connected to, and their membership log is
+ * only written with {@code --verbose=true}. Strategies draw their own random
+ * numbers, so runs of randomized strategies differ slightly even with the
+ * same seed.
+ * </p>
+ *
+ * <pre>
+ * java -cp balancer.jar com.baitan.balancer.simulation.Simulator \
+ *     --strategies=round-robin,least-loaded --backends='6:4:exp:10;2:4:exp:40' --rate=2000
+ * </pre>
+ *
+ * Strategies are named as in {@code BALANCING_STRATEGY}, or by the fully
+ * qualified name of any class implementing {@link BalancingStrategy} with a
+ * public no-argument constructor. See {@link Scenario} for the other options.
+ *
+ * <p>
+ * Instances are confined to one thread.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class Simulator {
+
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    private final Scenario scenario;
+
+    /**
+     * Creates a new Simulator.
+     *
+     * @param scenario the workload and backends to simulate
+     */
+    public Simulator(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * Simulates the scenario with a strategy.
+     *
+     * @param name     the name to report the result under
+     * @param strategy a strategy without services, which is loaded with the
+     *                 simulated backends; if it extends
+     *                 {@link AbstractBalancingStrategy}, it no longer pre-warms
+     *                 admitted services and its slow-start ramp is moved onto
+     *                 simulated time
+     * @return the result
+     */
+    public SimulationResult run(String name, BalancingStrategy strategy) {
+        EventQueue events = new EventQueue();
+        LongSupplier clock = () -> (long) (events.time() * 1_000_000);
+        SimulatedBackend[] backends = scenario.createBackends(RUNS.incrementAndGet(), clock);
+        Map<Service, Integer> indices = new IdentityHashMap<>();
+        if (strategy instanceof AbstractBalancingStrategy membership) {
+            // The simulated backends do not exist, pre-warming would send real requests to their hosts
+            membership.setPrewarmConnections(0);
+            membership.setClock(clock);
+        }
+        strategy.clearServices();
+        for (int i = 0; i < backends.length; i++) {
+            strategy.addServices(backends[i].service);
+            indices.put(backends[i].service, i);
+        }
+
+        SplittableRandom random = new SplittableRandom(scenario.getSeed());
+        ArrivalProcess arrivals = scenario.newArrivals();
+        LatencyHistogram latencies = new LatencyHistogram();
+        boolean loadHints = scenario.isReportingLoadHints();
+        double mtbf = scenario.getMtbfMillis();
+        double mttr = scenario.getMttrMillis();
+
+        double firstArrival = arrivals.nextArrivalMillis(random);
+        boolean arrivalsDone = Double.isNaN(firstArrival);
+        if (!arrivalsDone) {
+            events.add(firstArrival, EventQueue.ARRIVAL, -1, 0, 0);
+        }
+        events.add(scenario.getHealthIntervalMillis(), EventQueue.HEALTH_SYNC, -1, 0, 0);
+        for (int i = 0; i < scenario.getFailureCount(); i++) {
+            double start = scenario.getFailureStartMillis(i);
+            events.add(start, EventQueue.FAILURE, scenario.getFailureBackend(i), 0, 0);
+            events.add(start + scenario.getFailureDurationMillis(i), EventQueue.RECOVERY,
+                    scenario.getFailureBackend(i), 0, 0);
+        }
+        if (mtbf > 0) {
+            // A non-zero arrival field marks random failures, which schedule their own successors
+            for (int i = 0; i < backends.length; i++) {
+                events.add(exponential(random, mtbf), EventQueue.FAILURE, i, 0, 1);
+            }
+        }
+
+        long requests = 0;
+        long rejected = 0;
+        long failed = 0;
+        long unrouted = 0;
+        long inFlight = 0;
+        double lastRequestMillis = 0;
+        long wallStart = System.nanoTime();
+
+        while (!events.isEmpty()) {
+            events.poll();
+            double now = events.time();
+            switch (events.kind()) {
+            case EventQueue.ARRIVAL -> {
+                requests++;
+                lastRequestMillis = now;
+                double next = arrivals.nextArrivalMillis(random);
+                if (Double.isNaN(next)) {
+                    arrivalsDone = true;
+                } else {
+                    events.add(next, EventQueue.ARRIVAL, -1, 0, 0);
+                }
+
+                Service service = strategy.getNextService();
+                Integer index = service == null ? null : indices.get(service);
+                if (index == null) {
+                    unrouted++;
+                    continue;
+                }
+                SimulatedBackend backend = backends[index];
+                backend.stats.onRequestStart();
+                if (!backend.up || (!backend.hasIdleWorker() && !backend.canQueue())) {
+                    // Refused connection or 503, answered straight away
+                    backend.stats.onRequestEnd(0);
+                    if (backend.up) {
+                        rejected++;
+                    } else {
+                        failed++;
+                    }
+                    continue;
+                }
+                inFlight++;
+                if (backend.hasIdleWorker()) {
+                    backend.accumulate(now);
+                    backend.busy++;
+                    events.add(now + backend.serviceTime.sampleMillis(random), EventQueue.COMPLETION, index,
+                            backend.epoch, now);
+                } else {
+                    backend.enqueue(now);
+                }
+            }
+            case EventQueue.COMPLETION -> {
+                SimulatedBackend backend = backends[events.backend()];
+                if (events.epoch() != backend.epoch) {
+                    // Lost when the backend failed
+                    continue;
+                }
+                double latencyMillis = now - events.arrival();
+                latencies.record((long) (latencyMillis * 1000));
+                backend.stats.onRequestEnd((long) (latencyMillis * 1_000_000));
+                inFlight--;
+                lastRequestMillis = now;
+
+                backend.accumulate(now);
+                backend.busy--;
+                if (backend.getWaiting() > 0) {
+                    backend.busy++;
+                    events.add(now + backend.serviceTime.sampleMillis(random), EventQueue.COMPLETION,
+                            events.backend(), backend.epoch, backend.dequeue());
+                }
+                if (loadHints) {
+                    backend.stats.recordLoadHint(backend.getLoad());
+                }
+            }
+            case EventQueue.HEALTH_SYNC -> {
+                List<Service> healthy = new ArrayList<>();
+                for (SimulatedBackend backend : backends) {
+                    if (backend.up) {
+                        healthy.add(backend.service);
+                    }
+                }
+                strategy.synchronizeWithHealthyServices(healthy.toArray(Service[]::new));
+                if (!arrivalsDone || inFlight > 0) {
+                    events.add(now + scenario.getHealthIntervalMillis(), EventQueue.HEALTH_SYNC, -1, 0, 0);
+                }
+            }
+            case EventQueue.FAILURE -> {
+                SimulatedBackend backend = backends[events.backend()];
+                if (backend.up) {
+                    int lost = backend.busy + backend.getWaiting();
+                    for (int i = 0; i < lost; i++) {
+                        backend.stats.onRequestEnd((long) backend.stats.getLatencyEwmaNanos());
+                    }
+                    failed += lost;
+                    inFlight -= lost;
+                    backend.accumulate(now);
+                    backend.busy = 0;
+                    backend.clearWaiting();
+                    backend.epoch++;
+                    backend.up = false;
+                }
+                if (events.arrival() != 0) {
+                    events.add(now + exponential(random, mttr), EventQueue.RECOVERY, events.backend(), 0, 1);
+                }
+            }
+            case EventQueue.RECOVERY -> {
+                SimulatedBackend backend = backends[events.backend()];
+                backend.up = true;
+                if (events.arrival() != 0 && !arrivalsDone) {
+                    events.add(now + exponential(random, mtbf), EventQueue.FAILURE, events.backend(), 0, 1);
+                }
+            }
+            default -> throw new IllegalStateException("Unknown event " + events.kind());
+            }
+        }
+
+        long wallNanos = System.nanoTime() - wallStart;
+        double[] utilizations = new double[backends.length];
+        for (int i = 0; i < backends.length; i++) {
+            backends[i].accumulate(lastRequestMillis);
+            utilizations[i] = backends[i].getUtilization(lastRequestMillis);
+        }
+        return new SimulationResult(name, requests, rejected, failed, unrouted, lastRequestMillis, wallNanos,
+                latencies, utilizations);
+    }
+
+    private static double exponential(SplittableRandom random, double mean) {
+        return -mean * Math.log(1.0 - random.nextDouble());
+    }
+
+    /**
+     * Returns a factory for a strategy named as in {@code BALANCING_STRATEGY}
+     * or by class name.
+     *
+     * @param name the strategy name or fully qualified class name
+     * @return the factory
+     * @throws IllegalArgumentException if the strategy cannot be found
+     */
+    static Supplier<BalancingStrategy> strategyFactory(String name) {
+        if (!name.contains(".")) {
+            return BalancingStrategies.factory(name);
+        }
+        try {
+            var constructor = Class.forName(name).asSubclass(BalancingStrategy.class).getConstructor();
+            return () -> {
+                try {
+                    return constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot create strategy " + name, e);
+                }
+            };
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Not a balancing strategy with a public no-argument constructor: "
+                    + name, e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                usage("Malformed option: " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        String[] names = options.getOrDefault("strategies", String.join(",", BalancingStrategies.names()))
+                .split(",");
+        options.remove("strategies");
+        boolean verbose = Boolean.parseBoolean(options.remove("verbose"));
+        Scenario scenario = null;
+        List<Supplier<BalancingStrategy>> factories = new ArrayList<>();
+        try {
+            scenario = Scenario.fromOptions(options);
+            for (String name : names) {
+                factories.add(strategyFactory(name.trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        if (!options.isEmpty()) {
+            usage("Unknown options: " + options.keySet());
+        }
+
+        System.out.println("Simulating " + scenario);
+        Simulator simulator = new Simulator(scenario);
+        for (int i = 0; i < names.length; i++) {
+            BalancingStrategy strategy = factories.get(i).get();
+            if (strategy instanceof AbstractBalancingStrategy membership) {
+                // Membership changes are logged on every health sync
+                membership.setMembershipLogged(verbose);
+            }
+            System.out.println(simulator.run(names[i].trim(), strategy));
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: Simulator [--strategies=name,...] [--backends=count:capacity:distribution;...]"
+                + " [--queue-limit=n] [--rate=perSecond] [--requests=n] [--trace=path,...] [--speedup=x]"
+                + " [--health-interval-ms=ms] [--failures=backend@startMs+durationMs;...] [--mtbf-ms=ms]"
+                + " [--mttr-ms=ms] [--load-hints=true|false] [--seed=n] [--verbose=true|false]");
+        System.exit(1);
+    }
+}
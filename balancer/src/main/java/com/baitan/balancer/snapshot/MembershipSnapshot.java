@@ -0,0 +1,244 @@
+package com.baitan.balancer.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.routing.BackendPool;
+import com.baitan.balancer.routing.BackendPools;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * The healthy backend membership of the load balancer at one point in time,
+ * together with the latency EWMA of each backend.
+ * <p>
+ * Snapshots are written periodically by the {@link SnapshotWriter} so that a
+ * restarted load balancer can serve from the last known membership straight
+ * away instead of waiting for a full container listing and health sweep.
+ * </p>
+ *
+ * <h2>File Format</h2>
+ * <p>
+ * All values are big-endian. The file starts with the magic {@code LBMS}, a
+ * version short, the wall clock time the snapshot was taken and the number of
+ * entries. Each entry holds the host, port and pool of a service and its
+ * latency EWMA in nanoseconds. A CRC32 of everything before it ends the file,
+ * so a torn or corrupted file is rejected rather than half loaded. Files are
+ * replaced atomically.
+ * </p>
+ *
+ * <p>
+ * The class is immutable and thread-safe.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class MembershipSnapshot {
+
+    private static final int MAGIC = 0x4C424D53; // "LBMS"
+    private static final short VERSION = 1;
+
+    private final long takenAtMillis;
+    private final List<Entry> entries;
+
+    /**
+     * Creates a new MembershipSnapshot.
+     *
+     * @param takenAtMillis the wall clock time the snapshot was taken
+     * @param entries       the healthy services and their statistics
+     */
+    public MembershipSnapshot(long takenAtMillis, List<Entry> entries) {
+        this.takenAtMillis = takenAtMillis;
+        this.entries = List.copyOf(entries);
+    }
+
+    /**
+     * Takes a snapshot of the services currently in rotation in every pool.
+     *
+     * @param backendPools the pools to snapshot
+     * @param registry     the statistics of the services
+     * @return the snapshot
+     */
+    public static MembershipSnapshot capture(BackendPools backendPools, ServiceStatsRegistry registry) {
+        List<Entry> entries = new ArrayList<>();
+        for (BackendPool pool : backendPools.getAll()) {
+            for (Service service : pool.getBalancingStrategy().getServices()) {
+                ServiceStats stats = registry.find(service);
+                entries.add(new Entry(service, stats == null ? 0 : (long) stats.getLatencyEwmaNanos()));
+            }
+        }
+        return new MembershipSnapshot(System.currentTimeMillis(), entries);
+    }
+
+    /**
+     * Returns the wall clock time the snapshot was taken.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    /**
+     * Checks whether the snapshot is worth starting from: it holds at least
+     * one service and is no older than a maximum age.
+     *
+     * @param nowMillis    the current wall clock time
+     * @param maxAgeMillis the age after which a snapshot is stale
+     * @return true if the snapshot is neither empty nor stale
+     */
+    public boolean isUsable(long nowMillis, long maxAgeMillis) {
+        return !entries.isEmpty() && nowMillis - takenAtMillis <= maxAgeMillis;
+    }
+
+    /**
+     * Returns the entries of the snapshot.
+     *
+     * @return an unmodifiable list of entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the services of the snapshot.
+     *
+     * @return an array of services
+     */
+    public Service[] getServices() {
+        return entries.stream().map(Entry::getService).toArray(Service[]::new);
+    }
+
+    /**
+     * Checks whether this snapshot holds the same services as another one,
+     * ignoring statistics and time.
+     *
+     * @param other the other snapshot, may be null
+     * @return true if both contain the same services
+     */
+    public boolean hasSameMembership(MembershipSnapshot other) {
+        if (other == null || other.entries.size() != entries.size()) {
+            return false;
+        }
+        return new HashSet<>(Arrays.asList(getServices())).equals(new HashSet<>(Arrays.asList(other.getServices())));
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing it atomically. The data is
+     * written to a temporary file next to it and forced to disk first.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(encode());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot from a file.
+     *
+     * @param file the file to read
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static MembershipSnapshot readFrom(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < Integer.BYTES) {
+            throw new IOException("Snapshot truncated: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Integer.BYTES);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - Integer.BYTES, Integer.BYTES).getInt()) {
+            throw new IOException("Snapshot checksum mismatch: " + file);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - Integer.BYTES));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a membership snapshot: " + file);
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+        long takenAtMillis = in.readLong();
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String host = in.readUTF();
+            int port = in.readInt();
+            String pool = in.readUTF();
+            long latencyEwmaNanos = in.readLong();
+            entries.add(new Entry(new Service(host, port, pool), latencyEwmaNanos));
+        }
+        return new MembershipSnapshot(takenAtMillis, entries);
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(takenAtMillis);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.getService().getHost());
+            out.writeInt(entry.getService().getPort());
+            out.writeUTF(entry.getService().getPool());
+            out.writeLong(entry.getLatencyEwmaNanos());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A service of the snapshot and its statistics.
+     */
+    public static final class Entry {
+
+        private final Service service;
+        private final long latencyEwmaNanos;
+
+        public Entry(Service service, long latencyEwmaNanos) {
+            this.service = service;
+            this.latencyEwmaNanos = latencyEwmaNanos;
+        }
+
+        public Service getService() {
+            return service;
+        }
+
+        public long getLatencyEwmaNanos() {
+            return latencyEwmaNanos;
+        }
+    }
+}
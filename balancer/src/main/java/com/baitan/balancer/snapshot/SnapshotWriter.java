@@ -0,0 +1,75 @@
+package com.baitan.balancer.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.baitan.balancer.routing.BackendPools;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * Background thread that periodically persists a {@link MembershipSnapshot}
+ * of the backend pools.
+ * <p>
+ * A snapshot is written whenever the membership changed, and at least every
+ * {@code refreshMillis} otherwise so that the stored latency averages and the
+ * age of the snapshot stay current. Failures are logged and retried on the
+ * next round; they never affect request handling. The writer should be
+ * started as a daemon thread, so it does not keep the JVM alive.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class SnapshotWriter extends Thread {
+
+    private final BackendPools backendPools;
+    private final ServiceStatsRegistry registry;
+    private final Path file;
+    private final long intervalMillis;
+    private final long refreshMillis;
+
+    /**
+     * Creates a new SnapshotWriter.
+     *
+     * @param backendPools   the pools to snapshot
+     * @param registry       the statistics of the services
+     * @param file           the snapshot file
+     * @param intervalMillis the time between two membership checks
+     * @param refreshMillis  the time after which an unchanged snapshot is
+     *                       rewritten anyway
+     */
+    public SnapshotWriter(BackendPools backendPools, ServiceStatsRegistry registry, Path file, long intervalMillis,
+            long refreshMillis) {
+        super("snapshot-writer");
+        this.backendPools = backendPools;
+        this.registry = registry;
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+        this.refreshMillis = refreshMillis;
+    }
+
+    @Override
+    public void run() {
+        MembershipSnapshot lastWritten = null;
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            MembershipSnapshot snapshot = MembershipSnapshot.capture(backendPools, registry);
+            boolean stale = lastWritten == null
+                    || snapshot.getTakenAtMillis() - lastWritten.getTakenAtMillis() >= refreshMillis;
+            if (!stale && snapshot.hasSameMembership(lastWritten)) {
+                continue;
+            }
+            try {
+                snapshot.writeTo(file);
+                lastWritten = snapshot;
+            } catch (IOException e) {
+                System.err.println("Failed to write membership snapshot " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
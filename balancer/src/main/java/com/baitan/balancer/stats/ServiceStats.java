@@ -0,0 +1,212 @@
+package com.baitan.balancer.stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.baitan.balancer.config.BalancerConfig;
+
+/**
+ * Load observations for a single backend service.
+ * <p>
+ * Tracks the number of requests currently in flight to the service and an
+ * exponentially weighted moving average (EWMA) of the upstream latency as
+ * seen by this load balancer. In cluster mode it also holds the load reported
+ * by the other balancer instances, so load-aware strategies can see the whole
+ * picture through {@link #getClusterInFlight()}.
+ * </p>
+ *
+ * <p>
+ * Backends may also report their own load on each response. The reported
+ * hints are smoothed with an EWMA, and a hint that is not refreshed decays
+ * toward a neutral value with a configurable half-life, so a backend that
+ * stops reporting, or that was shed because it looked busy, is neither
+ * shunned nor favoured for long. The age of a hint is measured on a clock
+ * given at construction, {@link System#nanoTime()} unless the stats belong to
+ * a simulated backend.
+ * </p>
+ *
+ * <h2>Thread Safety</h2>
+ * <p>
+ * All methods are thread-safe and lock-free.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class ServiceStats {
+
+    private static final double LATENCY_EWMA_ALPHA = 0.2;
+    private static final double LOAD_HINT_EWMA_ALPHA = 0.3;
+    private static final double LOAD_HINT_NEUTRAL = BalancerConfig.getDouble("LOAD_HINT_NEUTRAL", 0.5);
+    private static final long LOAD_HINT_HALF_LIFE_NANOS = Math.max(1,
+            BalancerConfig.getLong("LOAD_HINT_HALF_LIFE_MS", 2000)) * 1_000_000L;
+
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToRawLongBits(0.0));
+
+    private final AtomicLong loadHintBits = new AtomicLong(Double.doubleToRawLongBits(LOAD_HINT_NEUTRAL));
+    private volatile long loadHintAtNanos;
+    private volatile boolean loadHintReported;
+
+    private volatile int remoteInFlight;
+
+    /**
+     * Creates new ServiceStats whose load hints age on the wall clock.
+     */
+    public ServiceStats() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * Creates new ServiceStats whose load hints age on a given clock.
+     *
+     * @param clock the current time in nanoseconds, such as the simulated time
+     *              of a simulator
+     */
+    public ServiceStats(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Records the start of a request to the service.
+     */
+    public void onRequestStart() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request to the service and folds its latency into
+     * the moving average.
+     *
+     * @param latencyNanos the upstream latency of the request in nanoseconds
+     */
+    public void onRequestEnd(long latencyNanos) {
+        inFlight.decrementAndGet();
+        long currentBits;
+        long updatedBits;
+        do {
+            currentBits = latencyEwmaBits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double updated = current == 0.0 ? latencyNanos
+                    : current + LATENCY_EWMA_ALPHA * (latencyNanos - current);
+            updatedBits = Double.doubleToRawLongBits(updated);
+        } while (!latencyEwmaBits.compareAndSet(currentBits, updatedBits));
+    }
+
+    /**
+     * Seeds the latency moving average with a value remembered from before a
+     * restart or reported by other balancer instances. Does nothing once a
+     * latency has been observed or seeded.
+     *
+     * @param latencyEwmaNanos the remembered latency EWMA in nanoseconds
+     */
+    public void restoreLatencyEwma(double latencyEwmaNanos) {
+        if (latencyEwmaNanos > 0) {
+            latencyEwmaBits.compareAndSet(Double.doubleToRawLongBits(0.0),
+                    Double.doubleToRawLongBits(latencyEwmaNanos));
+        }
+    }
+
+    /**
+     * Returns the number of requests this load balancer has in flight to the
+     * service.
+     *
+     * @return the local in-flight count
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the moving average of the upstream latency observed by this load
+     * balancer.
+     *
+     * @return the latency EWMA in nanoseconds, or 0 if no request completed yet
+     */
+    public double getLatencyEwmaNanos() {
+        return Double.longBitsToDouble(latencyEwmaBits.get());
+    }
+
+    /**
+     * Folds a load hint reported by the backend into the smoothed hint.
+     * <p>
+     * The previous value is first decayed by the time since it was reported,
+     * so a fresh hint after a long silence is weighed against the neutral
+     * value rather than against an outdated one. Concurrent updates may
+     * interleave the value and its timestamp; the result is still a hint
+     * between the two reports, which is all a routing signal needs.
+     * </p>
+     *
+     * @param load the reported load, a non-negative number where 1.0 means
+     *             fully utilized
+     */
+    public void recordLoadHint(double load) {
+        if (!(load >= 0) || Double.isInfinite(load)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long reportedAt = loadHintAtNanos;
+        boolean reported = loadHintReported;
+        long currentBits;
+        long updatedBits;
+        do {
+            currentBits = loadHintBits.get();
+            double current = reported ? decay(Double.longBitsToDouble(currentBits), now - reportedAt) : load;
+            updatedBits = Double.doubleToRawLongBits(current + LOAD_HINT_EWMA_ALPHA * (load - current));
+        } while (!loadHintBits.compareAndSet(currentBits, updatedBits));
+        loadHintAtNanos = now;
+        loadHintReported = true;
+    }
+
+    /**
+     * Returns the smoothed load reported by the backend, decayed toward the
+     * neutral value by the time since the last report.
+     *
+     * @return the load hint, or the neutral value if the backend never
+     *         reported one
+     */
+    public double getLoadHint() {
+        if (!loadHintReported) {
+            return LOAD_HINT_NEUTRAL;
+        }
+        return decay(Double.longBitsToDouble(loadHintBits.get()), clock.getAsLong() - loadHintAtNanos);
+    }
+
+    /**
+     * Returns the load assumed for backends that do not report one.
+     *
+     * @return the neutral load hint
+     */
+    public static double getNeutralLoadHint() {
+        return LOAD_HINT_NEUTRAL;
+    }
+
+    private static double decay(double hint, long ageNanos) {
+        if (ageNanos <= 0) {
+            return hint;
+        }
+        double remaining = Math.pow(0.5, (double) ageNanos / LOAD_HINT_HALF_LIFE_NANOS);
+        return LOAD_HINT_NEUTRAL + (hint - LOAD_HINT_NEUTRAL) * remaining;
+    }
+
+    /**
+     * Sets the number of requests in flight to the service reported by the
+     * other balancer instances.
+     *
+     * @param inFlight the sum of the in-flight counts of all peers
+     */
+    public void setRemoteInFlight(int inFlight) {
+        this.remoteInFlight = inFlight;
+    }
+
+    /**
+     * Returns the number of requests in flight to the service across the whole
+     * cluster, including this load balancer.
+     *
+     * @return the cluster-wide in-flight count
+     */
+    public int getClusterInFlight() {
+        return inFlight.get() + remoteInFlight;
+    }
+}
@@ -0,0 +1,119 @@
+package com.baitan.balancer.stats;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import com.baitan.balancer.Service;
+
+/**
+ * Singleton registry holding the {@link ServiceStats} of every backend
+ * service.
+ * <p>
+ * Service instances are recreated on every Docker listing, so statistics are
+ * keyed by host and port through {@link Service#equals(Object)} rather than
+ * stored on the instances themselves. Statistics of services that are no
+ * longer discovered are evicted by {@link #retainAll(Set)}, so the registry
+ * does not grow with container churn.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class ServiceStatsRegistry {
+
+    private static volatile ServiceStatsRegistry instance;
+
+    private final Map<Service, ServiceStats> stats;
+
+    private ServiceStatsRegistry() {
+        this.stats = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the singleton instance of ServiceStatsRegistry.
+     * <p>
+     * Uses double-checked locking to ensure thread safety and lazy initialization.
+     * </p>
+     *
+     * @return the singleton instance of ServiceStatsRegistry
+     */
+    public static ServiceStatsRegistry getInstance() {
+        ServiceStatsRegistry localInstance = instance;
+        if (localInstance == null) {
+            synchronized (ServiceStatsRegistry.class) {
+                localInstance = instance;
+                if (localInstance == null) {
+                    instance = localInstance = new ServiceStatsRegistry();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    /**
+     * Returns the statistics of a service, creating them on first use.
+     *
+     * @param service the service to look up
+     * @return the statistics of the service
+     */
+    public ServiceStats get(Service service) {
+        ServiceStats serviceStats = stats.get(service);
+        if (serviceStats == null) {
+            serviceStats = stats.computeIfAbsent(service, s -> new ServiceStats());
+        }
+        return serviceStats;
+    }
+
+    /**
+     * Returns the statistics of a service, creating them on first use with
+     * load hints aging on a given clock. Used by the simulator, whose backends
+     * live in simulated time.
+     *
+     * @param service the service to look up
+     * @param clock   the current time in nanoseconds
+     * @return the statistics of the service
+     */
+    public ServiceStats get(Service service, LongSupplier clock) {
+        return stats.computeIfAbsent(service, s -> new ServiceStats(clock));
+    }
+
+    /**
+     * Returns the statistics of a service without creating them.
+     *
+     * @param service the service to look up
+     * @return the statistics of the service, or null if none were recorded
+     */
+    public ServiceStats find(Service service) {
+        return stats.get(service);
+    }
+
+    /**
+     * Evicts the statistics of every service not in the given set, except
+     * those of services with requests still in flight through this instance,
+     * which are evicted once they are idle.
+     *
+     * @param services the services whose statistics are kept
+     * @return the number of evicted services
+     */
+    public int retainAll(Set<Service> services) {
+        int evicted = 0;
+        for (var entry : stats.entrySet()) {
+            if (!services.contains(entry.getKey()) && entry.getValue().getInFlight() == 0
+                    && stats.remove(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns a view of all recorded statistics keyed by service.
+     *
+     * @return an unmodifiable view of the registry
+     */
+    public Map<Service, ServiceStats> getAll() {
+        return Collections.unmodifiableMap(stats);
+    }
+}
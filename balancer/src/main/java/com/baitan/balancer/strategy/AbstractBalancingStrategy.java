@@ -0,0 +1,308 @@
+package com.baitan.balancer.strategy;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.config.BalancerConfig;
+
+/**
+ * Base class of the balancing strategies, managing the membership of the
+ * services so that subclasses only decide which one to pick in
+ * {@link #getNextService()}.
+ * <p>
+ * Changes to the membership are serialized by a fair lock. The services are
+ * kept in an array that is replaced as a whole on every change, so selection
+ * reads one consistent version of it through {@link #currentServices()}
+ * without locking or allocating.
+ * </p>
+ *
+ * <p>
+ * Services admitted by {@link #synchronizeWithHealthyServices(Service[])} go
+ * through a slow-start window (see {@link SlowStartRamp}), which subclasses
+ * apply when selecting, and a few upstream connections are opened to them
+ * ahead of real traffic.
+ * </p>
+ *
+ * <p>
+ * Pre-warming and the membership log can be turned off, and the slow-start
+ * ramp moved onto another clock, per instance, for strategies driven by
+ * something other than live backends, such as the simulator.
+ * </p>
+ *
+ * @see BalancingStrategy
+ *
+ * @author Tanish Baidya
+ */
+public abstract class AbstractBalancingStrategy implements BalancingStrategy {
+
+    private static final long SLOW_START_WINDOW_MS = BalancerConfig.getLong("SLOW_START_WINDOW_MS", 30_000);
+    private static final double SLOW_START_MIN_WEIGHT = BalancerConfig.getDouble("SLOW_START_MIN_WEIGHT", 0.1);
+    private static final int PREWARM_CONNECTIONS = BalancerConfig.getInt("PREWARM_CONNECTIONS", 4);
+
+    private final Lock lock;
+    private volatile Service[] services;
+    private volatile int prewarmConnections = PREWARM_CONNECTIONS;
+    private volatile boolean membershipLogged = true;
+
+    /**
+     * The slow-start ramp of the services admitted by
+     * {@link #synchronizeWithHealthyServices(Service[])}.
+     */
+    protected final SlowStartRamp slowStartRamp;
+
+    /**
+     * Creates a new strategy without services.
+     */
+    protected AbstractBalancingStrategy() {
+        this.services = new Service[0];
+        this.lock = new ReentrantLock(true);
+        this.slowStartRamp = new SlowStartRamp(SLOW_START_WINDOW_MS, SLOW_START_MIN_WEIGHT);
+    }
+
+    /**
+     * Sets the number of upstream connections opened to a newly admitted
+     * service. Defaults to {@code PREWARM_CONNECTIONS}.
+     *
+     * @param prewarmConnections the number of connections, or 0 to admit
+     *                           services without pre-warming them
+     */
+    public void setPrewarmConnections(int prewarmConnections) {
+        this.prewarmConnections = prewarmConnections;
+    }
+
+    /**
+     * Sets whether membership changes are logged to standard output. Invalid
+     * services are reported to standard error either way. Defaults to true.
+     *
+     * @param membershipLogged true to log membership changes
+     */
+    public void setMembershipLogged(boolean membershipLogged) {
+        this.membershipLogged = membershipLogged;
+    }
+
+    /**
+     * Sets the clock on which the slow-start ramp runs. Defaults to
+     * {@link System#nanoTime()}.
+     *
+     * @param clock the current time in nanoseconds
+     */
+    public void setClock(LongSupplier clock) {
+        slowStartRamp.setClock(clock);
+    }
+
+    /**
+     * Returns the current services for selection. The array must not be
+     * modified.
+     *
+     * @return the services
+     */
+    protected final Service[] currentServices() {
+        return services;
+    }
+
+    /**
+     * Called with the lock held after the service at an index was removed.
+     * When several services are removed at once, this is called for each of
+     * them from the highest index down, so every index refers to the array as
+     * it was before the removal. Does nothing by default.
+     *
+     * @param index the index the removed service had
+     */
+    protected void onRemoved(int index) {
+    }
+
+    /**
+     * Called with the lock held after all services were cleared. Does nothing
+     * by default.
+     */
+    protected void onCleared() {
+    }
+
+    private void log(String message) {
+        if (membershipLogged) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Adds a service to the strategy in a thread-safe manner.
+     * <p>
+     * This method checks if the service is valid and not already present in the
+     * list before adding it. If the service is invalid or already exists, it logs
+     * an appropriate message.
+     * </p>
+     *
+     * @param service the service to be added
+     */
+    @Override
+    public void addServices(Service service) {
+        lock.lock();
+        try {
+            if (Service.isInvalid(service)) {
+                System.err.println("Invalid service: " + service);
+                return;
+            }
+
+            if (containsService(service)) {
+                log("Service already exists: " + service);
+                return;
+            }
+
+            Service[] updated = Arrays.copyOf(services, services.length + 1);
+            updated[updated.length - 1] = service;
+            services = updated;
+            log("Added service: " + service + " at index: " + (updated.length - 1));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a service from the strategy in a thread-safe manner.
+     * <p>
+     * This method checks if the service is valid before attempting to remove it. If
+     * the service is invalid or not found, it logs an appropriate message.
+     * </p>
+     *
+     * @param service the service to be removed
+     */
+    @Override
+    public void removeService(Service service) {
+        lock.lock();
+        try {
+            if (Service.isInvalid(service)) {
+                System.err.println("Invalid service " + service);
+                return;
+            }
+            int index = Arrays.asList(services).indexOf(service);
+            if (index == -1) {
+                log("Service not found: " + service);
+                return;
+            }
+            Service[] updated = new Service[services.length - 1];
+            System.arraycopy(services, 0, updated, 0, index);
+            System.arraycopy(services, index + 1, updated, index, updated.length - index);
+            services = updated;
+            slowStartRamp.forget(service);
+            onRemoved(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears all services from the strategy in a thread-safe manner.
+     */
+    @Override
+    public void clearServices() {
+        lock.lock();
+        try {
+            services = new Service[0];
+            slowStartRamp.clear();
+            onCleared();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of services currently managed by the strategy.
+     *
+     * @return the number of services
+     */
+    @Override
+    public int getServiceCount() {
+        return services.length;
+    }
+
+    /**
+     * Checks if a service is contained in the strategy, by host and port.
+     *
+     * @param service the service to check
+     * @return true if the service is contained, false otherwise
+     */
+    @Override
+    public boolean containsService(Service service) {
+        if (Service.isInvalid(service)) {
+            return false;
+        }
+        for (Service s : services) {
+            if (s.equals(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the services currently managed by the strategy.
+     *
+     * @return an array of services
+     */
+    @Override
+    public Service[] getServices() {
+        return services.clone();
+    }
+
+    /**
+     * Synchronizes the strategy with a list of healthy services.
+     * <p>
+     * This method updates the list of services by adding new healthy services and
+     * removing those that are no longer healthy. It ensures that the strategy
+     * remains up-to-date with the current state of the services.
+     * </p>
+     *
+     * <p>
+     * Newly added services start their slow-start ramp and are pre-warmed with
+     * a few upstream connections.
+     * </p>
+     *
+     * @param healthyServices an array of healthy services to synchronize with
+     */
+    @Override
+    public void synchronizeWithHealthyServices(Service[] healthyServices) {
+        lock.lock();
+        try {
+
+            // If there are no healthy services found after health check, remove all
+            // services from strategy
+            if (healthyServices == null || healthyServices.length == 0) {
+                clearServices();
+                return;
+            }
+
+            // Add new healthy services that are not already in the list
+            for (Service s : healthyServices) {
+                if (!containsService(s)) {
+                    addServices(s);
+                    if (containsService(s)) {
+                        slowStartRamp.admit(s);
+                        s.prewarm(prewarmConnections);
+                    }
+                }
+            }
+
+            // Remove services that are not in the healthy list
+            Set<Service> healthySet = Arrays.stream(healthyServices).collect(Collectors.toSet());
+            Service[] current = services;
+            services = Arrays.stream(current).filter(healthySet::contains).toArray(Service[]::new);
+            int removed = 0;
+            for (int index = current.length - 1; index >= 0; index--) {
+                if (!healthySet.contains(current[index])) {
+                    slowStartRamp.forget(current[index]);
+                    onRemoved(index);
+                    removed++;
+                }
+            }
+
+            log("Removed " + (removed > 0 ? "some" : "no") + " services that are not healthy.");
+        } finally {
+            lock.unlock();
+        }
+    }
+}
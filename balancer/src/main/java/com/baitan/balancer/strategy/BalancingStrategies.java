@@ -0,0 +1,47 @@
+package com.baitan.balancer.strategy;
+
+import java.util.function.Supplier;
+
+/**
+ * Looks up {@link BalancingStrategy} implementations by their configuration
+ * name.
+ *
+ * <ul>
+ * <li>{@value #ROUND_ROBIN}: {@link ConcurrentRoundRobinStrategy}</li>
+ * <li>{@value #LEAST_LOADED}: {@link LeastLoadedStrategy}</li>
+ * </ul>
+ *
+ * @author Tanish Baidya
+ */
+public final class BalancingStrategies {
+
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_LOADED = "least-loaded";
+
+    private BalancingStrategies() {
+    }
+
+    /**
+     * Returns a factory creating new instances of the named strategy.
+     *
+     * @param name the strategy name, case-insensitive
+     * @return the factory
+     * @throws IllegalArgumentException if no strategy has that name
+     */
+    public static Supplier<BalancingStrategy> factory(String name) {
+        return switch (name.trim().toLowerCase()) {
+        case ROUND_ROBIN -> ConcurrentRoundRobinStrategy::new;
+        case LEAST_LOADED -> LeastLoadedStrategy::new;
+        default -> throw new IllegalArgumentException("Unknown balancing strategy: " + name);
+        };
+    }
+
+    /**
+     * Returns the names of all known strategies.
+     *
+     * @return the strategy names
+     */
+    public static String[] names() {
+        return new String[] { ROUND_ROBIN, LEAST_LOADED };
+    }
+}
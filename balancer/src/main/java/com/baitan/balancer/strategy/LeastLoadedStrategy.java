@@ -0,0 +1,101 @@
+package com.baitan.balancer.strategy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.config.BalancerConfig;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * A thread-safe implementation of the BalancingStrategy interface that prefers
+ * the less loaded of two randomly chosen services.
+ * <p>
+ * The load of a service is the load hint its backend reports on each response
+ * (see {@link ServiceStats#getLoadHint()}), plus a penalty for each request
+ * currently in flight to it across the cluster. The backend knows its own
+ * event-loop lag or queue depth far better than the balancer can infer it,
+ * while the in-flight penalty covers the requests sent since its last report.
+ * Backends that never report a hint are treated as neutrally loaded, so the
+ * in-flight counts decide between them.
+ * </p>
+ *
+ * <p>
+ * Comparing two random candidates ("power of two choices") rather than
+ * picking the global minimum keeps a burst of requests from all landing on
+ * the one backend that happened to report the lowest load, and makes every
+ * selection constant time.
+ * </p>
+ *
+ * <p>
+ * Services inside their slow-start window (see {@link SlowStartRamp}) have
+ * their load inflated by the inverse of their weight.
+ * </p>
+ *
+ * @see AbstractBalancingStrategy
+ * @see ServiceStats
+ *
+ * @author Tanish Baidya
+ */
+public class LeastLoadedStrategy extends AbstractBalancingStrategy {
+
+    private static final double IN_FLIGHT_WEIGHT = BalancerConfig.getDouble("LEAST_LOADED_IN_FLIGHT_WEIGHT", 0.1);
+
+    private final ServiceStatsRegistry statsRegistry;
+
+    /**
+     * Creates a new, empty LeastLoadedStrategy.
+     */
+    public LeastLoadedStrategy() {
+        this.statsRegistry = ServiceStatsRegistry.getInstance();
+    }
+
+    /**
+     * Retrieves the less loaded of two distinct, randomly chosen services.
+     * <p>
+     * Ties go to the first candidate. Nothing is logged here, as this runs on
+     * every request; the choice is recorded in the access log instead.
+     * </p>
+     *
+     * @return the chosen service or null if no services are available
+     */
+    @Override
+    public Service getNextService() {
+        Service[] candidates = currentServices();
+        int size = candidates.length;
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return candidates[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        Service a = candidates[first];
+        Service b = candidates[second];
+        return loadOf(b) < loadOf(a) ? b : a;
+    }
+
+    /**
+     * Returns the load used to compare a service against another.
+     *
+     * @param service the service
+     * @return the load hint plus the in-flight penalty, inflated while the
+     *         service is ramping up
+     */
+    private double loadOf(Service service) {
+        ServiceStats stats = statsRegistry.get(service);
+        double load = stats.getLoadHint() + IN_FLIGHT_WEIGHT * stats.getClusterInFlight();
+        if (slowStartRamp.isRamping()) {
+            // Keep ramping services comparable even when every hint is zero
+            load = (load + IN_FLIGHT_WEIGHT) / slowStartRamp.weightOf(service);
+        }
+        return load;
+    }
+}
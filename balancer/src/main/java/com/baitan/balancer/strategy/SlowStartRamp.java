@@ -0,0 +1,130 @@
+package com.baitan.balancer.strategy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+import com.baitan.balancer.Service;
+
+/**
+ * Tracks services that were recently admitted to a balancing strategy and
+ * ramps their effective weight from a minimum up to full over a fixed window.
+ * <p>
+ * A freshly started backend has a cold runtime and no pooled connections, so
+ * giving it a full share of traffic straight away causes a latency spike.
+ * Strategies consult {@link #shouldSkip(Service)} when a ramping service is
+ * selected and move on to another candidate with probability
+ * {@code 1 - weight}.
+ * </p>
+ *
+ * <p>
+ * The weight grows linearly with the time since admission. Once the window
+ * has elapsed the service is forgotten and no longer costs anything on the
+ * selection path. Time is read from {@link System#nanoTime()} unless another
+ * clock is set, such as the simulated time of the simulator.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class SlowStartRamp {
+
+    private final long windowNanos;
+    private final double minWeight;
+    private final Map<Service, Long> admissionTimes;
+    private volatile LongSupplier clock = System::nanoTime;
+
+    /**
+     * Creates a new SlowStartRamp.
+     *
+     * @param windowMillis the length of the ramp in milliseconds, zero or less
+     *                     disables slow start
+     * @param minWeight    the weight given to a service at the moment it is
+     *                     admitted, between 0 and 1
+     */
+    public SlowStartRamp(long windowMillis, double minWeight) {
+        this.windowNanos = Math.max(0, windowMillis) * 1_000_000L;
+        this.minWeight = Math.min(1.0, Math.max(0.0, minWeight));
+        this.admissionTimes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the clock on which the ramp runs. Services already ramping are
+     * forgotten, as their admission times were taken on the previous clock.
+     *
+     * @param clock the current time in nanoseconds
+     */
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+        admissionTimes.clear();
+    }
+
+    /**
+     * Starts the ramp for a newly admitted service.
+     *
+     * @param service the service that was just added
+     */
+    public void admit(Service service) {
+        if (windowNanos > 0) {
+            admissionTimes.put(service, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Stops tracking a service, for example because it was removed.
+     *
+     * @param service the service to forget
+     */
+    public void forget(Service service) {
+        admissionTimes.remove(service);
+    }
+
+    /**
+     * Stops tracking all services.
+     */
+    public void clear() {
+        admissionTimes.clear();
+    }
+
+    /**
+     * Returns whether any service is currently ramping. Used as a fast path so
+     * that the common case does not pay for a map lookup.
+     *
+     * @return true if at least one service is inside its slow-start window
+     */
+    public boolean isRamping() {
+        return !admissionTimes.isEmpty();
+    }
+
+    /**
+     * Returns the effective weight of a service between the minimum weight and
+     * 1.0. Services outside their window are removed from tracking.
+     *
+     * @param service the service to look up
+     * @return the effective weight of the service
+     */
+    public double weightOf(Service service) {
+        Long admittedAt = admissionTimes.get(service);
+        if (admittedAt == null) {
+            return 1.0;
+        }
+        long elapsed = clock.getAsLong() - admittedAt;
+        if (elapsed >= windowNanos) {
+            admissionTimes.remove(service, admittedAt);
+            return 1.0;
+        }
+        return minWeight + (1.0 - minWeight) * ((double) elapsed / windowNanos);
+    }
+
+    /**
+     * Decides whether a selected service should be passed over in favour of
+     * another candidate because it is still ramping up.
+     *
+     * @param service the selected service
+     * @return true if the caller should try a different service
+     */
+    public boolean shouldSkip(Service service) {
+        double weight = weightOf(service);
+        return weight < 1.0 && ThreadLocalRandom.current().nextDouble() >= weight;
+    }
+}
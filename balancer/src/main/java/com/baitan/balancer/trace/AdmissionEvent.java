@@ -0,0 +1,66 @@
+package com.baitan.balancer.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import com.baitan.balancer.executor.RequestExecutor;
+
+/**
+ * Periodic Java Flight Recorder event reporting the admission queue of the
+ * {@link RequestExecutor} and the requests it shed.
+ *
+ * @author Tanish Baidya
+ */
+@Name("com.baitan.balancer.Admission")
+@Label("Admission")
+@Category({ "Load Balancer", "Scheduling" })
+@Description("Requests waiting for and shed by the request executor")
+@StackTrace(false)
+@Period("5 s")
+public class AdmissionEvent extends jdk.jfr.Event {
+
+    @Label("Queued")
+    @Description("Requests currently waiting for a worker")
+    int queued;
+
+    @Label("Shed Queue Full")
+    @Description("Requests shed since startup because the queue was full")
+    long shedQueueFull;
+
+    @Label("Shed Queue Time")
+    @Description("Requests shed by CoDel since startup because they waited too long")
+    long shedQueueTime;
+
+    @Label("Shed Inline")
+    @Description("Requests rejected on the dispatcher thread since startup, also counted as queue full")
+    long shedInline;
+
+    @Label("Overloaded")
+    @Description("Whether the CoDel controller of the queue sheds at its target")
+    boolean overloaded;
+
+    /**
+     * Registers the periodic emission of this event for an executor. Must be
+     * called once, when the executor is created.
+     *
+     * @param executor the executor to report
+     */
+    public static void register(RequestExecutor executor) {
+        FlightRecorder.addPeriodicEvent(AdmissionEvent.class, () -> emit(executor));
+    }
+
+    private static void emit(RequestExecutor executor) {
+        AdmissionEvent event = new AdmissionEvent();
+        event.queued = executor.getQueueDepth();
+        event.shedQueueFull = executor.getShedQueueFullCount();
+        event.shedQueueTime = executor.getShedQueueTimeCount();
+        event.shedInline = executor.getShedInlineCount();
+        event.overloaded = executor.getCoDelController().isOverloaded();
+        event.commit();
+    }
+}
@@ -0,0 +1,75 @@
+package com.baitan.balancer.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import com.baitan.balancer.buffer.BufferPool;
+
+/**
+ * Periodic Java Flight Recorder event reporting the usage of the payload
+ * {@link BufferPool}s. One event is emitted per pool every period.
+ *
+ * @author Tanish Baidya
+ */
+@Name("com.baitan.balancer.BufferPool")
+@Label("Buffer Pool")
+@Category({ "Load Balancer", "Memory" })
+@Description("Usage statistics of a payload buffer pool")
+@StackTrace(false)
+@Period("5 s")
+public class BufferPoolEvent extends jdk.jfr.Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Acquisitions")
+    long acquisitions;
+
+    @Label("Thread Cache Hits")
+    long threadCacheHits;
+
+    @Label("Shared Pool Hits")
+    long sharedPoolHits;
+
+    @Label("Allocations")
+    long allocations;
+
+    @Label("Unpooled Allocations")
+    long unpooledAllocations;
+
+    @Label("Outstanding")
+    long outstanding;
+
+    @Label("Leaks")
+    long leaks;
+
+    /**
+     * Registers the periodic emission of this event for the heap pool. Must be
+     * called once at startup.
+     */
+    public static void register() {
+        FlightRecorder.addPeriodicEvent(BufferPoolEvent.class, BufferPoolEvent::emit);
+    }
+
+    private static void emit() {
+        emit(BufferPool.getHeapPool());
+    }
+
+    private static void emit(BufferPool bufferPool) {
+        BufferPoolEvent event = new BufferPoolEvent();
+        event.pool = bufferPool.getName();
+        event.acquisitions = bufferPool.getAcquisitions();
+        event.threadCacheHits = bufferPool.getThreadCacheHits();
+        event.sharedPoolHits = bufferPool.getSharedPoolHits();
+        event.allocations = bufferPool.getAllocations();
+        event.unpooledAllocations = bufferPool.getUnpooledAllocations();
+        event.outstanding = bufferPool.getOutstanding();
+        event.leaks = bufferPool.getLeaks();
+        event.commit();
+    }
+}
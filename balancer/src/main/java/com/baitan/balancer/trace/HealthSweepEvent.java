@@ -0,0 +1,28 @@
+package com.baitan.balancer.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted for every health sweep performed by the
+ * {@link com.baitan.balancer.health.HealthChecker}. The event duration covers
+ * the Docker listing and all health probes.
+ *
+ * @author Tanish Baidya
+ */
+@Name("com.baitan.balancer.HealthSweep")
+@Label("Health Sweep")
+@Category({ "Load Balancer", "Health" })
+@Description("Discovery and health probing of the backend services")
+@StackTrace(false)
+public class HealthSweepEvent extends jdk.jfr.Event {
+
+    @Label("Discovered Services")
+    public int discoveredServices;
+
+    @Label("Healthy Services")
+    public int healthyServices;
+}
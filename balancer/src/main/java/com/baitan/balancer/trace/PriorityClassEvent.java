@@ -0,0 +1,68 @@
+package com.baitan.balancer.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import com.baitan.balancer.priority.PriorityClass;
+import com.baitan.balancer.priority.WeightedFairScheduler;
+
+/**
+ * Periodic Java Flight Recorder event reporting the requests served and shed
+ * in each {@link PriorityClass}. One event is emitted per class every period.
+ *
+ * @author Tanish Baidya
+ */
+@Name("com.baitan.balancer.PriorityClass")
+@Label("Priority Class")
+@Category({ "Load Balancer", "Scheduling" })
+@Description("Requests served, shed and waiting in a priority class")
+@StackTrace(false)
+@Period("5 s")
+public class PriorityClassEvent extends jdk.jfr.Event {
+
+    @Label("Class")
+    String priorityClass;
+
+    @Label("Served")
+    @Description("Requests granted a slot since startup")
+    long served;
+
+    @Label("Shed")
+    @Description("Requests rejected, displaced or shed by CoDel since startup")
+    long shed;
+
+    @Label("Queued")
+    @Description("Requests currently waiting for a slot")
+    int queued;
+
+    @Label("Overloaded")
+    @Description("Whether the CoDel controller of the class sheds at its target")
+    boolean overloaded;
+
+    /**
+     * Registers the periodic emission of this event for the classes of a
+     * scheduler. Must be called once, when the scheduler is set up.
+     *
+     * @param scheduler the scheduler whose classes are reported
+     */
+    public static void register(WeightedFairScheduler scheduler) {
+        FlightRecorder.addPeriodicEvent(PriorityClassEvent.class, () -> emit(scheduler));
+    }
+
+    private static void emit(WeightedFairScheduler scheduler) {
+        for (PriorityClass priorityClass : scheduler.getClasses()) {
+            PriorityClassEvent event = new PriorityClassEvent();
+            event.priorityClass = priorityClass.getName();
+            event.served = priorityClass.getServedCount();
+            event.shed = priorityClass.getShedCount();
+            event.queued = scheduler.getQueueDepth(priorityClass);
+            event.overloaded = priorityClass.getCoDelController().isOverloaded();
+            event.commit();
+        }
+    }
+}
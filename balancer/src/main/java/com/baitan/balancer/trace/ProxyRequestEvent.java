@@ -0,0 +1,82 @@
+package com.baitan.balancer.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event emitted once per proxied request with the time
+ * spent in each phase of the proxy path.
+ * <p>
+ * Stack traces are disabled so the event stays cheap enough to be left on in
+ * production. Enable it with
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}.
+ * </p>
+ *
+ * @see RequestTrace
+ *
+ * @author Tanish Baidya
+ */
+@Name("com.baitan.balancer.ProxyRequest")
+@Label("Proxy Request")
+@Category({ "Load Balancer", "Proxy" })
+@Description("Per-request latency breakdown of the proxy path")
+@StackTrace(false)
+public class ProxyRequestEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Path")
+    String path;
+
+    @Label("Backend")
+    String backend;
+
+    @Label("Priority Class")
+    String priorityClass;
+
+    @Label("Status")
+    int status;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Queue Wait")
+    @Description("Time spent in the executor queue, and in the priority class queue if any, "
+            + "before a worker picked up the request")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+
+    @Label("Selection")
+    @Description("Time spent choosing a backend in BalancingStrategy.getNextService")
+    @Timespan(Timespan.NANOSECONDS)
+    long selection;
+
+    @Label("Time To First Byte")
+    @Description("Time from sending the upstream request until the response headers arrived, "
+            + "including connect or pool acquire")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeToFirstByte;
+
+    @Label("Body Transfer")
+    @Description("Time spent reading the response body from the backend")
+    @Timespan(Timespan.NANOSECONDS)
+    long bodyTransfer;
+
+    @Label("Client Write")
+    @Description("Time spent writing the response to the client")
+    @Timespan(Timespan.NANOSECONDS)
+    long clientWrite;
+
+    @Label("Allocated")
+    @Description("Heap bytes allocated by the worker thread while handling the request, "
+            + "excluding allocations made on HttpClient threads")
+    @DataAmount
+    long allocated;
+}
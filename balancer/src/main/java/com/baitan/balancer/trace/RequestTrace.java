@@ -0,0 +1,259 @@
+package com.baitan.balancer.trace;
+
+import java.lang.management.ManagementFactory;
+
+import com.baitan.balancer.Service;
+import com.sun.management.ThreadMXBean;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Collects the time spent in each phase of a single proxied request.
+ * <p>
+ * A trace is created by the proxy handler when it starts working on a request
+ * and is passed along the proxy path. Each component marks the end of its
+ * phase, and the time since the previous mark is attributed to that phase.
+ * When the request is finished, {@link #commit(HttpExchange)} emits a
+ * {@link ProxyRequestEvent} if the event is enabled in the running Flight
+ * Recorder.
+ * </p>
+ *
+ * <p>
+ * While the event is enabled, the heap bytes allocated by the worker thread
+ * between the start of the trace and its commit are recorded as well, so
+ * allocation creeping into the request path shows up per request in a
+ * recording rather than only as GC pressure.
+ * </p>
+ *
+ * <p>
+ * Connection acquisition is not reported on its own because
+ * {@link java.net.http.HttpClient} does not expose it; it is included in the
+ * time to first byte.
+ * </p>
+ *
+ * <p>
+ * A trace is used by one thread at a time and is not thread-safe. A request
+ * scheduled by priority class moves to a worker thread once it is granted a
+ * slot, and the allocation count restarts on that thread.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public class RequestTrace {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = allocationCountingBean();
+
+    private final ProxyRequestEvent event;
+    private long queueWaitNanos;
+    private long allocatedAtStart;
+    private String priorityClass;
+    private long lastMark;
+
+    private long selectionNanos;
+    private long timeToFirstByteNanos;
+    private long bodyTransferNanos;
+    private long clientWriteNanos;
+
+    private Service backend;
+    private int status;
+    private long responseBytes;
+
+    /**
+     * Starts a new trace.
+     *
+     * @param queueWaitNanos the time the request spent in the executor queue
+     */
+    public RequestTrace(long queueWaitNanos) {
+        this.event = new ProxyRequestEvent();
+        this.event.begin();
+        this.queueWaitNanos = queueWaitNanos;
+        this.allocatedAtStart = currentThreadAllocatedBytes();
+        this.lastMark = System.nanoTime();
+    }
+
+    private static ThreadMXBean allocationCountingBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+            return bean;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the
+     * event is disabled or the JVM does not count them. Only read while the
+     * event is enabled, so tracing costs nothing extra otherwise.
+     */
+    private long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN == null || !event.isEnabled() ? -1 : THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    private long elapsedSinceLastMark() {
+        long now = System.nanoTime();
+        long elapsed = now - lastMark;
+        lastMark = now;
+        return elapsed;
+    }
+
+    /**
+     * Records the priority class of the request and how long it waited in the
+     * queue of its class for a slot. The wait is added to the queue wait.
+     * Must be called on the thread that goes on to proxy the request, where
+     * the allocation count restarts.
+     *
+     * @param priorityClass  the name of the priority class of the request
+     * @param queueWaitNanos the time the request spent in the class queue
+     */
+    public void scheduled(String priorityClass, long queueWaitNanos) {
+        this.priorityClass = priorityClass;
+        this.queueWaitNanos += queueWaitNanos;
+        this.allocatedAtStart = currentThreadAllocatedBytes();
+        this.lastMark = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of backend selection.
+     *
+     * @param backend the selected backend, or null if none was available
+     */
+    public void selectionDone(Service backend) {
+        this.selectionNanos = elapsedSinceLastMark();
+        this.backend = backend;
+    }
+
+    /**
+     * Marks the arrival of the upstream response headers.
+     *
+     * @param status the status code returned by the backend
+     */
+    public void firstByteReceived(int status) {
+        this.timeToFirstByteNanos = elapsedSinceLastMark();
+        this.status = status;
+    }
+
+    /**
+     * Records a response body that was streamed from the backend to the client
+     * chunk by chunk, where reading and writing interleave. The read and write
+     * times are attributed to the body transfer and client write phases.
+     *
+     * @param bodyTransferNanos the total time spent reading from the backend
+     * @param clientWriteNanos  the total time spent writing to the client
+     * @param bytes             the number of body bytes copied
+     */
+    public void responseStreamed(long bodyTransferNanos, long clientWriteNanos, long bytes) {
+        this.bodyTransferNanos = bodyTransferNanos;
+        this.clientWriteNanos = clientWriteNanos;
+        this.responseBytes = bytes;
+        this.lastMark = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of writing the response to the client. Time since the
+     * previous mark is added to the client write phase.
+     *
+     * @param status the status code sent to the client
+     */
+    public void clientWritten(int status) {
+        this.clientWriteNanos += elapsedSinceLastMark();
+        this.status = status;
+    }
+
+    /**
+     * Returns the time the request spent in the executor queue.
+     *
+     * @return the queue wait in nanoseconds
+     */
+    public long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    /**
+     * Returns the time spent selecting a backend.
+     *
+     * @return the selection time in nanoseconds
+     */
+    public long getSelectionNanos() {
+        return selectionNanos;
+    }
+
+    /**
+     * Returns the time until the upstream response headers arrived.
+     *
+     * @return the time to first byte in nanoseconds
+     */
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    /**
+     * Returns the time spent reading the upstream response body.
+     *
+     * @return the body transfer time in nanoseconds
+     */
+    public long getBodyTransferNanos() {
+        return bodyTransferNanos;
+    }
+
+    /**
+     * Returns the time spent writing the response to the client.
+     *
+     * @return the client write time in nanoseconds
+     */
+    public long getClientWriteNanos() {
+        return clientWriteNanos;
+    }
+
+    /**
+     * Returns the backend selected for the request.
+     *
+     * @return the selected backend, or null if none was available
+     */
+    public Service getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the status code of the response.
+     *
+     * @return the status code, or 0 if no response was produced
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of response body bytes read from the backend.
+     *
+     * @return the response size in bytes
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Finishes the trace and emits a {@link ProxyRequestEvent} if the event is
+     * enabled. When Flight Recorder is not recording, this costs little more
+     * than a branch.
+     *
+     * @param exchange the exchange the trace belongs to
+     */
+    public void commit(HttpExchange exchange) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.method = exchange.getRequestMethod();
+        event.path = exchange.getRequestURI().getPath();
+        event.backend = backend == null ? null : backend.getHost() + ":" + backend.getPort();
+        event.priorityClass = priorityClass;
+        event.status = status;
+        event.responseBytes = responseBytes;
+        event.queueWait = queueWaitNanos;
+        event.selection = selectionNanos;
+        event.timeToFirstByte = timeToFirstByteNanos;
+        event.bodyTransfer = bodyTransferNanos;
+        event.clientWrite = clientWriteNanos;
+        long allocatedAtEnd = currentThreadAllocatedBytes();
+        event.allocated = allocatedAtStart < 0 || allocatedAtEnd < 0 ? 0 : allocatedAtEnd - allocatedAtStart;
+        event.commit();
+    }
+}
@@ -0,0 +1,83 @@
+package com.baitan.balancer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures the heap bytes a hot path allocates per operation on the calling
+ * thread, for the allocation-budget tests.
+ * <p>
+ * The operation is first run often enough for the JIT to compile it with
+ * escape analysis, so the measurement reflects steady state rather than the
+ * interpreter. Allocation is read through
+ * {@link ThreadMXBean#getCurrentThreadAllocatedBytes()}, which counts every
+ * allocation of the calling thread, including those of the JDK.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+public final class AllocationMeter {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * An operation whose allocation is measured.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Warms up an operation, then returns the mean number of bytes it
+     * allocates per run.
+     *
+     * @param warmUpRuns the number of runs before measuring
+     * @param runs       the number of measured runs
+     * @param operation  the operation
+     * @return the mean allocation in bytes per run
+     * @throws Exception if the operation fails
+     */
+    public static double bytesPerRun(int warmUpRuns, int runs, Operation operation) throws Exception {
+        assumeTrue(THREAD_MX_BEAN.isThreadAllocatedMemorySupported() && THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled(),
+                "The JVM does not count allocated bytes per thread");
+        for (int i = 0; i < warmUpRuns; i++) {
+            operation.run();
+        }
+        long before = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            operation.run();
+        }
+        return (double) (THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - before) / runs;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread.
+     *
+     * @return the allocated bytes
+     */
+    public static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Fails if a path allocated more than its budget. The mean is compared in
+     * whole bytes, so a one-off allocation during a long measurement, such as
+     * a lazily initialized JDK structure, does not fail a zero budget.
+     *
+     * @param path        the name of the path, for the failure message
+     * @param budgetBytes the allowed allocation in bytes per run
+     * @param bytesPerRun the measured allocation in bytes per run
+     */
+    public static void assertWithinBudget(String path, long budgetBytes, double bytesPerRun) {
+        assertTrue(Math.floor(bytesPerRun) <= budgetBytes, String.format(
+                "%s allocates %.1f bytes per run, over its budget of %d bytes", path, bytesPerRun, budgetBytes));
+    }
+}
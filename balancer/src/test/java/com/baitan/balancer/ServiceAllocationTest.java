@@ -0,0 +1,113 @@
+package com.baitan.balancer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.net.ssl.SSLSession;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+import com.baitan.balancer.trace.RequestTrace;
+
+/**
+ * Allocation budgets of the per-request work {@link Service} does around the
+ * upstream call: building the upstream URI, reading the response headers and
+ * copying the response body to the client.
+ *
+ * @author Tanish Baidya
+ */
+class ServiceAllocationTest {
+
+    private static final int WARM_UP_RUNS = 100_000;
+    private static final int RUNS = 200_000;
+
+    // The resolved URI itself, about 80 bytes today
+    private static final long UPSTREAM_URI_BUDGET_BYTES = 128;
+    // The Optionals of HttpHeaders lookups and the parsed load hint, about 420 bytes today
+    private static final long RESPONSE_HEADERS_BUDGET_BYTES = 640;
+    // The copy buffer comes from the pool
+    private static final long BODY_COPY_BUDGET_BYTES = 0;
+
+    private final Service service = new Service("127.0.0.1", 3000);
+    // Keeps results reachable, so that the JIT cannot drop the work that produced them
+    private Object sink;
+
+    @Test
+    void upstreamUriStaysWithinBudget() throws Exception {
+        URI requestUri = URI.create("/api/users/42?expand=orders");
+        double bytesPerRun = AllocationMeter.bytesPerRun(WARM_UP_RUNS, RUNS, () -> {
+            sink = service.upstreamUri(requestUri);
+        });
+        AllocationMeter.assertWithinBudget("upstreamUri", UPSTREAM_URI_BUDGET_BYTES, bytesPerRun);
+    }
+
+    @Test
+    void responseHeaderHandlingStaysWithinBudget() throws Exception {
+        ServiceStats stats = ServiceStatsRegistry.getInstance().get(service);
+        HttpResponse<InputStream> response = new StubResponse(200, HttpHeaders.of(Map.of(
+                "Content-Length", List.of("1024"),
+                "Content-Type", List.of("application/json"),
+                "X-Backend-Load", List.of("0.25")), (name, value) -> true), InputStream.nullInputStream());
+        double bytesPerRun = AllocationMeter.bytesPerRun(WARM_UP_RUNS, RUNS, () -> {
+            Service.recordLoadHint(stats, response);
+            long responseLength = Service.getResponseLength("GET", response);
+            sink = Service.shouldSpool(response, responseLength);
+        });
+        AllocationMeter.assertWithinBudget("response header handling", RESPONSE_HEADERS_BUDGET_BYTES, bytesPerRun);
+    }
+
+    @Test
+    void bodyCopyStaysWithinBudget() throws Exception {
+        ByteArrayInputStream body = new ByteArrayInputStream(new byte[64 * 1024]);
+        OutputStream out = OutputStream.nullOutputStream();
+        RequestTrace trace = new RequestTrace(0);
+        double bytesPerRun = AllocationMeter.bytesPerRun(WARM_UP_RUNS / 10, RUNS / 10, () -> {
+            body.reset();
+            Service.copyResponseBody(body, out, trace, 0, 0, 0);
+        });
+        AllocationMeter.assertWithinBudget("response body copy", BODY_COPY_BUDGET_BYTES, bytesPerRun);
+    }
+
+    /**
+     * An upstream response carrying fixed headers and body.
+     */
+    private record StubResponse(int statusCode, HttpHeaders headers, InputStream body)
+            implements HttpResponse<InputStream> {
+
+        @Override
+        public HttpRequest request() {
+            return null;
+        }
+
+        @Override
+        public Optional<HttpResponse<InputStream>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return null;
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
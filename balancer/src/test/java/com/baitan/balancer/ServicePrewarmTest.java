@@ -0,0 +1,70 @@
+package com.baitan.balancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+import com.baitan.balancer.routing.BackendPools;
+import com.baitan.balancer.routing.RouteTable;
+import com.baitan.balancer.strategy.ConcurrentRoundRobinStrategy;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that {@link Service#prewarm(int)} opens connections through the
+ * upstream client of every route leading to the service's pool. Each client
+ * has its own connection pool, so each warm-up request arrives on its own
+ * connection.
+ *
+ * @author Tanish Baidya
+ */
+class ServicePrewarmTest {
+
+    private HttpServer backend;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private CountDownLatch requests;
+
+    @BeforeEach
+    void startBackend() throws IOException {
+        backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        backend.createContext("/health", exchange -> {
+            try (exchange) {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                exchange.sendResponseHeaders(200, -1);
+            }
+            requests.countDown();
+        });
+        backend.start();
+    }
+
+    @AfterEach
+    void stopBackend() {
+        backend.stop(0);
+    }
+
+    @Test
+    void warmsTheClientOfEveryRouteToThePool() throws InterruptedException {
+        BackendPools pools = new BackendPools(new ConcurrentRoundRobinStrategy(), ConcurrentRoundRobinStrategy::new);
+        new RouteTable("/fast=prewarm-test@701/2000/5000;/slow=prewarm-test@702/9000/20000;"
+                + "/other=prewarm-test;/admin=prewarm-other@704/2000/5000", pools,
+                new UpstreamTimeouts(703, 5_000, 30_000));
+
+        requests = new CountDownLatch(3);
+        new Service("127.0.0.1", backend.getAddress().getPort(), "prewarm-test").prewarm(1);
+
+        assertTrue(requests.await(5, TimeUnit.SECONDS));
+        // No client of another pool is used
+        Thread.sleep(200);
+        assertEquals(3, clientPorts.size());
+    }
+}
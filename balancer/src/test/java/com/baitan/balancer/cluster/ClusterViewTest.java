@@ -0,0 +1,118 @@
+package com.baitan.balancer.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.stats.ServiceStats;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * Tests of how a {@link ClusterView} adopts peer verdicts and load, expires
+ * silent peers and divides probing between the nodes.
+ *
+ * @author Tanish Baidya
+ */
+class ClusterViewTest {
+
+    private static final long PEER_TIMEOUT_MS = 60_000;
+    private static final long VERDICT_MAX_AGE_MS = 120_000;
+
+    private final ServiceStatsRegistry registry = ServiceStatsRegistry.getInstance();
+
+    @Test
+    void adoptsTheLatestFreshPeerVerdict() {
+        ClusterView view = view("node-a", PEER_TIMEOUT_MS);
+        Service service = new Service("cluster-view-verdict", 8080);
+        long now = System.currentTimeMillis();
+
+        view.merge(message("node-b", entry(service, GossipMessage.VERDICT_HEALTHY, now - 1_000, 0, 0)));
+        assertEquals(Boolean.TRUE, view.getPeerVerdict(service));
+
+        view.merge(message("node-c", entry(service, GossipMessage.VERDICT_UNHEALTHY, now, 0, 0)));
+        assertEquals(Boolean.FALSE, view.getPeerVerdict(service));
+    }
+
+    @Test
+    void ignoresStaleUnknownAndOwnVerdicts() {
+        ClusterView view = view("node-a", PEER_TIMEOUT_MS);
+        Service stale = new Service("cluster-view-stale", 8080);
+        Service unknown = new Service("cluster-view-unknown", 8080);
+        Service own = new Service("cluster-view-own", 8080);
+        long now = System.currentTimeMillis();
+
+        view.merge(message("node-b", entry(stale, GossipMessage.VERDICT_HEALTHY, now - VERDICT_MAX_AGE_MS - 1_000,
+                0, 0), entry(unknown, GossipMessage.VERDICT_UNKNOWN, 0, 0, 0)));
+        view.merge(message("node-a", entry(own, GossipMessage.VERDICT_HEALTHY, now, 0, 0)));
+
+        assertNull(view.getPeerVerdict(stale));
+        assertNull(view.getPeerVerdict(unknown));
+        assertNull(view.getPeerVerdict(own));
+    }
+
+    @Test
+    void foldsPeerLoadIntoStatsUntilThePeerExpires() throws InterruptedException {
+        ClusterView view = view("node-a", 50);
+        Service service = new Service("cluster-view-load", 8080);
+        ServiceStats stats = registry.get(service);
+
+        view.merge(message("node-b", entry(service, GossipMessage.VERDICT_HEALTHY, System.currentTimeMillis(), 5,
+                2_000)));
+        assertEquals(5, stats.getClusterInFlight());
+        // This node has no latency of its own for the service yet, so it starts from the peer's
+        assertEquals(2_000_000.0, stats.getLatencyEwmaNanos());
+
+        Thread.sleep(100);
+        assertNull(view.getPeerVerdict(service));
+        view.expirePeers();
+        assertEquals(0, stats.getClusterInFlight());
+        assertTrue(view.isProbeOwner(service));
+    }
+
+    @Test
+    void ignoresLoadForServicesThisNodeDoesNotKnow() {
+        ClusterView view = view("node-a", PEER_TIMEOUT_MS);
+        Service service = new Service("cluster-view-unknown-load", 8080);
+
+        view.merge(message("node-b", entry(service, GossipMessage.VERDICT_HEALTHY, System.currentTimeMillis(), 5,
+                2_000)));
+        assertNull(registry.find(service));
+    }
+
+    @Test
+    void everyServiceHasExactlyOneProbeOwner() {
+        ClusterView a = view("node-a", PEER_TIMEOUT_MS);
+        ClusterView b = view("node-b", PEER_TIMEOUT_MS);
+        a.merge(message("node-b"));
+        b.merge(message("node-a"));
+
+        int ownedByA = 0;
+        for (int port = 1; port <= 100; port++) {
+            Service service = new Service("cluster-view-owner", port);
+            assertNotEquals(a.isProbeOwner(service), b.isProbeOwner(service));
+            if (a.isProbeOwner(service)) {
+                ownedByA++;
+            }
+        }
+        assertTrue(ownedByA > 0 && ownedByA < 100);
+    }
+
+    private ClusterView view(String nodeId, long peerTimeoutMillis) {
+        return new ClusterView(nodeId, peerTimeoutMillis, VERDICT_MAX_AGE_MS, registry);
+    }
+
+    private static GossipMessage message(String nodeId, GossipMessage.Entry... entries) {
+        return new GossipMessage(nodeId, List.of(entries));
+    }
+
+    private static GossipMessage.Entry entry(Service service, byte verdict, long observedAtMillis, int inFlight,
+            long latencyEwmaMicros) {
+        return new GossipMessage.Entry(service, verdict, observedAtMillis, inFlight, latencyEwmaMicros);
+    }
+}
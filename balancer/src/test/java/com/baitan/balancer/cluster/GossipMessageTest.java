@@ -0,0 +1,133 @@
+package com.baitan.balancer.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.Service;
+
+/**
+ * Tests of the binary gossip format: encoding and decoding, splitting a large
+ * view across datagrams, and rejecting malformed input.
+ *
+ * @author Tanish Baidya
+ */
+class GossipMessageTest {
+
+    private static final int MAX_DATAGRAM_SIZE = 1400;
+
+    @Test
+    void decodesWhatWasEncoded() {
+        GossipMessage.Entry healthy = new GossipMessage.Entry(new Service("backend-1", 8081),
+                GossipMessage.VERDICT_HEALTHY, 1_700_000_000_000L, 12, 3_500);
+        GossipMessage.Entry unknown = new GossipMessage.Entry(new Service("backend-2", 8082),
+                GossipMessage.VERDICT_UNKNOWN, 0, 0, 0);
+
+        List<ByteBuffer> datagrams = GossipMessage.encode("node-a:7946", List.of(healthy, unknown));
+        assertEquals(1, datagrams.size());
+
+        GossipMessage message = GossipMessage.decode(datagrams.get(0));
+        assertNotNull(message);
+        assertEquals("node-a:7946", message.getNodeId());
+        assertEquals(2, message.getEntries().size());
+        GossipMessage.Entry decoded = message.getEntries().get(0);
+        assertEquals(new Service("backend-1", 8081), decoded.getService());
+        assertEquals(GossipMessage.VERDICT_HEALTHY, decoded.getVerdict());
+        assertEquals(1_700_000_000_000L, decoded.getObservedAtMillis());
+        assertEquals(12, decoded.getInFlight());
+        assertEquals(3_500, decoded.getLatencyEwmaMicros());
+        assertEquals(GossipMessage.VERDICT_UNKNOWN, message.getEntries().get(1).getVerdict());
+    }
+
+    @Test
+    void encodesAnEmptyViewAsHeartbeat() {
+        List<ByteBuffer> datagrams = GossipMessage.encode("node-a", List.of());
+        assertEquals(1, datagrams.size());
+        GossipMessage message = GossipMessage.decode(datagrams.get(0));
+        assertNotNull(message);
+        assertTrue(message.getEntries().isEmpty());
+    }
+
+    @Test
+    void splitsLargeViewsAcrossDatagrams() {
+        List<GossipMessage.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(new GossipMessage.Entry(new Service("backend-" + i + ".example.internal", 8000 + i),
+                    GossipMessage.VERDICT_HEALTHY, i, i, i));
+        }
+
+        List<ByteBuffer> datagrams = GossipMessage.encode("node-a", entries);
+        assertTrue(datagrams.size() > 1);
+
+        Set<Service> decoded = new HashSet<>();
+        for (ByteBuffer datagram : datagrams) {
+            assertTrue(datagram.remaining() <= MAX_DATAGRAM_SIZE);
+            GossipMessage message = GossipMessage.decode(datagram);
+            assertNotNull(message);
+            assertEquals("node-a", message.getNodeId());
+            message.getEntries().forEach(entry -> decoded.add(entry.getService()));
+        }
+        assertEquals(entries.size(), decoded.size());
+    }
+
+    @Test
+    void skipsHostsThatCanNeverFit() {
+        GossipMessage.Entry huge = new GossipMessage.Entry(new Service("h".repeat(2_000), 80),
+                GossipMessage.VERDICT_HEALTHY, 1, 0, 0);
+        GossipMessage.Entry small = new GossipMessage.Entry(new Service("backend-1", 8081),
+                GossipMessage.VERDICT_HEALTHY, 1, 0, 0);
+
+        List<ByteBuffer> datagrams = GossipMessage.encode("node-a", List.of(huge, small));
+        assertEquals(1, datagrams.size());
+        GossipMessage message = GossipMessage.decode(datagrams.get(0));
+        assertNotNull(message);
+        assertEquals(List.of(new Service("backend-1", 8081)),
+                message.getEntries().stream().map(GossipMessage.Entry::getService).toList());
+    }
+
+    @Test
+    void rejectsNodeIdsTooLongForADatagram() {
+        String nodeId = "n".repeat(1_500);
+        assertThrows(IllegalArgumentException.class, () -> GossipMessage.checkNodeId(nodeId));
+        assertThrows(IllegalArgumentException.class, () -> GossipMessage.encode(nodeId, List.of()));
+    }
+
+    @Test
+    void ignoresMalformedDatagrams() {
+        ByteBuffer valid = GossipMessage.encode("node-a", List.of(new GossipMessage.Entry(
+                new Service("backend-1", 8081), GossipMessage.VERDICT_HEALTHY, 1, 0, 0))).get(0);
+        byte[] bytes = new byte[valid.remaining()];
+        valid.get(bytes);
+
+        assertNull(GossipMessage.decode(ByteBuffer.allocate(0)));
+        assertNull(GossipMessage.decode(ByteBuffer.wrap("not gossip at all".getBytes())));
+
+        byte[] wrongVersion = bytes.clone();
+        wrongVersion[4] = 99;
+        assertNull(GossipMessage.decode(ByteBuffer.wrap(wrongVersion)));
+
+        for (int length = 1; length < bytes.length; length++) {
+            assertNull(GossipMessage.decode(ByteBuffer.wrap(bytes, 0, length)), "truncated to " + length);
+        }
+
+        // The entry count sits right after the magic, the version and the node id
+        int countPosition = Integer.BYTES + Byte.BYTES + Short.BYTES + "node-a".length();
+        ByteBuffer inflatedCount = ByteBuffer.wrap(bytes.clone());
+        inflatedCount.putShort(countPosition, (short) 0x7FFF);
+        assertNull(GossipMessage.decode(inflatedCount));
+
+        ByteBuffer inflatedHostLength = ByteBuffer.wrap(bytes.clone());
+        inflatedHostLength.putShort(countPosition + Short.BYTES, (short) 0x7FFF);
+        assertNull(GossipMessage.decode(inflatedHostLength));
+    }
+}
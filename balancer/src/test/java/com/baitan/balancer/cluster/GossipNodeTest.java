@@ -0,0 +1,78 @@
+package com.baitan.balancer.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.Service;
+import com.baitan.balancer.stats.ServiceStatsRegistry;
+
+/**
+ * Tests of two gossip nodes exchanging verdicts over the loopback interface.
+ *
+ * @author Tanish Baidya
+ */
+class GossipNodeTest {
+
+    private static final long GOSSIP_INTERVAL_MS = 20;
+    private static final long WAIT_MS = 5_000;
+
+    private GossipNode sender;
+    private GossipNode receiver;
+
+    @AfterEach
+    void closeNodes() throws IOException {
+        if (sender != null) {
+            sender.close();
+        }
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    void peersLearnVerdictsPastAnUnreachablePeer() throws Exception {
+        int senderPort = freePort();
+        int receiverPort = freePort();
+        Service service = new Service("gossip-node-backend", 8080);
+        ClusterView senderView = view("node-a");
+        ClusterView receiverView = view("node-b");
+        senderView.recordLocalVerdict(service, true);
+
+        // Sending to the broadcast address without SO_BROADCAST fails, and must not stop the round
+        sender = new GossipNode(senderView, senderPort,
+                List.of("255.255.255.255:" + receiverPort, "127.0.0.1:" + receiverPort), GOSSIP_INTERVAL_MS);
+        receiver = new GossipNode(receiverView, receiverPort, List.of(), GOSSIP_INTERVAL_MS);
+        receiver.start();
+        sender.start();
+
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (receiverView.getPeerVerdict(service) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(GOSSIP_INTERVAL_MS);
+        }
+        assertEquals(Boolean.TRUE, receiverView.getPeerVerdict(service));
+    }
+
+    @Test
+    void rejectsNodeIdsTooLongForADatagram() {
+        ClusterView view = view("n".repeat(1_500));
+        assertThrows(IllegalArgumentException.class, () -> new GossipNode(view, 0, List.of(), GOSSIP_INTERVAL_MS));
+    }
+
+    private static ClusterView view(String nodeId) {
+        return new ClusterView(nodeId, 60_000, 120_000, ServiceStatsRegistry.getInstance());
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
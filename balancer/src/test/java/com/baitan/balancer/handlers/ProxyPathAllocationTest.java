@@ -0,0 +1,203 @@
+package com.baitan.balancer.handlers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.AllocationMeter;
+import com.baitan.balancer.Service;
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+import com.baitan.balancer.routing.BackendPools;
+import com.baitan.balancer.routing.RouteTable;
+import com.baitan.balancer.strategy.ConcurrentRoundRobinStrategy;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Allocation budget of the whole proxy path, {@link ProxyHandler} through the
+ * balancing strategy to {@link Service#routeRequest}, against a backend
+ * running in the same JVM.
+ * <p>
+ * The handler is called on the test thread with a reusable client exchange,
+ * so the measurement covers everything the request thread allocates,
+ * including the upstream call, but not what the HTTP client allocates on its
+ * own threads.
+ * </p>
+ *
+ * @author Tanish Baidya
+ */
+class ProxyPathAllocationTest {
+
+    private static final int WARM_UP_REQUESTS = 2_000;
+    private static final int REQUESTS = 2_000;
+    private static final byte[] BODY = new byte[4 * 1024];
+
+    // The upstream HttpRequest and HttpResponse, their headers and futures, about 15 KB today
+    private static final long PROXY_PATH_BUDGET_BYTES = 24 * 1024;
+
+    private HttpServer backend;
+    private ProxyHandler proxy;
+
+    @BeforeEach
+    void startBackend() throws IOException {
+        backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        backend.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(200, BODY.length);
+                exchange.getResponseBody().write(BODY);
+            }
+        });
+        backend.start();
+
+        BackendPools pools = new BackendPools(new ConcurrentRoundRobinStrategy(), ConcurrentRoundRobinStrategy::new);
+        pools.getDefaultPool().getBalancingStrategy()
+                .addServices(new Service("127.0.0.1", backend.getAddress().getPort()));
+        proxy = new ProxyHandler(new RouteTable("", pools, UpstreamTimeouts.getDefaults()));
+    }
+
+    @AfterEach
+    void stopBackend() {
+        backend.stop(0);
+    }
+
+    @Test
+    void proxyPathStaysWithinBudget() throws Exception {
+        ClientExchange exchange = new ClientExchange(URI.create("/api/users/42"));
+        double bytesPerRun = AllocationMeter.bytesPerRun(WARM_UP_REQUESTS, REQUESTS, () -> {
+            exchange.reset();
+            proxy.handle(exchange);
+            assertEquals(200, exchange.getResponseCode());
+            assertEquals(BODY.length, exchange.bodyBytes);
+        });
+        AllocationMeter.assertWithinBudget("proxy path", PROXY_PATH_BUDGET_BYTES, bytesPerRun);
+    }
+
+    /**
+     * A GET request from a client, answered into a discarding body. The
+     * exchange is reset and reused for every request, so that it does not
+     * count against the budget.
+     */
+    private static final class ClientExchange extends HttpExchange {
+
+        private final URI requestUri;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private final OutputStream responseBody = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bodyBytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bodyBytes += len;
+            }
+        };
+        private int responseCode;
+        private long bodyBytes;
+
+        ClientExchange(URI requestUri) {
+            this.requestUri = requestUri;
+            requestHeaders.set("Host", "127.0.0.1");
+        }
+
+        void reset() {
+            responseHeaders.clear();
+            responseCode = -1;
+            bodyBytes = 0;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return requestUri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return responseBody;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) {
+            responseCode = rCode;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
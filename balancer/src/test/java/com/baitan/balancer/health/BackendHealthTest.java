@@ -0,0 +1,160 @@
+package com.baitan.balancer.health;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.health.BackendHealth.State;
+
+/**
+ * Tests of the rise/fall hysteresis of {@link BackendHealth} and of the probe
+ * intervals {@link ProbeSchedule} derives from its states, driven by
+ * sequences of probe results.
+ *
+ * @author Tanish Baidya
+ */
+class BackendHealthTest {
+
+    private static final int RISE = 2;
+    private static final int FALL = 3;
+    private static final long STABLE_MS = 60_000;
+    private static final long FAST_MS = 2_000;
+    private static final long UNHEALTHY_MS = 10_000;
+
+    @Test
+    void firstProbeDecidesTheState() {
+        BackendHealth passing = new BackendHealth(RISE, FALL);
+        assertNull(passing.getState());
+        assertFalse(passing.isInRotation());
+        assertTrue(passing.record(true));
+        assertEquals(State.HEALTHY, passing.getState());
+
+        BackendHealth failing = new BackendHealth(RISE, FALL);
+        assertFalse(failing.record(false));
+        assertEquals(State.UNHEALTHY, failing.getState());
+    }
+
+    @Test
+    void leavesRotationOnlyAfterFallConsecutiveFailures() {
+        BackendHealth health = healthy();
+
+        assertEquals(List.of(State.SUSPECT, State.SUSPECT, State.HEALTHY, State.SUSPECT, State.SUSPECT),
+                probe(health, false, false, true, false, false));
+        assertTrue(health.isInRotation());
+
+        assertTrue(health.record(false));
+        assertEquals(State.UNHEALTHY, health.getState());
+        assertFalse(health.isInRotation());
+    }
+
+    @Test
+    void rejoinsRotationOnlyAfterRiseConsecutiveSuccesses() {
+        BackendHealth health = new BackendHealth(RISE, FALL);
+        health.record(false);
+
+        assertEquals(List.of(State.RECOVERING, State.UNHEALTHY, State.RECOVERING),
+                probe(health, true, false, true));
+        assertFalse(health.isInRotation());
+
+        assertTrue(health.record(true));
+        assertEquals(State.HEALTHY, health.getState());
+    }
+
+    @Test
+    void thresholdsAreAtLeastOne() {
+        BackendHealth health = new BackendHealth(0, 0);
+        health.record(true);
+        assertTrue(health.record(false));
+        assertTrue(health.record(true));
+    }
+
+    @Test
+    void adoptedPeerVerdictAppliesAtOnceAndResetsCounts() {
+        BackendHealth health = healthy();
+        probe(health, false, false);
+
+        assertFalse(health.adopt(true));
+        assertEquals(State.HEALTHY, health.getState());
+        // The two failures before the verdict no longer count towards the fall threshold
+        assertEquals(List.of(State.SUSPECT, State.SUSPECT), probe(health, false, false));
+
+        assertTrue(health.adopt(false));
+        assertEquals(State.UNHEALTHY, health.getState());
+        assertEquals(List.of(State.RECOVERING), probe(health, true));
+        assertFalse(health.isInRotation());
+    }
+
+    @Test
+    void adoptingHealthySeedsAnUnprobedBackend() {
+        BackendHealth health = new BackendHealth(RISE, FALL);
+        assertTrue(health.adopt(true));
+
+        assertEquals(List.of(State.SUSPECT, State.SUSPECT, State.UNHEALTHY), probe(health, false, false, false));
+    }
+
+    @Test
+    void probeIntervalFollowsTheState() {
+        ProbeSchedule schedule = schedule(0.5);
+        BackendHealth health = new BackendHealth(RISE, FALL);
+        long now = 0;
+
+        List<Long> intervalsMs = new ArrayList<>();
+        for (boolean success : new boolean[] { true, false, false, false, true, true }) {
+            health.record(success);
+            long delay = schedule.nextProbeDelayNanos(health.getState());
+            health.setNextProbeAtNanos(now + delay);
+            assertFalse(health.isDue(now + delay - 1));
+            assertTrue(health.isDue(now + delay));
+            now += delay;
+            intervalsMs.add(TimeUnit.NANOSECONDS.toMillis(delay));
+        }
+
+        // HEALTHY, SUSPECT, SUSPECT, UNHEALTHY, RECOVERING, HEALTHY
+        assertEquals(List.of(STABLE_MS, FAST_MS, FAST_MS, UNHEALTHY_MS, FAST_MS, STABLE_MS), intervalsMs);
+        assertEquals(FAST_MS, TimeUnit.NANOSECONDS.toMillis(schedule.peerVerdictDelayNanos()));
+    }
+
+    @Test
+    void jitterSpreadsIntervalsWithinItsBounds() {
+        assertEquals(48_000, TimeUnit.NANOSECONDS.toMillis(schedule(0).nextProbeDelayNanos(State.HEALTHY)));
+        assertEquals(8_000, TimeUnit.NANOSECONDS.toMillis(schedule(0).nextProbeDelayNanos(State.UNHEALTHY)));
+        assertEquals(2_400, TimeUnit.NANOSECONDS.toMillis(schedule(1).nextProbeDelayNanos(State.SUSPECT)));
+        assertEquals(1_600, TimeUnit.NANOSECONDS.toMillis(schedule(0).peerVerdictDelayNanos()));
+
+        double[] values = { 0.1, 0.9 };
+        int[] next = { 0 };
+        ProbeSchedule alternating = new ProbeSchedule(STABLE_MS, FAST_MS, UNHEALTHY_MS, 0.2,
+                () -> values[next[0]++ % values.length]);
+        long shortened = alternating.nextProbeDelayNanos(State.RECOVERING);
+        long lengthened = alternating.nextProbeDelayNanos(State.RECOVERING);
+        assertEquals(1_600, TimeUnit.NANOSECONDS.toMillis(shortened), 1_600 * 0.2);
+        assertTrue(shortened < TimeUnit.MILLISECONDS.toNanos(FAST_MS));
+        assertTrue(lengthened > TimeUnit.MILLISECONDS.toNanos(FAST_MS));
+    }
+
+    private static BackendHealth healthy() {
+        BackendHealth health = new BackendHealth(RISE, FALL);
+        health.record(true);
+        return health;
+    }
+
+    private static List<State> probe(BackendHealth health, boolean... results) {
+        List<State> states = new ArrayList<>();
+        for (boolean success : results) {
+            health.record(success);
+            states.add(health.getState());
+        }
+        return states;
+    }
+
+    private static ProbeSchedule schedule(double random) {
+        return new ProbeSchedule(STABLE_MS, FAST_MS, UNHEALTHY_MS, 0.2, () -> random);
+    }
+}
@@ -0,0 +1,196 @@
+package com.baitan.balancer.priority;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.executor.CoDelController;
+
+/**
+ * Tests of the slot granting and shedding of {@link WeightedFairScheduler}.
+ * Granted requests are collected by a worker pool that is run by hand, so
+ * every test controls exactly when requests start and release their slot.
+ *
+ * @author Tanish Baidya
+ */
+class WeightedFairSchedulerTest {
+
+    private static final long NO_CODEL_SHEDDING_MS = 60_000;
+
+    private final ManualWorkers workers = new ManualWorkers();
+    private RecordingRequest lastRun;
+
+    @Test
+    void grantsSlotsInProportionToWeight() {
+        PriorityClass interactive = priorityClass("interactive", 0, 4, 0, NO_CODEL_SHEDDING_MS);
+        PriorityClass batch = priorityClass("batch", 1, 1, 0, NO_CODEL_SHEDDING_MS);
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of(interactive, batch), 1, 100, workers);
+
+        RecordingRequest running = submit(scheduler, interactive);
+        workers.runNext();
+        for (int i = 0; i < 10; i++) {
+            submit(scheduler, interactive);
+            submit(scheduler, batch);
+        }
+
+        List<PriorityClass> grantOrder = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            running.permit.release();
+            running = workers.runNext();
+            assertNotNull(running.permit);
+            grantOrder.add(running.priorityClass);
+        }
+
+        assertEquals(8, grantOrder.stream().filter(c -> c == interactive).count());
+        assertEquals(2, grantOrder.stream().filter(c -> c == batch).count());
+        // The batch class starts waiting at the current virtual time, ahead of the running interactive class
+        assertEquals(batch, grantOrder.get(0));
+    }
+
+    @Test
+    void reservedSlotsAreNotTakenByOtherClasses() {
+        PriorityClass interactive = priorityClass("interactive", 0, 1, 1, NO_CODEL_SHEDDING_MS);
+        PriorityClass batch = priorityClass("batch", 1, 8, 0, NO_CODEL_SHEDDING_MS);
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of(interactive, batch), 2, 100, workers);
+
+        submit(scheduler, batch);
+        submit(scheduler, batch);
+        assertEquals(1, workers.granted);
+        assertEquals(1, scheduler.getQueueDepth(batch));
+
+        submit(scheduler, interactive);
+        assertEquals(2, workers.granted);
+    }
+
+    @Test
+    void displacesOldestRequestOfLeastImportantClassWhenFull() {
+        PriorityClass interactive = priorityClass("interactive", 0, 8, 0, NO_CODEL_SHEDDING_MS);
+        PriorityClass normal = priorityClass("default", 1, 4, 0, NO_CODEL_SHEDDING_MS);
+        PriorityClass batch = priorityClass("batch", 2, 1, 0, NO_CODEL_SHEDDING_MS);
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of(interactive, normal, batch), 1, 3,
+                workers);
+
+        submit(scheduler, interactive);
+        RecordingRequest oldestBatch = submit(scheduler, batch);
+        RecordingRequest newestBatch = submit(scheduler, batch);
+        RecordingRequest waitingNormal = submit(scheduler, normal);
+        assertEquals(3, scheduler.getQueueDepth());
+
+        RecordingRequest arriving = submit(scheduler, normal);
+        assertTrue(oldestBatch.shed);
+        assertFalse(newestBatch.shed);
+        assertFalse(arriving.shed);
+        assertEquals(1, batch.getShedCount());
+
+        submit(scheduler, normal);
+        assertTrue(newestBatch.shed);
+
+        // Nothing ranks below the default class any more, so the arriving request is shed itself
+        RecordingRequest rejected = submit(scheduler, normal);
+        assertTrue(rejected.shed);
+        assertFalse(waitingNormal.shed);
+        assertEquals(1, normal.getShedCount());
+        assertEquals(3, scheduler.getQueueDepth());
+        assertEquals(1, workers.granted);
+    }
+
+    @Test
+    void shedsRequestsThatQueuedTooLongPerClass() throws InterruptedException {
+        PriorityClass interactive = priorityClass("interactive", 0, 8, 0, NO_CODEL_SHEDDING_MS);
+        PriorityClass batch = priorityClass("batch", 1, 1, 0, 1);
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(List.of(interactive, batch), 1, 100, workers);
+
+        RecordingRequest running = submit(scheduler, interactive);
+        workers.runNext();
+        RecordingRequest waitingBatch = submit(scheduler, batch);
+        RecordingRequest waitingInteractive = submit(scheduler, interactive);
+        Thread.sleep(5);
+
+        running.permit.release();
+        workers.runNext();
+        assertTrue(waitingBatch.shed);
+        assertEquals(1, batch.getShedCount());
+
+        // The slot of the shed request goes straight to the next one
+        workers.runNext();
+        assertNotNull(waitingInteractive.permit);
+        assertTrue(waitingInteractive.permit.getQueueWaitNanos() >= 5_000_000);
+        assertEquals(2, interactive.getServedCount());
+        assertEquals(0, interactive.getShedCount());
+    }
+
+    @Test
+    void rejectsReservationsExceedingTheSlots() {
+        PriorityClass interactive = priorityClass("interactive", 0, 8, 2, NO_CODEL_SHEDDING_MS);
+        PriorityClass batch = priorityClass("batch", 1, 1, 0, NO_CODEL_SHEDDING_MS);
+        assertThrows(IllegalArgumentException.class,
+                () -> new WeightedFairScheduler(List.of(interactive, batch), 2, 100, workers));
+    }
+
+    private static PriorityClass priorityClass(String name, int rank, int weight, int reserved, long maxQueueMs) {
+        return new PriorityClass(name, rank, weight, reserved, new CoDelController(10, 100, maxQueueMs));
+    }
+
+    private RecordingRequest submit(WeightedFairScheduler scheduler, PriorityClass priorityClass) {
+        RecordingRequest request = new RecordingRequest(priorityClass);
+        scheduler.submit(priorityClass, request);
+        return request;
+    }
+
+    /**
+     * A request remembering whether it was granted or shed.
+     */
+    private final class RecordingRequest implements WeightedFairScheduler.Request {
+
+        private final PriorityClass priorityClass;
+        private WeightedFairScheduler.Permit permit;
+        private boolean shed;
+
+        private RecordingRequest(PriorityClass priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+
+        @Override
+        public void granted(WeightedFairScheduler.Permit permit) {
+            this.permit = permit;
+            lastRun = this;
+        }
+
+        @Override
+        public void shed() {
+            this.shed = true;
+            lastRun = this;
+        }
+    }
+
+    /**
+     * Workers that only run granted requests when told to.
+     */
+    private final class ManualWorkers implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private int granted;
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.addLast(task);
+            granted++;
+        }
+
+        private RecordingRequest runNext() {
+            Runnable task = tasks.pollFirst();
+            assertNotNull(task, "no granted request to run");
+            task.run();
+            return lastRun;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.baitan.balancer.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the whole-segment path matching and case-insensitive lookups of
+ * {@link PrefixTrie}.
+ *
+ * @author Tanish Baidya
+ */
+class PrefixTrieTest {
+
+    @Test
+    void matchesPrefixesOnSegmentBoundariesOnly() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.put("/api", 1);
+
+        assertEquals(1, trie.longestPathPrefix("/api"));
+        assertEquals(1, trie.longestPathPrefix("/api/"));
+        assertEquals(1, trie.longestPathPrefix("/api/users"));
+        assertEquals(PrefixTrie.NO_MATCH, trie.longestPathPrefix("/apis"));
+        assertEquals(PrefixTrie.NO_MATCH, trie.longestPathPrefix("/ap"));
+        assertEquals(PrefixTrie.NO_MATCH, trie.longestPathPrefix(""));
+    }
+
+    @Test
+    void prefersTheLongestMatchingPrefix() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.put("/", 0);
+        trie.put("/api", 1);
+        trie.put("/api/v2", 2);
+
+        assertEquals(2, trie.longestPathPrefix("/api/v2/users"));
+        assertEquals(1, trie.longestPathPrefix("/api/v1/users"));
+        // A partial segment falls back to the shorter prefix rather than to nothing
+        assertEquals(1, trie.longestPathPrefix("/api/v20"));
+        assertEquals(0, trie.longestPathPrefix("/apis"));
+        assertEquals(0, trie.longestPathPrefix("/"));
+    }
+
+    @Test
+    void prefixEndingInSlashMatchesAnythingBelowIt() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.put("/static/", 3);
+
+        assertEquals(3, trie.longestPathPrefix("/static/app.js"));
+        assertEquals(3, trie.longestPathPrefix("/static/"));
+        assertEquals(PrefixTrie.NO_MATCH, trie.longestPathPrefix("/static"));
+    }
+
+    @Test
+    void pathsMatchCaseSensitively() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.put("/api", 1);
+        assertEquals(PrefixTrie.NO_MATCH, trie.longestPathPrefix("/API/users"));
+    }
+
+    @Test
+    void looksUpRegionsIgnoringCase() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.put("api.example.com", 4);
+        trie.put("api.example", 5);
+
+        assertEquals(4, trie.getIgnoreCase("API.Example.COM:8080", 0, 15));
+        assertEquals(5, trie.getIgnoreCase("api.example.com", 0, 11));
+        assertEquals(PrefixTrie.NO_MATCH, trie.getIgnoreCase("api.example.co", 0, 14));
+        assertEquals(PrefixTrie.NO_MATCH, trie.getIgnoreCase("api.example.com.evil", 0, 20));
+    }
+}
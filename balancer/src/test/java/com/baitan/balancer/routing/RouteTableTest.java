@@ -0,0 +1,83 @@
+package com.baitan.balancer.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.deadline.UpstreamTimeouts;
+import com.baitan.balancer.strategy.ConcurrentRoundRobinStrategy;
+
+/**
+ * Tests of the route resolution of {@link RouteTable}: host routes first,
+ * then routes of any host, then the default pool.
+ *
+ * @author Tanish Baidya
+ */
+class RouteTableTest {
+
+    private static final UpstreamTimeouts DEFAULTS = new UpstreamTimeouts(1_000, 5_000, 30_000);
+
+    private final BackendPools pools = new BackendPools(new ConcurrentRoundRobinStrategy(),
+            ConcurrentRoundRobinStrategy::new);
+
+    @Test
+    void hostRoutesTakePrecedenceOverAnyHostRoutes() {
+        RouteTable table = new RouteTable("api.example.com/v1=api;/v1=web;/=fallback", pools, DEFAULTS);
+
+        assertEquals("api", table.lookup("api.example.com", "/v1/users").getPool().getName());
+        assertEquals("web", table.lookup("www.example.com", "/v1/users").getPool().getName());
+        assertEquals("web", table.lookup(null, "/v1/users").getPool().getName());
+    }
+
+    @Test
+    void hostWithoutMatchingPathFallsBackToAnyHostRoutes() {
+        RouteTable table = new RouteTable("api.example.com/v1=api;/static=assets", pools, DEFAULTS);
+
+        assertEquals("assets", table.lookup("api.example.com", "/static/app.js").getPool().getName());
+        assertSame(pools.getDefaultPool(), table.lookup("api.example.com", "/v2/users").getPool());
+    }
+
+    @Test
+    void hostsMatchIgnoringCaseAndPort() {
+        RouteTable table = new RouteTable("api.example.com/=api;[::1]/=local", pools, DEFAULTS);
+
+        assertEquals("api", table.lookup("API.Example.com:8080", "/users").getPool().getName());
+        assertEquals("local", table.lookup("[::1]:8080", "/users").getPool().getName());
+        assertSame(pools.getDefaultPool(), table.lookup("api.example.com.evil", "/users").getPool());
+    }
+
+    @Test
+    void routesCarryTheirOwnOrTheDefaultTimeouts() {
+        RouteTable table = new RouteTable("/slow=reports@500/20000/60000;/=web", pools, DEFAULTS);
+
+        UpstreamTimeouts slow = table.lookup(null, "/slow/daily").getTimeouts();
+        assertEquals(500, slow.getConnectMillis());
+        assertEquals(20_000, slow.getFirstByteMillis());
+        assertEquals(60_000, slow.getTotalMillis());
+        assertSame(DEFAULTS, table.lookup(null, "/index.html").getTimeouts());
+    }
+
+    @Test
+    void unmatchedRequestsGoToTheDefaultPool() {
+        RouteTable table = new RouteTable("/api=api", pools, DEFAULTS);
+
+        Route route = table.lookup("example.com", "/apis");
+        assertSame(pools.getDefaultPool(), route.getPool());
+        assertSame(DEFAULTS, route.getTimeouts());
+    }
+
+    @Test
+    void routesToTheSamePoolShareIt() {
+        RouteTable table = new RouteTable("/a=shared;/b=shared", pools, DEFAULTS);
+        assertSame(table.lookup(null, "/a").getPool(), table.lookup(null, "/b").getPool());
+    }
+
+    @Test
+    void rejectsMalformedRoutes() {
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable("/api", pools, DEFAULTS));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable("api=api", pools, DEFAULTS));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable("/api=@1/2/3", pools, DEFAULTS));
+    }
+}
@@ -0,0 +1,73 @@
+package com.baitan.balancer.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the ordering and field packing of {@link EventQueue}.
+ *
+ * @author Tanish Baidya
+ */
+class EventQueueTest {
+
+    @Test
+    void pollsEventsInTimeOrderWithTheirFields() {
+        EventQueue events = new EventQueue();
+        events.add(30, EventQueue.COMPLETION, 2, 7, 12.5);
+        events.add(10, EventQueue.ARRIVAL, -1, 0, 0);
+        events.add(20, EventQueue.FAILURE, 0x7FFFFF, Integer.MAX_VALUE, 1);
+
+        events.poll();
+        assertEquals(10, events.time());
+        assertEquals(EventQueue.ARRIVAL, events.kind());
+        assertEquals(-1, events.backend());
+
+        events.poll();
+        assertEquals(20, events.time());
+        assertEquals(EventQueue.FAILURE, events.kind());
+        assertEquals(0x7FFFFF, events.backend());
+        assertEquals(Integer.MAX_VALUE, events.epoch());
+        assertEquals(1, events.arrival());
+
+        events.poll();
+        assertEquals(EventQueue.COMPLETION, events.kind());
+        assertEquals(2, events.backend());
+        assertEquals(7, events.epoch());
+        assertEquals(12.5, events.arrival());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void staysOrderedWhileGrowingAndInterleaving() {
+        EventQueue events = new EventQueue();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 1_000; i++) {
+            events.add(random.nextDouble(1_000), EventQueue.ARRIVAL, i, 0, 0);
+        }
+
+        double last = 0;
+        for (int i = 0; i < 5_000; i++) {
+            events.poll();
+            assertTrue(events.time() >= last);
+            last = events.time();
+            // Schedule a successor, as arrivals and completions do
+            events.add(last + random.nextDouble(100), EventQueue.COMPLETION, events.backend(), 0, last);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            events.poll();
+            assertTrue(events.time() >= last);
+            last = events.time();
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void pollingAnEmptyQueueFails() {
+        assertThrows(IllegalStateException.class, () -> new EventQueue().poll());
+    }
+}
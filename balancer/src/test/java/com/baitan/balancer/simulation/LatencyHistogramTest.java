@@ -0,0 +1,55 @@
+package com.baitan.balancer.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the percentiles read back from {@link LatencyHistogram}.
+ *
+ * @author Tanish Baidya
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReadsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 100; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(99, histogram.percentile(99));
+        assertEquals(100, histogram.percentile(100));
+        assertEquals(50.5, histogram.getMean());
+    }
+
+    @Test
+    void largeValuesStayWithinTheRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1_000; micros <= 1_000_000_000L; micros *= 10) {
+            histogram.record(micros);
+        }
+        long[] expected = { 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000L };
+        for (int i = 0; i < expected.length; i++) {
+            long read = histogram.percentile(100.0 * (i + 0.5) / expected.length);
+            assertEquals(expected[i], read, expected[i] * 0.016);
+        }
+        assertEquals(1_000_000_000L, histogram.getMax());
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.percentile(100));
+        assertEquals(1, histogram.getCount());
+    }
+}
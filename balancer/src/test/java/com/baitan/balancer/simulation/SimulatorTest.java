@@ -0,0 +1,70 @@
+package com.baitan.balancer.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.strategy.ConcurrentRoundRobinStrategy;
+
+/**
+ * Small deterministic scenarios run through {@link Simulator} with the round
+ * robin strategy, whose choices do not depend on random numbers.
+ *
+ * @author Tanish Baidya
+ */
+class SimulatorTest {
+
+    @Test
+    void constantServiceTimesGiveExactLatencies() throws IOException {
+        Simulator simulator = new Simulator(scenario("--backends=2:4:const:10", "--rate=100", "--requests=2000"));
+        SimulationResult result = simulator.run("round-robin", strategy());
+
+        assertEquals(2_000, result.getRequests());
+        assertEquals(2_000, result.getCompleted());
+        assertEquals(0, result.getErrors());
+        assertEquals(10, result.getLatencyMillis(50), 10 * 0.016);
+        assertEquals(10, result.getLatencyMillis(100), 10 * 0.016);
+        // 100 requests per second of 10 ms each spread over 8 workers
+        for (double utilization : result.getUtilizations()) {
+            assertEquals(0.125, utilization, 0.02);
+        }
+    }
+
+    @Test
+    void failedBackendLosesRequestsUntilTheNextHealthSync() throws IOException {
+        Scenario scenario = scenario("--backends=2:4:const:10", "--rate=200", "--requests=10000",
+                "--health-interval-ms=100", "--failures=0@10050+1000000", "--load-hints=false");
+        SimulationResult first = new Simulator(scenario).run("round-robin", strategy());
+        SimulationResult second = new Simulator(scenario).run("round-robin", strategy());
+
+        // The requests in flight on the failed backend and half of those of the 50 ms until the sync
+        assertTrue(first.getErrors() > 0 && first.getErrors() < 20, "errors: " + first.getErrors());
+        assertEquals(first.getRequests(), first.getCompleted() + first.getErrors());
+        assertTrue(first.getUtilizations()[0] < first.getUtilizations()[1]);
+
+        assertEquals(first.getErrors(), second.getErrors());
+        assertEquals(first.getCompleted(), second.getCompleted());
+        assertArrayEquals(first.getUtilizations(), second.getUtilizations());
+    }
+
+    private static ConcurrentRoundRobinStrategy strategy() {
+        ConcurrentRoundRobinStrategy strategy = new ConcurrentRoundRobinStrategy();
+        strategy.setMembershipLogged(false);
+        return strategy;
+    }
+
+    private static Scenario scenario(String... args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return Scenario.fromOptions(options);
+    }
+}
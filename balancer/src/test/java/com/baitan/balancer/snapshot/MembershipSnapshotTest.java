@@ -0,0 +1,109 @@
+package com.baitan.balancer.snapshot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baitan.balancer.Service;
+
+/**
+ * Tests of the file format and freshness of {@link MembershipSnapshot}.
+ *
+ * @author Tanish Baidya
+ */
+class MembershipSnapshotTest {
+
+    private static final long TAKEN_AT_MILLIS = 1_700_000_000_000L;
+    private static final long MAX_AGE_MS = 600_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsServicesPoolsAndLatencies() throws IOException {
+        MembershipSnapshot written = snapshot(TAKEN_AT_MILLIS);
+        Path file = directory.resolve("membership.snapshot");
+        written.writeTo(file);
+
+        MembershipSnapshot read = MembershipSnapshot.readFrom(file);
+        assertEquals(TAKEN_AT_MILLIS, read.getTakenAtMillis());
+        assertArrayEquals(written.getServices(), read.getServices());
+        assertEquals("api", read.getEntries().get(1).getService().getPool());
+        assertEquals(2_000_000, read.getEntries().get(1).getLatencyEwmaNanos());
+        assertTrue(read.hasSameMembership(written));
+        assertFalse(Files.exists(directory.resolve("membership.snapshot.tmp")));
+    }
+
+    @Test
+    void replacesLeftoverTemporaryFile() throws IOException {
+        Path file = directory.resolve("membership.snapshot");
+        Files.write(directory.resolve("membership.snapshot.tmp"), new byte[1024]);
+
+        snapshot(TAKEN_AT_MILLIS).writeTo(file);
+        assertEquals(2, MembershipSnapshot.readFrom(file).getEntries().size());
+    }
+
+    @Test
+    void rejectsChecksumMismatch() throws IOException {
+        Path file = directory.resolve("membership.snapshot");
+        snapshot(TAKEN_AT_MILLIS).writeTo(file);
+        byte[] data = Files.readAllBytes(file);
+        data[data.length / 2] ^= 0x01;
+        Files.write(file, data);
+
+        IOException e = assertThrows(IOException.class, () -> MembershipSnapshot.readFrom(file));
+        assertTrue(e.getMessage().contains("checksum"));
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path file = directory.resolve("membership.snapshot");
+        snapshot(TAKEN_AT_MILLIS).writeTo(file);
+        byte[] data = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(data, data.length - 10));
+        assertThrows(IOException.class, () -> MembershipSnapshot.readFrom(file));
+
+        Files.write(file, new byte[2]);
+        assertThrows(IOException.class, () -> MembershipSnapshot.readFrom(file));
+    }
+
+    @Test
+    void staleOrEmptySnapshotIsNotUsable() {
+        MembershipSnapshot snapshot = snapshot(TAKEN_AT_MILLIS);
+        assertTrue(snapshot.isUsable(TAKEN_AT_MILLIS + 1_000, MAX_AGE_MS));
+        assertTrue(snapshot.isUsable(TAKEN_AT_MILLIS + MAX_AGE_MS, MAX_AGE_MS));
+        assertFalse(snapshot.isUsable(TAKEN_AT_MILLIS + MAX_AGE_MS + 1, MAX_AGE_MS));
+
+        assertFalse(new MembershipSnapshot(TAKEN_AT_MILLIS, List.of()).isUsable(TAKEN_AT_MILLIS, MAX_AGE_MS));
+    }
+
+    @Test
+    void sameMembershipIgnoresOrderAndStatistics() {
+        MembershipSnapshot snapshot = snapshot(TAKEN_AT_MILLIS);
+        MembershipSnapshot reordered = new MembershipSnapshot(TAKEN_AT_MILLIS + 30_000, List.of(
+                new MembershipSnapshot.Entry(new Service("10.0.0.2", 8080, "api"), 9_000_000),
+                new MembershipSnapshot.Entry(new Service("10.0.0.1", 8080), 1)));
+        MembershipSnapshot shrunk = new MembershipSnapshot(TAKEN_AT_MILLIS, snapshot.getEntries().subList(0, 1));
+
+        assertTrue(snapshot.hasSameMembership(reordered));
+        assertFalse(snapshot.hasSameMembership(shrunk));
+        assertFalse(snapshot.hasSameMembership(null));
+    }
+
+    private static MembershipSnapshot snapshot(long takenAtMillis) {
+        return new MembershipSnapshot(takenAtMillis, List.of(
+                new MembershipSnapshot.Entry(new Service("10.0.0.1", 8080), 1_000_000),
+                new MembershipSnapshot.Entry(new Service("10.0.0.2", 8080, "api"), 2_000_000)));
+    }
+}
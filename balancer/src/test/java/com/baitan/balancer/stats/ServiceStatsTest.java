@@ -0,0 +1,60 @@
+package com.baitan.balancer.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the load hint smoothing and decay of {@link ServiceStats} on a
+ * clock set by hand.
+ *
+ * @author Tanish Baidya
+ */
+class ServiceStatsTest {
+
+    private static final long HALF_LIFE_NANOS = 2_000_000_000L;
+
+    private long now = 1_000_000_000L;
+
+    @Test
+    void firstHintIsTakenAsIs() {
+        ServiceStats stats = new ServiceStats(() -> now);
+        assertEquals(ServiceStats.getNeutralLoadHint(), stats.getLoadHint());
+
+        stats.recordLoadHint(0.9);
+        assertEquals(0.9, stats.getLoadHint(), 1e-9);
+    }
+
+    @Test
+    void hintDecaysTowardNeutralByHalfLife() {
+        ServiceStats stats = new ServiceStats(() -> now);
+        double neutral = ServiceStats.getNeutralLoadHint();
+        stats.recordLoadHint(neutral + 0.4);
+
+        now += HALF_LIFE_NANOS;
+        assertEquals(neutral + 0.2, stats.getLoadHint(), 1e-9);
+        now += HALF_LIFE_NANOS;
+        assertEquals(neutral + 0.1, stats.getLoadHint(), 1e-9);
+    }
+
+    @Test
+    void freshHintIsWeighedAgainstTheDecayedOne() {
+        ServiceStats stats = new ServiceStats(() -> now);
+        double neutral = ServiceStats.getNeutralLoadHint();
+        stats.recordLoadHint(neutral + 0.4);
+
+        now += HALF_LIFE_NANOS;
+        stats.recordLoadHint(neutral + 0.4);
+        // 0.2 decayed, moved 30% of the way to 0.4
+        assertEquals(neutral + 0.26, stats.getLoadHint(), 1e-9);
+    }
+
+    @Test
+    void ignoresInvalidHints() {
+        ServiceStats stats = new ServiceStats(() -> now);
+        stats.recordLoadHint(-1);
+        stats.recordLoadHint(Double.NaN);
+        stats.recordLoadHint(Double.POSITIVE_INFINITY);
+        assertEquals(ServiceStats.getNeutralLoadHint(), stats.getLoadHint());
+    }
+}
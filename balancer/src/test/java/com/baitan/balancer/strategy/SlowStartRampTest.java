@@ -0,0 +1,54 @@
+package com.baitan.balancer.strategy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.Service;
+
+/**
+ * Tests of the weights of {@link SlowStartRamp} on a clock set by hand.
+ *
+ * @author Tanish Baidya
+ */
+class SlowStartRampTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    private long now = 5_000 * MILLIS;
+
+    @Test
+    void weightGrowsLinearlyOverTheWindow() {
+        SlowStartRamp ramp = new SlowStartRamp(1_000, 0.2);
+        ramp.setClock(() -> now);
+        Service service = new Service("ramp.invalid", 80);
+
+        ramp.admit(service);
+        assertTrue(ramp.isRamping());
+        assertEquals(0.2, ramp.weightOf(service), 1e-9);
+        now += 500 * MILLIS;
+        assertEquals(0.6, ramp.weightOf(service), 1e-9);
+
+        now += 500 * MILLIS;
+        assertEquals(1.0, ramp.weightOf(service));
+        assertFalse(ramp.isRamping());
+    }
+
+    @Test
+    void changingTheClockForgetsRampingServices() {
+        SlowStartRamp ramp = new SlowStartRamp(1_000, 0.2);
+        ramp.admit(new Service("ramp.invalid", 80));
+
+        ramp.setClock(() -> now);
+        assertFalse(ramp.isRamping());
+    }
+
+    @Test
+    void emptyWindowDisablesTheRamp() {
+        SlowStartRamp ramp = new SlowStartRamp(0, 0.2);
+        ramp.admit(new Service("ramp.invalid", 80));
+        assertFalse(ramp.isRamping());
+    }
+}
@@ -0,0 +1,38 @@
+package com.baitan.balancer.strategy;
+
+import org.junit.jupiter.api.Test;
+
+import com.baitan.balancer.AllocationMeter;
+import com.baitan.balancer.Service;
+
+/**
+ * Allocation budgets of picking a backend, which every proxied request does.
+ * Both strategies are expected to select without allocating once warmed up.
+ *
+ * @author Tanish Baidya
+ */
+class StrategySelectionAllocationTest {
+
+    private static final int WARM_UP_RUNS = 200_000;
+    private static final int RUNS = 1_000_000;
+    private static final long SELECTION_BUDGET_BYTES = 0;
+
+    @Test
+    void roundRobinSelectionStaysWithinBudget() throws Exception {
+        assertSelectionWithinBudget("round-robin selection", new ConcurrentRoundRobinStrategy());
+    }
+
+    @Test
+    void leastLoadedSelectionStaysWithinBudget() throws Exception {
+        assertSelectionWithinBudget("least-loaded selection", new LeastLoadedStrategy());
+    }
+
+    private static void assertSelectionWithinBudget(String path, BalancingStrategy strategy) throws Exception {
+        // addServices neither prewarms nor slow-starts, so no backend has to listen.
+        for (int i = 0; i < 4; i++) {
+            strategy.addServices(new Service("127.0.0.1", 1 + i));
+        }
+        double bytesPerRun = AllocationMeter.bytesPerRun(WARM_UP_RUNS, RUNS, strategy::getNextService);
+        AllocationMeter.assertWithinBudget(path, SELECTION_BUDGET_BYTES, bytesPerRun);
+    }
+}
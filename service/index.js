@@ -1,8 +1,36 @@
 const express = require("express");
 const os = require("os");
+const { performance, monitorEventLoopDelay } = require("perf_hooks");
 const app = express();
 const port = 3000;
 
+// Load reported to the balancer in the X-Backend-Load header: the larger of
+// the event-loop utilization and the event-loop lag relative to a budget,
+// both measured over the last sampling interval. 1.0 means saturated.
+const LOAD_SAMPLE_INTERVAL_MS = 500;
+const LAG_BUDGET_MS = 50;
+const LOOP_DELAY_RESOLUTION_MS = 10;
+
+const loopDelay = monitorEventLoopDelay({ resolution: LOOP_DELAY_RESOLUTION_MS });
+loopDelay.enable();
+let lastUtilization = performance.eventLoopUtilization();
+let load = 0;
+
+setInterval(() => {
+  const utilization = performance.eventLoopUtilization(lastUtilization);
+  lastUtilization = performance.eventLoopUtilization();
+  // The measured delay includes the sampling resolution itself
+  const meanMs = Number.isFinite(loopDelay.mean) ? loopDelay.mean / 1e6 : 0;
+  const lagMs = Math.max(0, meanMs - LOOP_DELAY_RESOLUTION_MS);
+  loopDelay.reset();
+  load = Math.max(utilization.utilization, lagMs / LAG_BUDGET_MS);
+}, LOAD_SAMPLE_INTERVAL_MS).unref();
+
+app.use((req, res, next) => {
+  res.set("X-Backend-Load", load.toFixed(3));
+  next();
+});
+
 app.get("/", (req, res) => {
   res.send(`Hello World! from ${os.hostname()}`);
 });